@@ -11,8 +11,6 @@ import android.widget.ProgressBar
 import android.widget.TextView
 import android.widget.Toast
 import android.widget.VideoView
-import java.io.FileInputStream
-import java.io.FileOutputStream
 import androidx.appcompat.app.AlertDialog
 import androidx.appcompat.app.AppCompatActivity
 import androidx.recyclerview.widget.LinearLayoutManager
@@ -24,13 +22,14 @@ import com.baji.demo.utils.TimerTaskImp
 import com.baji.demo.utils.VideoUtils
 import com.baji.demo.view.RangeSeekBarView
 import com.baji.demo.view.VideoCropOverlayView
-import com.arthenica.ffmpegkit.FFmpegKit
-import com.arthenica.ffmpegkit.ReturnCode
 import com.baji.sdk.BajiSDK
 import com.baji.sdk.callback.FileTransferCallback
 import com.baji.sdk.callback.VideoConvertCallback
+import com.baji.sdk.callback.VideoThumbnailCallback
 import com.baji.sdk.model.FileInfo
 import com.baji.sdk.model.VideoConvertParams
+import com.baji.sdk.model.VideoThumbnail
+import com.baji.sdk.service.VideoConvertJob
 import java.io.File
 import java.util.ArrayList
 import java.util.Timer
@@ -83,8 +82,13 @@ class VideoCutActivity : AppCompatActivity() {
     private var mCropWidth = 0f
     private var mCropHeight = 0f
 
-    // 用于帧提取的视频路径（如果是Content URI，需要先复制到临时文件）
+    // 用于帧提取的视频路径或Content URI（Content URI通过SAF直接交给FFmpeg，不复制到临时文件）
     private var frameExtractionVideoPath: String? = null
+    private var frameExtractionVideoUri: android.net.Uri? = null
+
+    // 未结束的SDK任务（离开页面时取消）
+    private var thumbnailJob: VideoConvertJob? = null // 当前帧提取任务
+    private var convertJob: VideoConvertJob? = null // 当前视频转换任务
 
     override fun onCreate(savedInstanceState: Bundle?) {
         super.onCreate(savedInstanceState)
@@ -211,7 +215,7 @@ class VideoCutActivity : AppCompatActivity() {
 
                 Log.d(TAG, "视频准备完成，尺寸: ${mVideoOriginalWidth}x${mVideoOriginalHeight}")
 
-                // 准备帧提取的视频路径（如果是Content URI，需要先复制）
+                // 准备帧提取的视频输入（文件路径或Content URI）
                 prepareVideoForFrameExtraction { success ->
                     if (success) {
                         // 初始化裁剪框
@@ -349,7 +353,7 @@ class VideoCutActivity : AppCompatActivity() {
     }
 
     /**
-     * 准备视频文件用于帧提取（如果是Content URI，需要先复制到临时文件）
+     * 准备视频输入用于帧提取（Content URI直接通过SAF读取，无需复制）
      */
     private fun prepareVideoForFrameExtraction(callback: (Boolean) -> Unit) {
         val videoPath = videoInfo?.path ?: ""
@@ -357,18 +361,11 @@ class VideoCutActivity : AppCompatActivity() {
         val isContentUri = (videoPath.isNotEmpty() && videoPath.startsWith("content://")) ||
                 (videoUri != null && videoUri.toString().startsWith("content://"))
 
-        if (isContentUri && videoUri != null) {
-            // Content URI，需要复制到临时文件
-            Log.d(TAG, "检测到Content URI，复制视频到临时文件用于帧提取...")
-            val tempPath = copyContentUriToTempFile(videoUri)
-            if (tempPath != null) {
-                frameExtractionVideoPath = tempPath
-                Log.d(TAG, "视频已复制到临时文件: $tempPath")
-                callback(true)
-            } else {
-                Log.e(TAG, "复制Content URI失败")
-                callback(false)
-            }
+        if (isContentUri) {
+            // Content URI，提取帧时通过SAF直接交给FFmpeg
+            frameExtractionVideoUri = videoUri ?: android.net.Uri.parse(videoPath)
+            Log.d(TAG, "检测到Content URI，通过SAF直接提取帧: $frameExtractionVideoUri")
+            callback(true)
         } else {
             // 普通文件路径
             frameExtractionVideoPath = videoPath
@@ -426,131 +423,92 @@ class VideoCutActivity : AppCompatActivity() {
                 dir.mkdirs()
             }
 
-            // 开始提取第一帧
-            gotoGetFrameAtTime(0)
+            // 开始提取帧
+            extractFrames()
         } catch (e: Exception) {
             Log.e(TAG, "分析视频失败: ${e.message}", e)
         }
     }
 
     /**
-     * 提取指定时间的视频帧
+     * 提取时间轴预览帧
+     * 由SDK在一个FFmpeg会话中解码一次、输出全部帧，每帧生成后立即显示
      */
-    private fun gotoGetFrameAtTime(time: Int) {
-        if (time >= mFrames) {
-            Log.d(TAG, "所有帧提取完成，共 $mFrames 帧")
-            return
-        }
-
-        val inputPath = frameExtractionVideoPath
-        if (inputPath == null || inputPath.isEmpty()) {
-            Log.e(TAG, "视频路径为空，无法提取帧")
-            return
-        }
-
-        // 检查是否是Content URI（这种情况不应该发生，但为了安全）
-        if (inputPath.startsWith("content://")) {
-            Log.e(TAG, "FFmpeg 无法处理 Content URI: $inputPath")
+    private fun extractFrames() {
+        if (isFinishing || isDestroyed) {
+            Log.w(TAG, "Activity已销毁，取消提取帧")
             return
         }
 
-        val outfile = "$outDir${File.separator}$time.jpg"
-
         // 获取表盘信息并计算帧尺寸
         val frameSize = getFrameSizeFromClockDialInfo()
+        val callback = object : VideoThumbnailCallback {
+            override fun onThumbnail(thumbnail: VideoThumbnail) {
+                if (isFinishing || isDestroyed) {
+                    return
+                }
+                Log.d(TAG, "完成提取第 ${thumbnail.index} 帧（时间: ${thumbnail.timeMs}ms）")
+                if (thumbnail.index == 0) {
+                    // 第一帧，初始化列表（未提取的位置先用第一帧占位）
+                    frameList.clear()
+                    for (x in 0 until mFrames) {
+                        frameList.add(thumbnail.path)
+                    }
+                    mAdapter?.updateList(frameList)
+                    // 通知所有item更新宽度（因为宽度可能在列表更新后才设置）
+                    mAdapter?.notifyDataSetChanged()
+                } else if (thumbnail.index < frameList.size) {
+                    // 更新指定位置的帧
+                    frameList[thumbnail.index] = thumbnail.path
+                    mAdapter?.updateItem(thumbnail.index, thumbnail.path)
+                }
+            }
 
-        // 如果请求的时间超过视频实际时长，使用视频最后一秒的时间
-        // 这样可以确保即使视频时长不足，也能提取到最后一帧
-        val actualTime = if (time >= mActualVideoDurationSeconds) {
-            Math.max(0.0, mActualVideoDurationSeconds - 0.1) // 使用视频最后一秒，稍微提前一点确保能提取到
-        } else {
-            time.toDouble()
-        }
-
-        // 构建FFmpeg命令字符串
-        val command = "-y -ss $actualTime -i \"$inputPath\" -frames:v 1 -f image2 -s $frameSize \"$outfile\""
-        val nextTime = time + 1
-
-        Log.d(TAG, "提取第 $time 秒的帧（实际时间: $actualTime 秒），命令: $command")
+            override fun onThumbnailsComplete(thumbnails: List<VideoThumbnail>) {
+                Log.d(TAG, "所有帧提取完成，共 ${thumbnails.size} 帧")
+                thumbnailJob = null
+            }
 
-        // 检查Activity是否还在运行
-        if (isFinishing || isDestroyed) {
-            Log.w(TAG, "Activity已销毁，取消获取帧")
-            return
+            override fun onThumbnailsFailed(error: String) {
+                Log.e(TAG, "提取帧错误: $error")
+                thumbnailJob = null
+            }
         }
 
-        // 使用FFmpegKit执行命令
-        FFmpegKit.executeAsync(command) { session ->
-            runOnUiThread {
-                try {
-                    if (isFinishing || isDestroyed) {
-                        Log.w(TAG, "Activity已销毁，取消获取帧回调")
-                        return@runOnUiThread
-                    }
-
-                    // 检查执行结果
-                    val returnCode = session.returnCode
-                    if (ReturnCode.isSuccess(returnCode)) {
-                        Log.d(TAG, "完成提取第 $time 秒的帧")
-                        if (time == 0) {
-                            // 第一帧，初始化列表
-                            frameList.clear()
-                            for (x in 0 until mFrames) {
-                                frameList.add(outfile)
-                            }
-                            mAdapter?.updateList(frameList)
-                            // 通知所有item更新宽度（因为宽度可能在列表更新后才设置）
-                            mAdapter?.notifyDataSetChanged()
-                        } else {
-                            // 更新指定位置的帧
-                            if (time < frameList.size) {
-                                frameList[time] = outfile
-                                mAdapter?.updateItem(time, outfile)
-                            }
-                        }
-                        // 继续提取下一帧
-                        gotoGetFrameAtTime(nextTime)
-                    } else {
-                        val output = session.output
-                        Log.e(TAG, "提取第 $time 秒的帧错误: $output")
-                        // 继续处理下一帧
-                        gotoGetFrameAtTime(nextTime)
-                    }
-                } catch (e: Exception) {
-                    Log.e(TAG, "获取帧完成回调中出错", e)
-                    // 继续处理下一帧
-                    gotoGetFrameAtTime(nextTime)
-                }
-            }
+        val videoService = BajiSDK.getInstance().getVideoConvertService()
+        val videoUri = frameExtractionVideoUri
+        val videoPath = frameExtractionVideoPath
+        thumbnailJob = if (videoUri != null) {
+            videoService.extractThumbnails(videoUri, outDir, mFrames, frameSize.first, frameSize.second, callback)
+        } else if (!videoPath.isNullOrEmpty()) {
+            videoService.extractThumbnails(videoPath, outDir, mFrames, frameSize.first, frameSize.second, callback)
+        } else {
+            Log.e(TAG, "视频路径为空，无法提取帧")
+            null
         }
     }
 
     /**
      * 从表盘信息获取帧尺寸
      */
-    private fun getFrameSizeFromClockDialInfo(): String {
+    private fun getFrameSizeFromClockDialInfo(): Pair<Int, Int> {
         return try {
             val clockDialInfo = BajiSDK.getInstance().getClockDialInfoService().getCurrentClockDialInfo()
             if (clockDialInfo != null) {
                 val width = clockDialInfo.width.toInt()
                 val height = clockDialInfo.height.toInt()
-                val frameSize = "${width}x${height}"
 
                 Log.d(TAG, "=== 帧尺寸设置 ===")
-                Log.d(TAG, "从表盘信息获取帧尺寸: $frameSize")
-                Log.d(TAG, "设备屏幕尺寸: ${width}x${height}")
+                Log.d(TAG, "从表盘信息获取帧尺寸: ${width}x${height}")
 
-                frameSize
+                Pair(width, height)
             } else {
-                Log.w(TAG, "表盘信息不存在，使用默认帧尺寸")
-                val defaultSize = "320x384"
-                Log.d(TAG, "默认帧尺寸: $defaultSize")
-                defaultSize
+                Log.w(TAG, "表盘信息不存在，使用默认帧尺寸: 320x384")
+                Pair(320, 384)
             }
         } catch (e: Exception) {
             Log.e(TAG, "获取表盘信息失败，使用默认帧尺寸", e)
-            val defaultSize = "320x384"
-            defaultSize
+            Pair(320, 384)
         }
     }
 
@@ -585,30 +543,16 @@ class VideoCutActivity : AppCompatActivity() {
         Log.d(TAG, "视频URI: $videoUri")
         Log.d(TAG, "是否为Content URI: $isContentUri")
 
-        // 如果是 Content URI，需要先复制到临时文件（FFmpeg需要实际的文件路径）
-        val inputPath = if (isContentUri && videoUri != null) {
-            Log.d(TAG, "检测到Content URI，开始复制到临时文件...")
-            loadingDialog?.setMessage("正在复制视频文件...")
-            // 复制 Content URI 到临时文件
-            copyContentUriToTempFile(videoUri)
-        } else {
-            Log.d(TAG, "使用文件路径: $videoPath")
-            videoPath
-        }
-
-        if (inputPath == null || inputPath.isEmpty()) {
+        // Content URI直接交给SDK，由FFmpeg通过SAF读取，无需先复制到临时文件
+        val contentUri = if (isContentUri) videoUri ?: android.net.Uri.parse(videoPath) else null
+        if (contentUri == null && videoPath.isEmpty()) {
             loadingDialog?.dismiss()
-            val errorMsg = if (isContentUri) {
-                "无法复制视频文件，请检查文件权限"
-            } else {
-                "无法访问视频文件"
-            }
-            Toast.makeText(this, errorMsg, Toast.LENGTH_SHORT).show()
-            Log.e(TAG, "输入路径无效: $inputPath")
+            Toast.makeText(this, "无法访问视频文件", Toast.LENGTH_SHORT).show()
+            Log.e(TAG, "输入路径无效: $videoPath")
             return
         }
 
-        Log.d(TAG, "最终使用的输入路径: $inputPath")
+        Log.d(TAG, "最终使用的输入: ${contentUri ?: videoPath}")
 
         val outputPath = "$mCacheRootPath${VideoUtils.getFileName(videoInfo!!.name)}_trim.avi"
 
@@ -701,50 +645,10 @@ class VideoCutActivity : AppCompatActivity() {
             }
         })
 
-        videoService?.convertToAVI(inputPath, outputPath, params)
-    }
-
-    /**
-     * 将 Content URI 复制到临时文件
-     * @param uri Content URI
-     * @return 临时文件路径，如果失败返回 null
-     */
-    private fun copyContentUriToTempFile(uri: android.net.Uri): String? {
-        return try {
-            Log.d(TAG, "开始复制 Content URI 到临时文件: $uri")
-
-            val tempFile = File(mCacheRootPath, "temp_video_${System.currentTimeMillis()}.mp4")
-            tempFile.parentFile?.mkdirs()
-
-            contentResolver.openInputStream(uri)?.use { inputStream ->
-                FileOutputStream(tempFile).use { outputStream ->
-                    val buffer = ByteArray(8192)
-                    var bytesRead: Int
-                    var totalBytes = 0L
-                    while (inputStream.read(buffer).also { bytesRead = it } != -1) {
-                        outputStream.write(buffer, 0, bytesRead)
-                        totalBytes += bytesRead
-                    }
-                    Log.d(TAG, "Content URI 复制完成，共 ${totalBytes} bytes")
-                }
-            } ?: run {
-                Log.e(TAG, "无法打开 Content URI 输入流")
-                return null
-            }
-
-            if (!tempFile.exists() || tempFile.length() == 0L) {
-                Log.e(TAG, "临时文件创建失败或为空")
-                return null
-            }
-
-            Log.d(TAG, "Content URI 已复制到临时文件: ${tempFile.absolutePath}, 大小: ${tempFile.length()} bytes")
-            tempFile.absolutePath
-        } catch (e: SecurityException) {
-            Log.e(TAG, "复制 Content URI 失败（权限问题）: ${e.message}", e)
-            null
-        } catch (e: Exception) {
-            Log.e(TAG, "复制 Content URI 到临时文件失败: ${e.message}", e)
-            null
+        convertJob = if (contentUri != null) {
+            videoService?.convertToAVI(contentUri, outputPath, params)
+        } else {
+            videoService?.convertToAVI(videoPath, outputPath, params)
         }
     }
 
@@ -806,27 +710,17 @@ class VideoCutActivity : AppCompatActivity() {
 
     override fun onDestroy() {
         super.onDestroy()
+        // 离开页面时停止仍在运行的帧提取和视频转换，不再占用CPU
+        thumbnailJob?.cancel()
+        thumbnailJob = null
+        convertJob?.cancel()
+        convertJob = null
         timer?.cancel()
         timer = null
         mp?.release()
         mp = null
         loadingDialog?.dismiss()
         dismissProgressDialog()
-
-        // 清理临时文件
-        try {
-            val tempDir = File(mCacheRootPath)
-            if (tempDir.exists() && tempDir.isDirectory) {
-                tempDir.listFiles()?.forEach { file ->
-                    if (file.name.startsWith("temp_video_")) {
-                        file.delete()
-                        Log.d(TAG, "已删除临时文件: ${file.absolutePath}")
-                    }
-                }
-            }
-        } catch (e: Exception) {
-            Log.e(TAG, "清理临时文件失败: ${e.message}", e)
-        }
     }
 }
 
@@ -150,7 +150,7 @@ class BajiSDK private constructor() {
             clockDialInfoService = ClockDialInfoService()
             clockDialInfoService?.initialize()
             videoConvertService = VideoConvertService(context, config, clockDialInfoService)
-            imageConvertService = ImageConvertService(context, config)
+            imageConvertService = ImageConvertService(context, config, clockDialInfoService)
             watchFaceService = WatchFaceService(context, config)
             fileTransferService = FileTransferService(context, protocolManager, clockDialInfoService)
             
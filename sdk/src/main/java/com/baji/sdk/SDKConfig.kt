@@ -54,7 +54,27 @@ data class SDKConfig(
         /**
          * 默认音频采样率
          */
-        val audioSampleRate: Int = 8000
+        val audioSampleRate: Int = 8000,
+        
+        /**
+         * 是否启用转换结果缓存（相同视频内容和参数直接复用已生成的AVI）
+         */
+        val enableCache: Boolean = true,
+        
+        /**
+         * 转换结果缓存的最大占用空间（字节）
+         */
+        val maxCacheSize: Long = 200L * 1024 * 1024,
+        
+        /**
+         * 缩略图磁盘缓存的最大占用空间（字节，enableCache为false或该值为0时不缓存缩略图）
+         */
+        val maxThumbnailCacheSize: Long = 20L * 1024 * 1024,
+        
+        /**
+         * 缩略图内存缓存的最大占用（字节，按解码后的Bitmap大小计算）
+         */
+        val maxThumbnailMemorySize: Int = 8 * 1024 * 1024
     )
     
     /**
@@ -69,7 +89,22 @@ data class SDKConfig(
         /**
          * 是否启用缓存
          */
-        val enableCache: Boolean = true
+        val enableCache: Boolean = true,
+        
+        /**
+         * 已生成bin文件记录的最大占用空间（字节），用于识别可以直接发送到设备的bin文件
+         */
+        val maxCacheSize: Long = 1L * 1024 * 1024,
+        
+        /**
+         * 单次转换解码图片的内存上限（字节），大图按该上限降低解码分辨率，避免低内存设备OOM
+         */
+        val maxDecodeMemory: Long = 32L * 1024 * 1024,
+        
+        /**
+         * Bitmap和缓冲区复用池的大小上限（字节），批量转换时复用解码、缩放用的Bitmap和编码缓冲区，0表示不复用
+         */
+        val maxPoolSize: Long = 8L * 1024 * 1024
     )
     
     /**
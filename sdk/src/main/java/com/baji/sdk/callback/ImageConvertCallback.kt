@@ -1,5 +1,7 @@
 package com.baji.sdk.callback
 
+import com.baji.sdk.model.ImageConvertStats
+
 /**
  * 图片转换回调
  */
@@ -10,6 +12,12 @@ interface ImageConvertCallback {
      */
     fun onConvertSuccess(outputPath: String)
     
+    /**
+     * 转换统计信息（在onConvertSuccess之前回调，默认不处理）
+     * @param stats 统计信息
+     */
+    fun onConvertStats(stats: ImageConvertStats) {}
+    
     /**
      * 转换失败
      * @param error 错误信息
@@ -1,5 +1,8 @@
 package com.baji.sdk.callback
 
+import com.baji.sdk.model.VideoConvertProgress
+import com.baji.sdk.model.VideoConvertStats
+
 /**
  * 视频转换回调
  */
@@ -14,17 +17,34 @@ interface VideoConvertCallback {
      * @param progress 进度百分比（0-100）
      */
     fun onConvertProgress(progress: Int)
+
+    /**
+     * 编码实时统计（帧率、速度倍率、已输出字节数，与onConvertProgress同频回调，默认不处理）
+     * @param progress 实时进度
+     */
+    fun onConvertStatistics(progress: VideoConvertProgress) {}
     
     /**
      * 转换成功
      * @param outputPath 输出文件路径
      */
     fun onConvertSuccess(outputPath: String)
-    
+
+    /**
+     * 转换统计信息（在onConvertSuccess之前回调，默认不处理）
+     * @param stats 统计信息
+     */
+    fun onConvertStats(stats: VideoConvertStats) {}
+
     /**
      * 转换失败
      * @param error 错误信息
      */
     fun onConvertFailed(error: String)
+
+    /**
+     * 转换已取消（调用VideoConvertJob.cancel后回调，不会再回调成功或失败，默认不处理）
+     */
+    fun onConvertCancelled() {}
 }
 
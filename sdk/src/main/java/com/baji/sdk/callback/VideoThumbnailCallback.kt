@@ -0,0 +1,31 @@
+package com.baji.sdk.callback
+
+import com.baji.sdk.model.VideoThumbnail
+
+/**
+ * 视频缩略图提取回调（均在主线程回调）
+ */
+interface VideoThumbnailCallback {
+    /**
+     * 一张缩略图已生成（按序号顺序回调，不必等整条时间轴提取完）
+     * @param thumbnail 缩略图
+     */
+    fun onThumbnail(thumbnail: VideoThumbnail)
+
+    /**
+     * 全部缩略图提取完成
+     * @param thumbnails 所有缩略图（按序号排列）
+     */
+    fun onThumbnailsComplete(thumbnails: List<VideoThumbnail>)
+
+    /**
+     * 提取失败（失败前已生成的缩略图仍然有效）
+     * @param error 错误信息
+     */
+    fun onThumbnailsFailed(error: String)
+
+    /**
+     * 提取已取消（默认不处理）
+     */
+    fun onThumbnailsCancelled() {}
+}
@@ -0,0 +1,20 @@
+package com.baji.sdk.model
+
+import android.os.Parcelable
+import kotlinx.parcelize.Parcelize
+
+/**
+ * 批量图片转换的单个输入
+ */
+@Parcelize
+data class ImageConvertInput(
+    /**
+     * 输入图片路径
+     */
+    val inputPath: String,
+
+    /**
+     * 输出文件路径
+     */
+    val outputPath: String
+) : Parcelable
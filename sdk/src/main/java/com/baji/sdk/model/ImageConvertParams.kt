@@ -9,14 +9,14 @@ import kotlinx.parcelize.Parcelize
 @Parcelize
 data class ImageConvertParams(
     /**
-     * 目标宽度
+     * 目标宽度（0表示使用当前表盘宽度）
      */
-    val targetWidth: Int,
+    val targetWidth: Int = 0,
     
     /**
-     * 目标高度
+     * 目标高度（0表示使用当前表盘高度）
      */
-    val targetHeight: Int,
+    val targetHeight: Int = 0,
     
     /**
      * 图片质量（0-100）
@@ -31,7 +31,12 @@ data class ImageConvertParams(
     /**
      * 转换算法类型（用于杰理SDK）
      */
-    val algorithm: Int = 0
+    val algorithm: Int = 0,
+    
+    /**
+     * 宽高比与目标尺寸不一致时的缩放方式
+     */
+    val scaleMode: ScaleMode = ScaleMode.CENTER_CROP
 ) : Parcelable {
     /**
      * 图片格式
@@ -42,5 +47,14 @@ data class ImageConvertParams(
         BMP,
         BIN  // 设备专用格式
     }
+    
+    /**
+     * 缩放方式
+     */
+    enum class ScaleMode {
+        CENTER_CROP,  // 保持宽高比铺满，居中裁剪
+        FIT,          // 保持宽高比完整显示，不足部分留空
+        STRETCH       // 拉伸到目标尺寸
+    }
 }
 
@@ -0,0 +1,42 @@
+package com.baji.sdk.model
+
+import android.os.Parcelable
+import kotlinx.parcelize.Parcelize
+
+/**
+ * 批量图片转换中单张图片的结果
+ */
+@Parcelize
+data class ImageConvertResult(
+    /**
+     * 在输入列表中的序号
+     */
+    val index: Int,
+
+    /**
+     * 输入图片路径
+     */
+    val inputPath: String,
+
+    /**
+     * 输出文件路径
+     */
+    val outputPath: String,
+
+    /**
+     * 转换统计信息（失败时为null）
+     */
+    val stats: ImageConvertStats? = null,
+
+    /**
+     * 错误信息（成功时为null）
+     */
+    val error: String? = null
+) : Parcelable {
+
+    /**
+     * 是否转换成功
+     */
+    val isSuccess: Boolean
+        get() = error == null
+}
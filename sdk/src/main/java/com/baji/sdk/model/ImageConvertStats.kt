@@ -0,0 +1,65 @@
+package com.baji.sdk.model
+
+import android.os.Parcelable
+import kotlinx.parcelize.Parcelize
+
+/**
+ * 图片转换统计信息
+ */
+@Parcelize
+data class ImageConvertStats(
+    /**
+     * 输出文件路径
+     */
+    val outputPath: String,
+
+    /**
+     * 输出文件大小（字节）
+     */
+    val outputBytes: Long,
+
+    /**
+     * 是否对圆屏四角做了遮罩
+     */
+    val roundMasked: Boolean = false,
+
+    /**
+     * 圆屏遮罩节省的字节数（按遮罩面积估算的近似值，未遮罩时为0）
+     */
+    val maskBytesSaved: Long = 0,
+
+    /**
+     * 输入已满足设备要求（之前生成的bin或尺寸、格式都一致的图片），直接复制未转换
+     */
+    val passThrough: Boolean = false,
+
+    /**
+     * 输入尺寸已与表盘一致，跳过缩放直接转换为bin
+     */
+    val decodeSkipped: Boolean = false,
+
+    /**
+     * 原图宽度（未解码时为0）
+     */
+    val sourceWidth: Int = 0,
+
+    /**
+     * 原图高度（未解码时为0）
+     */
+    val sourceHeight: Int = 0,
+
+    /**
+     * 实际解码宽度（按目标尺寸和内存上限缩小后，未解码时为0）
+     */
+    val decodedWidth: Int = 0,
+
+    /**
+     * 实际解码高度（按目标尺寸和内存上限缩小后，未解码时为0）
+     */
+    val decodedHeight: Int = 0,
+
+    /**
+     * 转换过程中同时存在的Bitmap占用内存的峰值（字节）
+     */
+    val peakBitmapBytes: Long = 0
+) : Parcelable
@@ -0,0 +1,25 @@
+package com.baji.sdk.model
+
+import android.os.Parcelable
+import kotlinx.parcelize.Parcelize
+
+/**
+ * 单次解码多路输出的输出路径（均可选，至少指定一个）
+ */
+@Parcelize
+data class VideoConvertOutputs(
+    /**
+     * 设备AVI输出路径（MJPEG，按表盘尺寸和编码配置生成）
+     */
+    val aviPath: String? = null,
+
+    /**
+     * 预览MP4输出路径（H.264，与设备AVI画面一致）
+     */
+    val mp4Path: String? = null,
+
+    /**
+     * GIF缩略图输出路径（前3秒，2fps，宽200）
+     */
+    val gifPath: String? = null
+) : Parcelable
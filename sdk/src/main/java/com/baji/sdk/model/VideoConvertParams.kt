@@ -41,7 +41,12 @@ data class VideoConvertParams(
     /**
      * 裁剪区域（可选）
      */
-    val cropRegion: CropRegion? = null
+    val cropRegion: CropRegion? = null,
+    
+    /**
+     * 是否允许分段并行编码（较长的视频按时间切段，多个FFmpeg会话同时编码后拼接），默认关闭
+     */
+    val segmentedEncoding: Boolean = false
 ) : Parcelable {
     /**
      * 裁剪区域
@@ -0,0 +1,35 @@
+package com.baji.sdk.model
+
+import android.os.Parcelable
+import kotlinx.parcelize.Parcelize
+
+/**
+ * 视频转换实时进度（来自FFmpeg编码统计）
+ */
+@Parcelize
+data class VideoConvertProgress(
+    /**
+     * 进度百分比（0-100）
+     */
+    val progress: Int,
+
+    /**
+     * 当前编码帧率（帧/秒）
+     */
+    val fps: Float,
+
+    /**
+     * 编码速度倍率（1.0表示与播放速度相同）
+     */
+    val speed: Double,
+
+    /**
+     * 已输出的字节数
+     */
+    val outputBytes: Long,
+
+    /**
+     * 已编码的媒体时长（毫秒）
+     */
+    val encodedTimeMs: Long
+) : Parcelable
@@ -0,0 +1,100 @@
+package com.baji.sdk.model
+
+import android.os.Parcelable
+import kotlinx.parcelize.Parcelize
+
+/**
+ * 视频转换统计信息
+ */
+@Parcelize
+data class VideoConvertStats(
+    /**
+     * 输出文件路径
+     */
+    val outputPath: String,
+
+    /**
+     * 完整编码次数（1表示一次成功，大于1表示触发了降质量重试，0表示命中缓存）
+     */
+    val encodePasses: Int,
+
+    /**
+     * 是否执行了采样预测
+     */
+    val qualityProbed: Boolean,
+
+    /**
+     * 采样预测得到的质量值（1-31，命中缓存时为0）
+     */
+    val predictedQuality: Int,
+
+    /**
+     * 最终使用的质量值（1-31，命中缓存时为0）
+     */
+    val finalQuality: Int,
+
+    /**
+     * 最终的dwSuggestedBufferSize（字节），-1表示未读取到
+     */
+    val bufferSize: Int,
+
+    /**
+     * 帧级修复重新压缩的帧数（0表示未触发修复）
+     */
+    val repairedFrames: Int = 0,
+
+    /**
+     * 完整编码累计耗时（毫秒，不含质量采样）
+     */
+    val encodeTimeMs: Long = 0,
+
+    /**
+     * 完整编码的平均帧率（帧/秒）
+     */
+    val averageFps: Float = 0f,
+
+    /**
+     * 完整编码的平均速度倍率
+     */
+    val averageSpeed: Double = 0.0,
+
+    /**
+     * 执行转换的手机型号
+     */
+    val deviceModel: String = "",
+
+    /**
+     * 是否命中转换结果缓存（命中时未执行FFmpeg）
+     */
+    val cacheHit: Boolean = false,
+
+    /**
+     * 使用的编码配置名称（见VideoEncodeProfile）
+     */
+    val profileName: String = "",
+
+    /**
+     * 实际帧率（转换参数中的帧率超过编码配置的maxFps时为maxFps，直接使用输入时为输入文件的帧率）
+     */
+    val fps: Int = 0,
+
+    /**
+     * 圆屏遮罩估算节省的字节数（按采样帧遮罩前后的大小比例估算，未遮罩时为0）
+     */
+    val maskBytesSaved: Long = 0,
+
+    /**
+     * 分段并行编码的段数（1表示未分段）
+     */
+    val encodeSegments: Int = 1,
+
+    /**
+     * 输入已满足设备要求，直接使用未重新编码
+     */
+    val passThrough: Boolean = false,
+
+    /**
+     * 直接使用时是否修正了头信息中的dwSuggestedBufferSize
+     */
+    val headerPatched: Boolean = false
+) : Parcelable
@@ -0,0 +1,60 @@
+package com.baji.sdk.model
+
+import android.os.Parcelable
+import kotlinx.parcelize.Parcelize
+
+/**
+ * 视频编码配置（按设备能力选择，见VideoEncodeProfileRegistry）
+ */
+@Parcelize
+data class VideoEncodeProfile(
+    /**
+     * 配置名称（用于日志和统计）
+     */
+    val name: String,
+
+    /**
+     * 最大帧率，转换参数中的帧率超过该值时按该值编码（实际帧率见VideoConvertStats.fps），默认不限制
+     */
+    val maxFps: Int = Int.MAX_VALUE,
+
+    /**
+     * 是否编码音频（设备不支持播放音频时关闭，减小文件体积）
+     */
+    val audioEnabled: Boolean = true,
+
+    /**
+     * 音频采样率（PCM 16位）
+     */
+    val audioSampleRate: Int = 16000,
+
+    /**
+     * 音频声道数
+     */
+    val audioChannels: Int = 1,
+
+    /**
+     * MJPEG色度格式（如yuvj420p、yuvj422p）
+     */
+    val pixelFormat: String = "yuvj420p",
+
+    /**
+     * MJPEG最小量化参数（质量值更小时按质量值放宽，见MjpegQualityFit.encoderRange）
+     */
+    val qMin: Int = 10,
+
+    /**
+     * MJPEG最大量化参数（预测或重试的质量值更大时按质量值放宽，见MjpegQualityFit.encoderRange）
+     */
+    val qMax: Int = 20,
+
+    /**
+     * 单帧大小预算（字节），AVI的dwSuggestedBufferSize必须小于该值
+     */
+    val frameSizeBudget: Int = 20 * 1024,
+
+    /**
+     * AVI数据包大小
+     */
+    val packetSize: Int = 4096
+) : Parcelable
@@ -0,0 +1,30 @@
+package com.baji.sdk.model
+
+import android.os.Parcelable
+import kotlinx.parcelize.Parcelize
+
+/**
+ * 视频缩略图（时间轴预览帧）
+ */
+@Parcelize
+data class VideoThumbnail(
+    /**
+     * 序号（从0开始）
+     */
+    val index: Int,
+
+    /**
+     * 对应的视频时间点（毫秒）
+     */
+    val timeMs: Long,
+
+    /**
+     * 缩略图文件路径（JPEG）
+     */
+    val path: String,
+
+    /**
+     * 缩略图缓存key（用于VideoConvertService.getThumbnailBitmap，未启用缓存时为null）
+     */
+    val cacheKey: String? = null
+) : Parcelable
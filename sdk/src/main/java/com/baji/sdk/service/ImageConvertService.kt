@@ -1,18 +1,49 @@
 package com.baji.sdk.service
 
+import android.app.ActivityManager
+import android.content.ComponentCallbacks2
 import android.content.Context
+import android.content.res.Configuration
 import android.graphics.Bitmap
 import android.graphics.BitmapFactory
+import android.graphics.Canvas
+import android.graphics.Color
+import android.graphics.ImageDecoder
+import android.graphics.Paint
+import android.graphics.Path
+import android.graphics.RectF
+import android.os.Build
 import android.util.Log
 import com.baji.sdk.SDKConfig
 import com.baji.sdk.callback.ImageConvertCallback
+import com.baji.sdk.model.ImageConvertInput
 import com.baji.sdk.model.ImageConvertParams
+import com.baji.sdk.model.ImageConvertResult
+import com.baji.sdk.model.ImageConvertStats
+import com.baji.sdk.util.BinImageEncoder
+import com.baji.sdk.util.BitmapPool
+import com.baji.sdk.util.BitmapScaler
+import com.baji.sdk.util.DiskLruFileCache
+import com.baji.sdk.util.ImageComplianceProbe
+import com.baji.sdk.util.ImageDecodePlanner
 import com.jieli.bmp_convert.BmpConvert
+import com.jieli.bmp_convert.ConvertParam
 import com.jieli.bmp_convert.ConvertResult
 import com.jieli.bmp_convert.OnConvertListener
 import kotlinx.coroutines.*
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.channelFlow
+import kotlinx.coroutines.flow.flowOn
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.sync.withPermit
 import java.io.File
 import java.io.FileOutputStream
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import kotlin.math.PI
 
 /**
  * 图片转换服务
@@ -20,12 +51,73 @@ import java.io.FileOutputStream
  */
 class ImageConvertService(
     private val context: Context,
-    private val config: SDKConfig
+    private val config: SDKConfig,
+    private val clockDialInfoService: ClockDialInfoService? = null
 ) {
     private val TAG = "ImageConvertService"
     private var convertCallback: ImageConvertCallback? = null
     private val serviceScope = CoroutineScope(Dispatchers.IO + SupervisorJob())
     
+    private val ROUND_MASK_COLOR = Color.BLACK  // 圆屏四角的填充颜色（纯色区域压缩率最高）
+    private val ROUND_MASK_VISIBLE_RATIO = PI / 4  // 内切椭圆占整幅图片的面积比例
+    private val BIN_HEADER_SIZE = 0x450  // bin文件头和保留区（与图片内容无关，不参与遮罩节省估算）
+    
+    // 临时文件前缀（在cacheDir下，进程中断后留下的文件在下次创建服务时清理）
+    private val RAW_PIXEL_FILE_PREFIX = "bmp_raw_"  // 交给BmpConvert的原始像素文件
+    private val BMP_SOURCE_FILE_PREFIX = "bmp_source_"  // 尺寸已符合时复制给BmpConvert的输入图片
+    private val MASK_REFERENCE_FILE_PREFIX = "mask_reference_"  // 旧版本圆屏遮罩对比用的bin（只清理残留文件）
+    private val LEGACY_TEMP_BITMAP_PREFIX = "temp_bitmap_"  // 旧版本在外部文件目录下生成的临时PNG
+    
+    // 已生成bin文件的记录（key为bin内容哈希，内容为尺寸和算法），用于识别可以直接发送到设备的输入
+    private val CACHE_DIR_NAME = "image_convert_cache"
+    private val CACHE_KEY_VERSION = "1"  // bin格式或遮罩处理变化时递增，使旧记录失效
+    private val binRegistry: DiskLruFileCache? by lazy {
+        val imageConfig = config.imageConvertConfig
+        if (imageConfig.enableCache && imageConfig.maxCacheSize > 0) {
+            DiskLruFileCache(File(context.cacheDir, CACHE_DIR_NAME), imageConfig.maxCacheSize)
+        } else {
+            null
+        }
+    }
+    
+    // BmpConvert的native库使用全局状态保存转换结果，不能并发调用
+    private val bmpConvertMutex = Mutex()
+    
+    // 批量转换时每张图片按目标尺寸计算的内存份数（缩放结果、遮罩副本、像素数组和编码缓冲区）
+    private val BATCH_TARGET_COPIES = 4
+    
+    // 获取不到表盘信息时的默认目标尺寸
+    private val DEFAULT_DIAL_WIDTH = 320
+    private val DEFAULT_DIAL_HEIGHT = 384
+    
+    // 解码、缩放用的Bitmap和编码缓冲区复用池，系统内存紧张时释放
+    private val bitmapPool = BitmapPool(config.imageConvertConfig.maxPoolSize)
+    private val memoryCallbacks = object : ComponentCallbacks2 {
+        override fun onTrimMemory(level: Int) {
+            bitmapPool.trimMemory(level)
+        }
+        
+        override fun onConfigurationChanged(newConfig: Configuration) {
+        }
+        
+        override fun onLowMemory() {
+            bitmapPool.clear()
+        }
+    }
+    
+    /**
+     * 转换失败（message为回调给调用方的错误信息）
+     */
+    private class ConvertException(message: String) : Exception(message)
+    
+    init {
+        val createdAt = System.currentTimeMillis()
+        serviceScope.launch {
+            cleanupStaleTempFiles(createdAt)
+        }
+        context.applicationContext.registerComponentCallbacks(memoryCallbacks)
+    }
+    
     /**
      * 设置转换回调
      */
@@ -33,6 +125,11 @@ class ImageConvertService(
         this.convertCallback = callback
     }
     
+    /**
+     * 获取Bitmap和缓冲区复用池的命中统计
+     */
+    fun getPoolStats(): BitmapPool.Stats = bitmapPool.stats()
+    
     /**
      * 转换图片
      * @param inputPath 输入图片路径
@@ -46,42 +143,16 @@ class ImageConvertService(
     ) {
         serviceScope.launch {
             try {
-                Log.d(TAG, "开始转换图片: $inputPath -> $outputPath")
-                
-                // 加载原始图片
-                val originalBitmap = loadBitmapFromPath(inputPath)
-                if (originalBitmap == null) {
-                    withContext(Dispatchers.Main) {
-                        convertCallback?.onConvertFailed("无法加载原始图片: $inputPath")
-                    }
-                    return@launch
-                }
-                
-                // 缩放图片
-                val scaledBitmap = scaleBitmap(originalBitmap, params.targetWidth, params.targetHeight)
-                if (scaledBitmap == null) {
-                    withContext(Dispatchers.Main) {
-                        convertCallback?.onConvertFailed("图片缩放失败")
-                    }
-                    return@launch
+                val stats = convert(inputPath, outputPath, resolveTargetSize(params))
+                withContext(Dispatchers.Main) {
+                    convertCallback?.onConvertStats(stats)
+                    convertCallback?.onConvertSuccess(stats.outputPath)
                 }
-                
-                // 根据输出格式进行转换
-                when (params.outputFormat) {
-                    ImageConvertParams.ImageFormat.BIN -> {
-                        // 使用杰理SDK转换为bin格式
-                        convertToBin(scaledBitmap, outputPath, params)
-                    }
-                    ImageConvertParams.ImageFormat.PNG -> {
-                        saveBitmap(scaledBitmap, outputPath, Bitmap.CompressFormat.PNG, params.quality)
-                    }
-                    ImageConvertParams.ImageFormat.JPEG -> {
-                        saveBitmap(scaledBitmap, outputPath, Bitmap.CompressFormat.JPEG, params.quality)
-                    }
-                    ImageConvertParams.ImageFormat.BMP -> {
-                        // BMP格式需要特殊处理
-                        convertToBMP(scaledBitmap, outputPath)
-                    }
+            } catch (e: CancellationException) {
+                throw e
+            } catch (e: ConvertException) {
+                withContext(Dispatchers.Main) {
+                    convertCallback?.onConvertFailed(e.message ?: "转换失败")
                 }
             } catch (e: Exception) {
                 Log.e(TAG, "图片转换异常: ${e.message}", e)
@@ -92,10 +163,299 @@ class ImageConvertService(
         }
     }
     
+    /**
+     * 批量转换图片
+     * 多张图片并行转换，并行数量按CPU核数和解码内存上限限制；每张图片的结果单独发出，
+     * 某张失败不影响其他图片，取消收集Flow即取消尚未完成的转换。不使用setConvertCallback设置的回调
+     * @param inputs 输入和输出路径
+     * @param params 转换参数（所有图片相同）
+     * @param preserveOrder 为true时按inputs的顺序发出结果，否则按完成顺序发出
+     * @return 每张图片的转换结果，全部完成后结束
+     */
+    fun convertImages(
+        inputs: List<ImageConvertInput>,
+        params: ImageConvertParams,
+        preserveOrder: Boolean = false
+    ): Flow<ImageConvertResult> = channelFlow {
+        val sizedParams = resolveTargetSize(params)
+        val workers = resolveBatchWorkers(sizedParams)
+        Log.d(TAG, "批量转换图片: ${inputs.size} 张, 并行数量: $workers")
+        val semaphore = Semaphore(workers)
+        if (preserveOrder) {
+            val results = inputs.mapIndexed { index, input ->
+                async { semaphore.withPermit { convertItem(index, input, sizedParams) } }
+            }
+            results.forEach { send(it.await()) }
+        } else {
+            inputs.forEachIndexed { index, input ->
+                launch { send(semaphore.withPermit { convertItem(index, input, sizedParams) }) }
+            }
+        }
+    }.flowOn(Dispatchers.IO)
+    
+    /**
+     * 转换批量中的一张图片，失败时返回失败结果而不抛出异常（取消除外）
+     */
+    private suspend fun convertItem(
+        index: Int,
+        input: ImageConvertInput,
+        params: ImageConvertParams
+    ): ImageConvertResult {
+        val error = try {
+            val stats = convert(input.inputPath, input.outputPath, params)
+            return ImageConvertResult(index, input.inputPath, stats.outputPath, stats = stats)
+        } catch (e: CancellationException) {
+            throw e
+        } catch (e: ConvertException) {
+            e.message ?: "转换失败"
+        } catch (e: Exception) {
+            Log.e(TAG, "图片转换异常: ${input.inputPath}, ${e.message}", e)
+            "转换异常: ${e.message}"
+        }
+        Log.w(TAG, "图片转换失败: ${input.inputPath}, $error")
+        return ImageConvertResult(index, input.inputPath, input.outputPath, error = error)
+    }
+    
+    /**
+     * 批量转换的并行数量
+     * 不超过CPU核数；每张图片最多占用解码内存上限加上目标尺寸的缩放、遮罩Bitmap和编码缓冲区，
+     * 同时转换占用的内存不超过系统当前可用内存的1/4
+     */
+    private fun resolveBatchWorkers(params: ImageConvertParams): Int {
+        val cores = Runtime.getRuntime().availableProcessors()
+        val memoryInfo = ActivityManager.MemoryInfo()
+        (context.getSystemService(Context.ACTIVITY_SERVICE) as? ActivityManager)?.getMemoryInfo(memoryInfo)
+        if (memoryInfo.lowMemory) {
+            return 1
+        }
+        val targetBytes = params.targetWidth.toLong() * params.targetHeight * 4
+        val perItemBytes = config.imageConvertConfig.maxDecodeMemory + targetBytes * BATCH_TARGET_COPIES
+        val budget = memoryInfo.availMem / 4
+        val byMemory = if (budget > 0) (budget / perItemBytes.coerceAtLeast(1)).toInt() else cores
+        return byMemory.coerceIn(1, cores)
+    }
+    
+    /**
+     * 确定目标尺寸
+     * 参数中宽高为0时使用当前表盘尺寸，获取不到表盘信息时使用默认尺寸
+     */
+    private fun resolveTargetSize(params: ImageConvertParams): ImageConvertParams {
+        if (params.targetWidth > 0 && params.targetHeight > 0) {
+            return params
+        }
+        val dialSize = try {
+            val clockDialInfo = clockDialInfoService?.getCurrentClockDialInfo()
+            if (clockDialInfo != null && clockDialInfo.width.toInt() > 0 && clockDialInfo.height.toInt() > 0) {
+                Pair(clockDialInfo.width.toInt(), clockDialInfo.height.toInt())
+            } else {
+                Log.w(TAG, "表盘信息不存在或尺寸无效，使用默认尺寸")
+                Pair(DEFAULT_DIAL_WIDTH, DEFAULT_DIAL_HEIGHT)
+            }
+        } catch (e: Exception) {
+            Log.e(TAG, "获取表盘信息失败，使用默认尺寸: ${e.message}", e)
+            Pair(DEFAULT_DIAL_WIDTH, DEFAULT_DIAL_HEIGHT)
+        }
+        Log.d(TAG, "目标尺寸使用表盘尺寸: ${dialSize.first}x${dialSize.second}")
+        return params.copy(targetWidth = dialSize.first, targetHeight = dialSize.second)
+    }
+    
+    /**
+     * 转换一张图片
+     * @param params 转换参数（目标尺寸已确定）
+     * @return 转换统计（含实际输出路径）
+     * @throws ConvertException 转换失败
+     */
+    private suspend fun convert(
+        inputPath: String,
+        outputPath: String,
+        params: ImageConvertParams
+    ): ImageConvertStats {
+        Log.d(TAG, "开始转换图片: $inputPath -> $outputPath")
+        
+        // 已满足设备要求的输入跳过解码和缩放
+        convertCompliantInput(inputPath, outputPath, params)?.let { return it }
+        
+        // 按目标尺寸和内存上限解码原始图片
+        val decoded = loadBitmapFromPath(inputPath, params)
+            ?: throw ConvertException("无法加载原始图片: $inputPath")
+        val originalBitmap = decoded.bitmap
+        val decodedBytes = originalBitmap.allocationByteCount.toLong()
+        val decodedWidth = originalBitmap.width
+        val decodedHeight = originalBitmap.height
+        val decodedConfig = originalBitmap.config
+        
+        // 裁剪缩放到目标尺寸（缩放后原图已放回复用池，之后只使用上面保存的信息）
+        val scaledBitmap = scaleBitmap(originalBitmap, params.targetWidth, params.targetHeight, params.scaleMode)
+            ?: throw ConvertException("图片缩放失败")
+        
+        // 缩放时解码结果和缩放结果同时存在
+        val scaledBytes = if (scaledBitmap !== originalBitmap) scaledBitmap.allocationByteCount else 0
+        val stats = ImageConvertStats(
+            outputPath = outputPath,
+            outputBytes = 0,
+            sourceWidth = decoded.sourceWidth,
+            sourceHeight = decoded.sourceHeight,
+            decodedWidth = decodedWidth,
+            decodedHeight = decodedHeight,
+            peakBitmapBytes = decodedBytes + scaledBytes
+        )
+        Log.d(TAG, "图片解码: ${decoded.sourceWidth}x${decoded.sourceHeight} -> ${decodedWidth}x$decodedHeight, " +
+                "格式: $decodedConfig, 峰值内存: ${stats.peakBitmapBytes} bytes")
+        
+        // 根据输出格式进行转换，完成后放回复用池
+        return try {
+            when (params.outputFormat) {
+                ImageConvertParams.ImageFormat.BIN -> {
+                    convertToBin(scaledBitmap, outputPath, params, stats)
+                }
+                ImageConvertParams.ImageFormat.PNG -> {
+                    saveBitmap(scaledBitmap, outputPath, Bitmap.CompressFormat.PNG, params.quality, stats)
+                }
+                ImageConvertParams.ImageFormat.JPEG -> {
+                    saveBitmap(scaledBitmap, outputPath, Bitmap.CompressFormat.JPEG, params.quality, stats)
+                }
+                ImageConvertParams.ImageFormat.BMP -> {
+                    // BMP格式需要特殊处理
+                    convertToBMP(scaledBitmap, outputPath, stats)
+                }
+            }
+        } finally {
+            bitmapPool.put(scaledBitmap)
+        }
+    }
+    
+    /**
+     * 设备兼容性检查（见ImageComplianceProbe）
+     * 之前生成的bin文件、尺寸和格式都一致的图片直接复制；尺寸一致只是格式不同时跳过缩放，直接编码为bin
+     * @return 已处理时返回转换统计，需要完整转换时返回null
+     * @throws ConvertException 转换失败
+     */
+    private suspend fun convertCompliantInput(
+        inputPath: String,
+        outputPath: String,
+        params: ImageConvertParams
+    ): ImageConvertStats? = withContext(Dispatchers.IO) {
+        val inputFile = File(inputPath)
+        if (!inputFile.isFile) {
+            return@withContext null
+        }
+        val algorithm = resolveBinAlgorithm(params)
+        val roundMasked = params.outputFormat == ImageConvertParams.ImageFormat.BIN && isRoundScreen()
+        val probe = ImageComplianceProbe.probe(inputFile, params, algorithm, roundMasked) {
+            lookupBinSpec(inputFile)
+        }
+        val outputFile = File(outputPath)
+        when (probe.action) {
+            ImageComplianceProbe.Action.CONVERT -> null
+            ImageComplianceProbe.Action.COPY -> {
+                Log.d(TAG, "输入已满足设备要求，直接复制: $inputPath (${probe.mimeType ?: "bin"})")
+                if (inputFile.canonicalPath != outputFile.canonicalPath) {
+                    inputFile.copyTo(outputFile, overwrite = true)
+                }
+                ImageConvertStats(
+                    outputPath = outputPath,
+                    outputBytes = outputFile.length(),
+                    passThrough = true
+                )
+            }
+            ImageComplianceProbe.Action.BMP_CONVERT -> {
+                Log.d(TAG, "图片尺寸已符合(${probe.width}x${probe.height})，跳过缩放直接转换为bin: $inputPath")
+                val result = if (algorithm == BmpConvert.TYPE_BR_28) {
+                    // 尺寸一致，按原尺寸解码后直接编码
+                    val options = BitmapFactory.Options().apply { inPreferredConfig = resolveDecodeConfig(params) }
+                    decodeFileReusing(inputPath, options, probe.width, probe.height)?.let { bitmap ->
+                        try {
+                            encodeBin(bitmap, algorithm, outputFile)
+                        } finally {
+                            bitmapPool.put(bitmap)
+                        }
+                    }
+                } else {
+                    // BmpConvert会在输入文件旁边写临时像素文件，先复制到缓存目录，避免写入用户目录
+                    val extension = inputFile.extension.ifEmpty { "img" }
+                    val source = File(context.cacheDir, "$BMP_SOURCE_FILE_PREFIX${System.nanoTime()}.$extension")
+                    try {
+                        inputFile.copyTo(source, overwrite = true)
+                        runBmpConvert(source.absolutePath, algorithm, outputFile)
+                    } finally {
+                        source.delete()
+                    }
+                } ?: throw ConvertException("转换为bin格式失败")
+                registerBin(outputFile, probe.width, probe.height, algorithm)
+                ImageConvertStats(
+                    outputPath = result,
+                    outputBytes = outputFile.length(),
+                    decodeSkipped = true
+                )
+            }
+        }
+    }
+    
+    /**
+     * 查找SDK生成过的bin文件的规格
+     * @return 尺寸和算法（见ImageComplianceProbe.binSpec），未记录时返回null
+     */
+    private fun lookupBinSpec(file: File): String? {
+        val registry = binRegistry ?: return null
+        return try {
+            val key = DiskLruFileCache.hashKey(CACHE_KEY_VERSION, DiskLruFileCache.hashFile(file))
+            registry.get(key)?.readText()
+        } catch (e: IOException) {
+            Log.w(TAG, "读取bin记录失败: ${e.message}")
+            null
+        }
+    }
+    
+    /**
+     * 记录生成的bin文件，之后再次同步该文件时可以直接使用
+     */
+    private fun registerBin(binFile: File, width: Int, height: Int, algorithm: Int) {
+        val registry = binRegistry ?: return
+        try {
+            val key = DiskLruFileCache.hashKey(CACHE_KEY_VERSION, DiskLruFileCache.hashFile(binFile))
+            val temp = registry.newTempFile(key)
+            try {
+                temp.writeText(ImageComplianceProbe.binSpec(width, height, algorithm))
+                registry.publish(key, temp)
+            } finally {
+                temp.delete()
+            }
+        } catch (e: IOException) {
+            Log.w(TAG, "记录bin文件失败: ${e.message}")
+        }
+    }
+    
+    /**
+     * 根据转换参数选择BmpConvert算法
+     */
+    private fun resolveBinAlgorithm(params: ImageConvertParams): Int {
+        return if (params.algorithm == 3) {
+            BmpConvert.TYPE_707N_ARGB
+        } else {
+            BmpConvert.TYPE_BR_28
+        }
+    }
+    
+    /**
+     * 解码结果
+     * @param sourceWidth 原图宽度
+     * @param sourceHeight 原图高度
+     */
+    private class DecodedBitmap(
+        val bitmap: Bitmap,
+        val sourceWidth: Int,
+        val sourceHeight: Int
+    )
+    
     /**
      * 加载Bitmap
+     * 按目标尺寸和内存上限解码（见ImageDecodePlanner），不按原图分辨率解码：
+     * API 28+使用ImageDecoder.setTargetSize直接解码到接近目标的尺寸，更早的版本先读取尺寸再按inSampleSize解码
      */
-    private suspend fun loadBitmapFromPath(imagePath: String): Bitmap? = withContext(Dispatchers.IO) {
+    private suspend fun loadBitmapFromPath(
+        imagePath: String,
+        params: ImageConvertParams
+    ): DecodedBitmap? = withContext(Dispatchers.IO) {
         try {
             val file = File(imagePath)
             if (!file.exists()) {
@@ -103,7 +463,53 @@ class ImageConvertService(
                 return@withContext null
             }
             
-            BitmapFactory.decodeFile(imagePath)
+            val decodeConfig = resolveDecodeConfig(params)
+            val bytesPerPixel = if (decodeConfig == Bitmap.Config.RGB_565) 2 else 4
+            val maxBytes = config.imageConvertConfig.maxDecodeMemory
+            
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+                var sourceWidth = 0
+                var sourceHeight = 0
+                val bitmap = ImageDecoder.decodeBitmap(ImageDecoder.createSource(file)) { decoder, info, _ ->
+                    sourceWidth = info.size.width
+                    sourceHeight = info.size.height
+                    val (width, height) = ImageDecodePlanner.targetSize(
+                        sourceWidth, sourceHeight, params.targetWidth, params.targetHeight, bytesPerPixel, maxBytes
+                    )
+                    decoder.setTargetSize(width, height)
+                    // 后续需要用Canvas绘制和读取像素，不能使用硬件Bitmap
+                    decoder.allocator = ImageDecoder.ALLOCATOR_SOFTWARE
+                    // 可变Bitmap用完后可以放回复用池
+                    decoder.isMutableRequired = true
+                    if (decodeConfig == Bitmap.Config.RGB_565) {
+                        decoder.memorySizePolicy = ImageDecoder.MEMORY_POLICY_LOW_RAM
+                    }
+                }
+                return@withContext DecodedBitmap(bitmap, sourceWidth, sourceHeight)
+            }
+            
+            // 先只读取尺寸
+            val options = BitmapFactory.Options().apply { inJustDecodeBounds = true }
+            BitmapFactory.decodeFile(imagePath, options)
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                Log.e(TAG, "无法识别的图片格式: $imagePath")
+                return@withContext null
+            }
+            options.inJustDecodeBounds = false
+            options.inPreferredConfig = decodeConfig
+            val sourceWidth = options.outWidth
+            val sourceHeight = options.outHeight
+            val sampleSize = ImageDecodePlanner.sampleSize(
+                sourceWidth, sourceHeight, params.targetWidth, params.targetHeight, bytesPerPixel, maxBytes
+            )
+            options.inSampleSize = sampleSize
+            val bitmap = decodeFileReusing(
+                imagePath,
+                options,
+                (sourceWidth + sampleSize - 1) / sampleSize,
+                (sourceHeight + sampleSize - 1) / sampleSize
+            ) ?: return@withContext null
+            DecodedBitmap(bitmap, sourceWidth, sourceHeight)
         } catch (e: Exception) {
             Log.e(TAG, "加载图片失败: ${e.message}", e)
             null
@@ -111,18 +517,61 @@ class ImageConvertService(
     }
     
     /**
-     * 缩放图片
+     * 使用复用池中的Bitmap作为inBitmap解码图片，池中没有合适的Bitmap或复用失败时正常解码
+     * @param width 解码结果的宽度（不小于实际解码宽度）
+     * @param height 解码结果的高度（不小于实际解码高度）
+     */
+    private fun decodeFileReusing(
+        imagePath: String,
+        options: BitmapFactory.Options,
+        width: Int,
+        height: Int
+    ): Bitmap? {
+        options.inMutable = true
+        val reusable = bitmapPool.getReusableBitmap(width, height, options.inPreferredConfig ?: Bitmap.Config.ARGB_8888)
+        if (reusable != null) {
+            options.inBitmap = reusable
+            try {
+                BitmapFactory.decodeFile(imagePath, options)?.let { return it }
+            } catch (e: IllegalArgumentException) {
+                Log.w(TAG, "复用Bitmap解码失败，重新分配: ${e.message}")
+            }
+            options.inBitmap = null
+            bitmapPool.put(reusable)
+        }
+        return BitmapFactory.decodeFile(imagePath, options)
+    }
+    
+    /**
+     * 根据输出格式选择解码的颜色格式
+     * BR_28算法输出不带透明度的bin，解码为RGB_565减少一半内存；707N_ARGB和PNG等需要透明度或全色深的输出使用ARGB_8888
+     */
+    private fun resolveDecodeConfig(params: ImageConvertParams): Bitmap.Config {
+        return if (params.outputFormat == ImageConvertParams.ImageFormat.BIN &&
+            resolveBinAlgorithm(params) == BmpConvert.TYPE_BR_28
+        ) {
+            Bitmap.Config.RGB_565
+        } else {
+            Bitmap.Config.ARGB_8888
+        }
+    }
+    
+    /**
+     * 裁剪缩放图片（见BitmapScaler）
+     * 按缩放方式居中裁剪或完整显示，一次绘制到从复用池取出的目标Bitmap，缩放后原图放回复用池
      */
     private suspend fun scaleBitmap(
         bitmap: Bitmap,
         targetWidth: Int,
-        targetHeight: Int
+        targetHeight: Int,
+        scaleMode: ImageConvertParams.ScaleMode
     ): Bitmap? = withContext(Dispatchers.IO) {
         try {
-            val scaledBitmap = Bitmap.createScaledBitmap(bitmap, targetWidth, targetHeight, true)
-            if (scaledBitmap != bitmap) {
-                bitmap.recycle()
+            if (bitmap.width == targetWidth && bitmap.height == targetHeight) {
+                return@withContext bitmap
             }
+            val scaledBitmap = BitmapScaler.scale(bitmap, targetWidth, targetHeight, scaleMode, bitmapPool)
+            bitmapPool.put(bitmap)
             scaledBitmap
         } catch (e: Exception) {
             Log.e(TAG, "缩放图片失败: ${e.message}", e)
@@ -131,114 +580,282 @@ class ImageConvertService(
     }
     
     /**
-     * 转换为bin格式（使用杰理SDK）
+     * 当前设备是否为圆屏（screenType为0表示方屏，其余为圆屏）
+     */
+    private fun isRoundScreen(): Boolean {
+        return try {
+            (clockDialInfoService?.getCurrentClockDialInfo()?.screenType ?: 0) != 0
+        } catch (e: Exception) {
+            Log.w(TAG, "获取屏幕类型失败，按方屏处理: ${e.message}")
+            false
+        }
+    }
+    
+    /**
+     * 圆屏遮罩：内切椭圆之外的四角填充为同一纯色
+     * 四角在圆屏上不可见，填充纯色后bin格式压缩率更高
+     * @return 遮罩后的新Bitmap（从复用池取出，原Bitmap保持不变）
+     */
+    private fun applyRoundMask(bitmap: Bitmap): Bitmap {
+        val masked = bitmapPool.getBitmap(bitmap.width, bitmap.height, Bitmap.Config.ARGB_8888)
+        val canvas = Canvas(masked)
+        canvas.drawBitmap(bitmap, 0f, 0f, null)
+        val path = Path().apply {
+            addOval(RectF(0f, 0f, masked.width.toFloat(), masked.height.toFloat()), Path.Direction.CW)
+            fillType = Path.FillType.INVERSE_WINDING
+        }
+        val paint = Paint(Paint.ANTI_ALIAS_FLAG).apply {
+            color = ROUND_MASK_COLOR
+            style = Paint.Style.FILL
+        }
+        canvas.drawPath(path, paint)
+        return masked
+    }
+    
+    /**
+     * 转换为bin格式
+     * 圆屏设备先遮罩四角再转换，节省的字节数按遮罩面积估算（见estimateMaskBytesSaved）
+     * @throws ConvertException 转换失败
      */
     private suspend fun convertToBin(
         bitmap: Bitmap,
         outputPath: String,
-        params: ImageConvertParams
-    ) = withContext(Dispatchers.IO) {
+        params: ImageConvertParams,
+        decodeStats: ImageConvertStats
+    ): ImageConvertStats = withContext(Dispatchers.IO) {
         try {
             val binFile = File(outputPath)
+            val algorithm = resolveBinAlgorithm(params)
             
-            // 保存bitmap为临时文件
-            val tempBitmapFile = File(context.getExternalFilesDir(null), "temp_bitmap_${System.currentTimeMillis()}.png")
-            val tempOutputStream = FileOutputStream(tempBitmapFile)
-            bitmap.compress(Bitmap.CompressFormat.PNG, 100, tempOutputStream)
-            tempOutputStream.close()
-            
-            // 使用杰理SDK的BmpConvert进行转换
-            val convert = BmpConvert()
-            val algorithm = if (params.algorithm == 3) {
-                BmpConvert.TYPE_707N_ARGB
+            val roundMasked = isRoundScreen()
+            val sourceBitmap = if (roundMasked) applyRoundMask(bitmap) else bitmap
+            // 遮罩时原图和遮罩副本同时存在
+            val maskedBytes = if (sourceBitmap !== bitmap) {
+                bitmap.allocationByteCount.toLong() + sourceBitmap.allocationByteCount
             } else {
-                BmpConvert.TYPE_BR_28
+                0L
             }
-            
-            // 使用协程等待异步转换完成
-            val result = suspendCancellableCoroutine<String?> { continuation ->
-                val conversionListener = object : OnConvertListener {
-                    override fun onStart(path: String?) {
-                        Log.d(TAG, "BmpConvert 开始转换: $path")
-                    }
-                    
-                    override fun onStop(success: Boolean, message: String?) {
-                        Log.d(TAG, "BmpConvert 转换完成: 成功=$success, 消息=$message")
-                        if (success && binFile.exists() && binFile.length() > 0) {
-                            Log.d(TAG, "bin文件转换成功: ${binFile.absolutePath}, 大小: ${binFile.length()} bytes")
-                            continuation.resume(binFile.absolutePath) {}
-                        } else {
-                            continuation.resume(null) {}
-                        }
-                    }
-
-                    override fun onStop(
-                        p0: ConvertResult?,
-                        p1: String?
-                    ) {
-                    }
+            val result = try {
+                encodeBin(sourceBitmap, algorithm, binFile)
+            } finally {
+                if (sourceBitmap !== bitmap) {
+                    bitmapPool.put(sourceBitmap)
                 }
-                
-                convert.bitmapConvert(
+            } ?: throw ConvertException("转换为bin格式失败")
+            
+            registerBin(binFile, bitmap.width, bitmap.height, algorithm)
+            var maskBytesSaved = 0L
+            if (roundMasked) {
+                maskBytesSaved = estimateMaskBytesSaved(binFile.length())
+                Log.d(TAG, "圆屏遮罩估算节省: $maskBytesSaved bytes (遮罩后: ${binFile.length()} bytes)")
+            }
+            decodeStats.copy(
+                outputPath = result,
+                outputBytes = binFile.length(),
+                roundMasked = roundMasked,
+                maskBytesSaved = maskBytesSaved,
+                peakBitmapBytes = maxOf(decodeStats.peakBitmapBytes, maskedBytes)
+            )
+        } catch (e: CancellationException) {
+            throw e
+        } catch (e: ConvertException) {
+            throw e
+        } catch (e: Exception) {
+            Log.e(TAG, "转换为bin格式异常: ${e.message}", e)
+            throw ConvertException("转换异常: ${e.message}")
+        }
+    }
+    
+    /**
+     * 估算圆屏遮罩节省的字节数
+     * 四角填充纯色后几乎不占数据，按可见区域（内切椭圆）的数据密度估算四角未遮罩时的数据量：
+     * 遮罩后数据区为D、可见面积比例为p时，未遮罩约为D/p，节省 D·(1-p)/p
+     * 不用未遮罩的图片再编码一次对比，避免每次转换的编码和文件读写翻倍（707N_ARGB还会再占用一次BmpConvert）
+     */
+    private fun estimateMaskBytesSaved(binBytes: Long): Long {
+        val dataBytes = binBytes - BIN_HEADER_SIZE
+        if (dataBytes <= 0) {
+            return 0
+        }
+        return (dataBytes * (1 - ROUND_MASK_VISIBLE_RATIO) / ROUND_MASK_VISIBLE_RATIO).toLong()
+    }
+    
+    /**
+     * 将Bitmap编码为bin文件
+     * BR_28使用BinImageEncoder直接在内存中编码（与BmpConvert输出一致），不经过临时像素文件和native库；
+     * 707N_ARGB由BmpConvert在ETC2和ARGB8565中自动选择更小的格式，ETC2编码没有移植，仍使用BmpConvert
+     * @return 成功时返回bin文件路径，失败返回null
+     */
+    private suspend fun encodeBin(
+        bitmap: Bitmap,
+        algorithm: Int,
+        binFile: File
+    ): String? {
+        if (algorithm != BmpConvert.TYPE_BR_28) {
+            return runBmpConvert(bitmap, algorithm, binFile)
+        }
+        val width = bitmap.width
+        val height = bitmap.height
+        val pixels = bitmapPool.getIntArray(width * height)
+        val buffer = bitmapPool.getByteArray(BinImageEncoder.br28BufferSize(width, height))
+        try {
+            bitmap.getPixels(pixels, 0, width, 0, 0, width, height)
+            FileOutputStream(binFile).use { output ->
+                BinImageEncoder.encodeBr28(pixels, width, height, buffer, output)
+            }
+        } finally {
+            bitmapPool.put(pixels)
+            bitmapPool.put(buffer)
+        }
+        Log.d(TAG, "bin文件转换成功: ${binFile.absolutePath}, 大小: ${binFile.length()} bytes")
+        return binFile.absolutePath
+    }
+    
+    /**
+     * 调用BmpConvert将Bitmap转换为bin文件
+     * 像素直接按BmpConvert内部使用的原始格式（每像素4字节，依次为B、G、R、A）写入像素文件后调用转换，
+     * 不再先压缩为PNG再由BmpConvert解码，省去一次无损压缩、一次解码和PNG文件的写入
+     * @return 成功时返回bin文件路径，失败返回null
+     */
+    private suspend fun runBmpConvert(
+        bitmap: Bitmap,
+        algorithm: Int,
+        binFile: File
+    ): String? {
+        val rawFile = File(context.cacheDir, "$RAW_PIXEL_FILE_PREFIX${System.nanoTime()}.bin")
+        try {
+            writeRawPixels(bitmap, rawFile)
+            val result = bmpConvertMutex.withLock {
+                BmpConvert().bmpConvert_native(
                     algorithm,
-                    tempBitmapFile.absolutePath,
+                    rawFile.absolutePath,
+                    bitmap.width,
+                    bitmap.height,
                     binFile.absolutePath,
-                    conversionListener
+                    ConvertParam()
                 )
             }
-            
-            // 删除临时文件
-            tempBitmapFile.delete()
-            
-            if (result != null) {
-                withContext(Dispatchers.Main) {
-                    convertCallback?.onConvertSuccess(result)
-                }
+            Log.d(TAG, "BmpConvert 转换完成: $result")
+            return if (result != null && result.isConvertSuccess && binFile.exists() && binFile.length() > 0) {
+                Log.d(TAG, "bin文件转换成功: ${binFile.absolutePath}, 大小: ${binFile.length()} bytes")
+                binFile.absolutePath
             } else {
-                withContext(Dispatchers.Main) {
-                    convertCallback?.onConvertFailed("转换为bin格式失败")
-                }
+                null
             }
-        } catch (e: Exception) {
-            Log.e(TAG, "转换为bin格式异常: ${e.message}", e)
-            withContext(Dispatchers.Main) {
-                convertCallback?.onConvertFailed("转换异常: ${e.message}")
+        } finally {
+            // 删除像素文件
+            rawFile.delete()
+        }
+    }
+    
+    /**
+     * 将Bitmap像素写入BmpConvert的原始像素文件（ARGB整数按小端序存储，即B、G、R、A字节顺序）
+     */
+    private fun writeRawPixels(bitmap: Bitmap, rawFile: File) {
+        val width = bitmap.width
+        val height = bitmap.height
+        val count = width * height
+        val pixels = bitmapPool.getIntArray(count)
+        val bytes = bitmapPool.getByteArray(count * 4)
+        try {
+            bitmap.getPixels(pixels, 0, width, 0, 0, width, height)
+            ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().put(pixels, 0, count)
+            FileOutputStream(rawFile).use { output ->
+                output.write(bytes, 0, count * 4)
+            }
+        } finally {
+            bitmapPool.put(pixels)
+            bitmapPool.put(bytes)
+        }
+    }
+    
+    /**
+     * 清理上次进程中断时留下的临时文件（旧版本的临时PNG及BmpConvert在其旁边生成的像素文件、像素文件、旧版本的遮罩对比文件）
+     * @param before 只删除在该时间之前修改的文件，不影响服务创建后已经开始的转换
+     */
+    private fun cleanupStaleTempFiles(before: Long) {
+        val stalePrefixes = listOf(RAW_PIXEL_FILE_PREFIX, BMP_SOURCE_FILE_PREFIX, MASK_REFERENCE_FILE_PREFIX)
+        context.cacheDir.listFiles { file -> stalePrefixes.any { file.name.startsWith(it) } && file.lastModified() < before }
+            ?.forEach { it.delete() }
+        context.getExternalFilesDir(null)
+            ?.listFiles { file -> file.name.startsWith(LEGACY_TEMP_BITMAP_PREFIX) && file.lastModified() < before }
+            ?.forEach { it.delete() }
+    }
+    
+    /**
+     * 调用BmpConvert将图片文件转换为bin文件
+     * BmpConvert内部会解码图片，并在图片旁边写入同名的临时像素文件
+     * @return 成功时返回bin文件路径，失败返回null
+     */
+    private suspend fun runBmpConvert(
+        sourcePath: String,
+        algorithm: Int,
+        binFile: File
+    ): String? = bmpConvertMutex.withLock {
+        val convert = BmpConvert()
+        
+        // 使用协程等待异步转换完成
+        suspendCancellableCoroutine<String?> { continuation ->
+            val conversionListener = object : OnConvertListener {
+                override fun onStart(path: String?) {
+                    Log.d(TAG, "BmpConvert 开始转换: $path")
+                }
+                
+                override fun onStop(success: Boolean, message: String?) {
+                    Log.d(TAG, "BmpConvert 转换完成: 成功=$success, 消息=$message")
+                    if (success && binFile.exists() && binFile.length() > 0) {
+                        Log.d(TAG, "bin文件转换成功: ${binFile.absolutePath}, 大小: ${binFile.length()} bytes")
+                        continuation.resume(binFile.absolutePath) {}
+                    } else {
+                        continuation.resume(null) {}
+                    }
+                }
+
+                override fun onStop(
+                    p0: ConvertResult?,
+                    p1: String?
+                ) {
+                }
             }
+            
+            convert.bitmapConvert(
+                algorithm,
+                sourcePath,
+                binFile.absolutePath,
+                conversionListener
+            )
         }
     }
     
     /**
      * 保存Bitmap
+     * @throws ConvertException 保存失败
      */
     private suspend fun saveBitmap(
         bitmap: Bitmap,
         outputPath: String,
         format: Bitmap.CompressFormat,
-        quality: Int
-    ) = withContext(Dispatchers.IO) {
+        quality: Int,
+        decodeStats: ImageConvertStats
+    ): ImageConvertStats = withContext(Dispatchers.IO) {
         try {
             val outputFile = File(outputPath)
-            val outputStream = FileOutputStream(outputFile)
-            bitmap.compress(format, quality, outputStream)
-            outputStream.close()
-            
-            withContext(Dispatchers.Main) {
-                convertCallback?.onConvertSuccess(outputPath)
+            FileOutputStream(outputFile).use { outputStream ->
+                bitmap.compress(format, quality, outputStream)
             }
+            decodeStats.copy(outputBytes = outputFile.length())
         } catch (e: Exception) {
             Log.e(TAG, "保存图片失败: ${e.message}", e)
-            withContext(Dispatchers.Main) {
-                convertCallback?.onConvertFailed("保存失败: ${e.message}")
-            }
+            throw ConvertException("保存失败: ${e.message}")
         }
     }
     
     /**
      * 转换为BMP格式
      */
-    private suspend fun convertToBMP(bitmap: Bitmap, outputPath: String) {
+    private suspend fun convertToBMP(bitmap: Bitmap, outputPath: String, decodeStats: ImageConvertStats): ImageConvertStats {
         // BMP格式转换需要特殊处理，这里简化处理
-        saveBitmap(bitmap, outputPath, Bitmap.CompressFormat.PNG, 100)
+        return saveBitmap(bitmap, outputPath, Bitmap.CompressFormat.PNG, 100, decodeStats)
     }
     
     /**
@@ -246,6 +863,8 @@ class ImageConvertService(
      */
     fun cleanup() {
         serviceScope.cancel()
+        context.applicationContext.unregisterComponentCallbacks(memoryCallbacks)
+        bitmapPool.clear()
         convertCallback = null
         Log.d(TAG, "图片转换服务资源已清理")
     }
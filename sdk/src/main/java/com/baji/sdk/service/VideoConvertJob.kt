@@ -0,0 +1,134 @@
+package com.baji.sdk.service
+
+import com.baji.sdk.model.VideoConvertProgress
+import com.baji.sdk.model.VideoConvertStats
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+
+/**
+ * 视频转换任务句柄
+ * 每次调用VideoConvertService的转换方法都会返回一个独立的任务，
+ * 多个任务可以并行执行，互不影响各自的回调、进度和重试状态
+ */
+class VideoConvertJob internal constructor(
+    /**
+     * 任务ID（全局唯一）
+     */
+    val id: String,
+
+    /**
+     * 输入文件路径
+     */
+    val inputPath: String,
+
+    /**
+     * 输出文件路径
+     */
+    val outputPath: String
+) {
+    /**
+     * 任务状态
+     */
+    enum class State {
+        QUEUED,     // 排队中（等待空闲的转换槽位）
+        RUNNING,    // 转换中
+        SUCCEEDED,  // 转换成功
+        FAILED,     // 转换失败
+        CANCELLED;  // 已取消
+
+        /**
+         * 是否已结束
+         */
+        val isFinished: Boolean
+            get() = this == SUCCEEDED || this == FAILED || this == CANCELLED
+    }
+
+    private val _state = MutableStateFlow(State.QUEUED)
+    private val _progress = MutableStateFlow(0)
+    private val _statistics = MutableStateFlow<VideoConvertProgress?>(null)
+
+    /**
+     * 任务状态流
+     */
+    val state: StateFlow<State> = _state.asStateFlow()
+
+    /**
+     * 进度流（0-100）
+     */
+    val progress: StateFlow<Int> = _progress.asStateFlow()
+
+    /**
+     * 编码实时统计流（帧率、速度倍率、已输出字节数），开始编码前为null
+     */
+    val statistics: StateFlow<VideoConvertProgress?> = _statistics.asStateFlow()
+
+    /**
+     * 转换统计信息（仅AVI转换成功后有值）
+     */
+    @Volatile
+    var stats: VideoConvertStats? = null
+        internal set
+
+    /**
+     * 失败原因（仅失败后有值）
+     */
+    @Volatile
+    var error: String? = null
+        internal set
+
+    private val runningSessionIds = LinkedHashSet<Long>()
+
+    /**
+     * 正在执行的FFmpeg会话ID（质量采样或编码中）
+     * 没有运行中的会话时为null；分段并行编码时同时有多个会话，此时也为null，见sessionIds
+     */
+    val sessionId: Long?
+        get() = synchronized(runningSessionIds) { runningSessionIds.singleOrNull() }
+
+    /**
+     * 所有正在执行的FFmpeg会话ID（分段并行编码时每段一个），没有运行中的会话时为空
+     */
+    val sessionIds: List<Long>
+        get() = synchronized(runningSessionIds) { runningSessionIds.toList() }
+
+    /**
+     * 执行该任务的协程
+     */
+    @Volatile
+    internal var coroutineJob: Job? = null
+
+    /**
+     * 取消任务
+     * 排队中的任务直接出队；转换中的任务会中止对应的FFmpeg会话、删除未完成的输出文件，
+     * 不再重试，也不会回调成功或失败；已结束的任务调用无效果
+     */
+    fun cancel() {
+        coroutineJob?.cancel()
+    }
+
+    internal fun addSession(sessionId: Long) {
+        synchronized(runningSessionIds) { runningSessionIds.add(sessionId) }
+    }
+
+    internal fun removeSession(sessionId: Long) {
+        synchronized(runningSessionIds) { runningSessionIds.remove(sessionId) }
+    }
+
+    internal fun clearSessions() {
+        synchronized(runningSessionIds) { runningSessionIds.clear() }
+    }
+
+    internal fun updateState(state: State) {
+        _state.value = state
+    }
+
+    internal fun updateProgress(progress: Int) {
+        _progress.value = progress.coerceIn(0, 100)
+    }
+
+    internal fun updateStatistics(statistics: VideoConvertProgress) {
+        _statistics.value = statistics
+    }
+}
@@ -1,19 +1,71 @@
 package com.baji.sdk.service
 
+import android.content.ComponentCallbacks2
 import android.content.Context
+import android.content.res.Configuration
+import android.media.MediaCodecList
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
 import android.net.Uri
+import android.os.Build
+import android.os.Handler
+import android.os.Looper
+import android.os.SystemClock
+import android.provider.DocumentsContract
+import android.provider.MediaStore
 import android.util.Log
 import com.arthenica.ffmpegkit.FFmpegKit
+import com.arthenica.ffmpegkit.FFmpegKitConfig
+import com.arthenica.ffmpegkit.FFmpegSession
+import com.arthenica.ffmpegkit.FFprobeKit
 import com.arthenica.ffmpegkit.ReturnCode
+import com.arthenica.ffmpegkit.Statistics
 import com.baji.sdk.SDKConfig
 import com.baji.sdk.callback.VideoConvertCallback
+import com.baji.sdk.callback.VideoThumbnailCallback
+import com.baji.sdk.model.VideoConvertOutputs
 import com.baji.sdk.model.VideoConvertParams
+import com.baji.sdk.model.VideoConvertProgress
+import com.baji.sdk.model.VideoConvertStats
+import com.baji.sdk.model.VideoEncodeProfile
+import com.baji.sdk.model.VideoThumbnail
+import com.baji.sdk.util.AviComplianceProbe
+import com.baji.sdk.util.AviFrameRepair
+import com.baji.sdk.util.AviParser
+import com.baji.sdk.util.DiskLruFileCache
+import com.baji.sdk.util.MjpegQualityFit
+import com.baji.sdk.util.VideoEncodeProfileRegistry
+import com.baji.sdk.util.VideoFilterPlanner
+import com.baji.sdk.util.VideoThumbnailCache
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.suspendCancellableCoroutine
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+import kotlinx.coroutines.withContext
+import java.io.ByteArrayOutputStream
 import java.io.File
-import java.io.RandomAccessFile
+import java.io.FileInputStream
+import java.io.IOException
+import java.io.InputStream
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.math.ceil
+import kotlin.math.roundToInt
 
 /**
  * 视频转换服务
  * 提供视频转AVI、格式转换等功能
+ * 每次转换返回独立的VideoConvertJob，多个转换可以并行执行，并行数量按CPU核数限制
  */
 class VideoConvertService(
     private val context: Context,
@@ -22,208 +74,1698 @@ class VideoConvertService(
 ) {
     private val TAG = "VideoConvertService"
     private var convertCallback: VideoConvertCallback? = null
+    private val serviceScope = CoroutineScope(Dispatchers.IO + SupervisorJob())
+    private val mainHandler = Handler(Looper.getMainLooper())
     
-    // 视频质量重试相关（每次转换独立的重试状态）
-    private data class RetryState(
-        var retryCount: Int = 0,
-        var currentQuality: Int = 10  // 默认质量值，与主项目一致
+    // 并发任务相关
+    private val jobRegistry = ConcurrentHashMap<String, VideoConvertJob>()  // key: 任务ID，任务结束后移除
+    private val jobIdGenerator = AtomicLong(0)
+    private val MAX_CONCURRENT_JOBS = maxOf(1, Runtime.getRuntime().availableProcessors() / 2)  // FFmpeg编码本身是多线程的，并行任务数取CPU核数的一半
+    private val jobSemaphore = Semaphore(MAX_CONCURRENT_JOBS)
+    
+    // 进度相关（FFmpeg统计回调频率很高，按固定间隔节流后再通知调用方）
+    private val PROGRESS_REPORT_INTERVAL_MS = 250L  // 进度回调最小间隔
+    private val PROGRESS_ENCODE_END = 95  // 编码阶段最多报告到95%，剩余用于缓冲区检查和帧修复
+    
+    // 转换结果缓存（key由输入内容、转换参数、表盘尺寸和屏幕类型、实际编码命令共同决定）
+    private val CACHE_DIR_NAME = "video_convert_cache"
+    private val CACHE_KEY_VERSION = "1"  // 缓存格式或后处理（帧修复等）变化时递增，使旧缓存失效
+    private val convertCache: DiskLruFileCache? by lazy {
+        if (config.ffmpegConfig.enableCache) {
+            DiskLruFileCache(File(context.cacheDir, CACHE_DIR_NAME), config.ffmpegConfig.maxCacheSize)
+        } else {
+            null
+        }
+    }
+    private val contentHashMemo = ConcurrentHashMap<String, String>()  // key: 输入标识（路径或Uri|大小|修改时间），避免同一输入重复计算哈希
+    
+    // 缩略图缓存（内存Bitmap + 磁盘JPEG，key由输入标识、序号/数量、尺寸决定），系统内存紧张时释放内存缓存
+    private val THUMBNAIL_CACHE_DIR_NAME = "video_thumbnail_cache"
+    private val thumbnailCacheDelegate = lazy {
+        val ffmpegConfig = config.ffmpegConfig
+        if (ffmpegConfig.enableCache && ffmpegConfig.maxThumbnailCacheSize > 0) {
+            VideoThumbnailCache(
+                File(context.cacheDir, THUMBNAIL_CACHE_DIR_NAME),
+                ffmpegConfig.maxThumbnailCacheSize,
+                ffmpegConfig.maxThumbnailMemorySize
+            )
+        } else {
+            null
+        }
+    }
+    private val thumbnailCache: VideoThumbnailCache? by thumbnailCacheDelegate
+    private val memoryCallbacks = object : ComponentCallbacks2 {
+        override fun onTrimMemory(level: Int) {
+            trimThumbnailMemory(level)
+        }
+        
+        override fun onConfigurationChanged(newConfig: Configuration) {
+        }
+        
+        override fun onLowMemory() {
+            trimThumbnailMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE)
+        }
+    }
+    
+    // 分段并行编码相关（MJPEG每帧独立，长视频按时间切段后多个FFmpeg会话同时编码，再无损拼接）
+    private val SEGMENT_MIN_DURATION_MS = 4000L  // 每段最短时长，太短时启动开销大于并行收益
+    private val SEGMENT_MAX_COUNT = maxOf(1, Runtime.getRuntime().availableProcessors() / 2)  // 最大段数（解码本身也是多线程的）
+    
+    // 视频质量重试相关
+    private val MAX_RETRY_COUNT = 3  // 最大重试次数
+    private val MAX_QUALITY = 31  // 最大质量值（最低质量）
+    
+    // 质量预测相关（先编码少量采样帧，拟合质量→帧大小曲线，一次选出合适的q:v）
+    private val QUALITY_PROBE_FRAMES = 8  // 每个候选质量最多编码的采样帧数
+    private val QUALITY_PROBE_STEPS = intArrayOf(0, 6, 14)  // 候选质量相对初始质量的增量
+    private val QUALITY_PROBE_SAFETY = 0.85  // 采样帧可能漏掉最大帧，预测目标留15%余量
+    
+    // 帧级修复相关（少量帧超限时只重新压缩这些帧）
+    private val FRAME_REPAIR_MAX_RATIO = 0.25  // 超限帧占比超过该值时改为整体降质量重新编码
+    private val FRAME_REPAIR_START_QUALITY = 85  // 重新压缩的初始JPEG质量（0-100）
+    private val FRAME_REPAIR_MIN_QUALITY = 35  // 重新压缩的最低JPEG质量
+    private val FRAME_REPAIR_QUALITY_STEP = 10  // 每次降低的JPEG质量
+    
+    // 预览输出相关（AVI转MP4/GIF和单次解码多路输出共用）
+    private val GIF_PREVIEW_FPS = 2  // GIF缩略图帧率
+    private val GIF_PREVIEW_WIDTH = 200  // GIF缩略图宽度（高度按比例）
+    private val GIF_PREVIEW_DURATION = 3  // GIF缩略图时长（秒）
+    private val MP4_PREVIEW_OPTIONS = "-c:v libx264 -preset fast -crf 23 -pix_fmt yuv420p"  // 预览MP4视频编码参数
+    private val MP4_PREVIEW_AUDIO_OPTIONS = "-c:a aac -b:a 64k"  // 预览MP4音频编码参数
+    private val MP4_FAST_PREVIEW_OPTIONS = "-c:v libx264 -preset ultrafast -crf 28 -pix_fmt yuv420p"  // AVI转MP4无法直接封装时的快速转码参数
+    private val MP4_FAST_PREVIEW_MAX_WIDTH = 240  // 快速转码的最大宽度
+    private val MJPEG_MIME_TYPES = setOf("video/mjpeg", "video/x-motion-jpeg")  // 各厂商MJPEG解码器声明的MIME类型
+    
+    /**
+     * 本机是否有MJPEG硬件/软件解码器（有则系统播放器可以直接播放MJPEG的MP4/MOV）
+     */
+    private val mjpegDecoderAvailable: Boolean by lazy {
+        try {
+            MediaCodecList(MediaCodecList.REGULAR_CODECS).codecInfos.any { info ->
+                !info.isEncoder && info.supportedTypes.any { it.lowercase() in MJPEG_MIME_TYPES }
+            }
+        } catch (e: Exception) {
+            Log.w(TAG, "查询MJPEG解码器失败: ${e.message}")
+            false
+        }
+    }
+    
+    /**
+     * AVI转MP4预览的生成方式
+     */
+    enum class Mp4PreviewMode {
+        AUTO,       // 本机有MJPEG解码器时直接封装（输出为MOV封装，见REMUX），否则快速转码
+        REMUX,      // 直接封装（调用方的播放器支持MJPEG，如自带软件解码的播放器）；输出为QuickTime MOV封装，文件名仍为传入的mp4Path；封装失败时仍回退到快速转码
+        TRANSCODE   // 始终快速转码为H.264
+    }
+    
+    // 缩略图提取相关
+    private val THUMBNAIL_FILE_PREFIX = "thumb_"  // 缩略图文件名前缀，后接3位序号
+    private val THUMBNAIL_QUALITY = 5  // 缩略图JPEG质量（q:v，2-31，越小画质越高）
+    
+    /**
+     * 质量采样预测结果
+     * @param maskSavingRatio 圆屏遮罩节省的字节比例（采样帧遮罩前后的大小对比，未遮罩或未采样时为0）
+     */
+    private data class QualityPrediction(
+        val quality: Int,
+        val probed: Boolean,
+        val maskSavingRatio: Double = 0.0
     )
     
-    private val retryStateMap = mutableMapOf<String, RetryState>()  // key: outputPath
-    private val MAX_RETRY_COUNT = 3  // 最大重试次数
-    private val MAX_QUALITY = 31  // 最大质量值（最低质量）
-    private val BUFFER_SIZE_LIMIT = 20 * 1024  // 缓冲区大小限制：20KB
+    /**
+     * 转换失败（message即回调给调用方的错误信息）
+     */
+    private class ConvertException(message: String) : Exception(message)
+    
+    init {
+        context.applicationContext.registerComponentCallbacks(memoryCallbacks)
+    }
+    
+    /**
+     * 转换输入源（文件路径或content:// Uri）
+     * Uri输入通过FFmpegKit的SAF协议直接读取，不复制到临时文件
+     */
+    private inner class VideoInput(
+        private val path: String?,
+        private val uri: Uri?
+    ) {
+        /**
+         * 生成FFmpeg的输入参数
+         * SAF参数只能被一个FFmpeg会话使用，每次执行命令前都要重新生成
+         */
+        fun toFFmpegInput(): String {
+            return if (uri != null) resolveFFmpegInput(uri) else path!!
+        }
+        
+        /**
+         * 打开输入流（用于计算内容哈希）
+         */
+        fun openStream(): InputStream {
+            return if (uri != null) {
+                context.contentResolver.openInputStream(uri) ?: throw IOException("无法打开Uri: $uri")
+            } else {
+                File(path!!).inputStream()
+            }
+        }
+        
+        /**
+         * 按AVI结构解析输入（Uri通过文件描述符读取，不复制）
+         * @throws IOException 输入不是AVI文件或无法读取
+         */
+        fun parseAvi(): AviParser.AviFile {
+            return if (uri != null) {
+                val descriptor = context.contentResolver.openFileDescriptor(uri, "r") ?: throw IOException("无法打开Uri: $uri")
+                descriptor.use { FileInputStream(it.fileDescriptor).channel.use { channel -> AviParser.parse(channel) } }
+            } else {
+                AviParser.parse(File(path!!))
+            }
+        }
+        
+        /**
+         * 将输入原样复制到目标文件
+         */
+        fun copyTo(target: File) {
+            if (uri == null && File(path!!).canonicalPath == target.canonicalPath) {
+                return
+            }
+            openStream().use { input -> target.outputStream().use { input.copyTo(it) } }
+        }
+        
+        /**
+         * 输入标识（路径或Uri + 大小 + 修改时间），用于缓存内容哈希和缩略图缓存
+         */
+        fun identity(): String {
+            return if (uri != null) {
+                val length = context.contentResolver.openAssetFileDescriptor(uri, "r")?.use { it.length } ?: -1L
+                "$uri|$length|${queryLastModified(uri)}"
+            } else {
+                val file = File(path!!)
+                "$path|${file.length()}|${file.lastModified()}"
+            }
+        }
+        
+        override fun toString(): String = uri?.toString() ?: path!!
+    }
+    
+    /**
+     * 查询Uri的修改时间（毫秒），提供方不支持时返回-1
+     */
+    private fun queryLastModified(uri: Uri): Long {
+        return try {
+            context.contentResolver.query(uri, null, null, null, null)?.use { cursor ->
+                if (!cursor.moveToFirst()) {
+                    return@use -1L
+                }
+                val documentIndex = cursor.getColumnIndex(DocumentsContract.Document.COLUMN_LAST_MODIFIED)
+                val mediaIndex = cursor.getColumnIndex(MediaStore.MediaColumns.DATE_MODIFIED)
+                when {
+                    documentIndex >= 0 && !cursor.isNull(documentIndex) -> cursor.getLong(documentIndex)
+                    mediaIndex >= 0 && !cursor.isNull(mediaIndex) -> cursor.getLong(mediaIndex) * 1000  // MediaStore单位为秒
+                    else -> -1L
+                }
+            } ?: -1L
+        } catch (e: Exception) {
+            Log.w(TAG, "查询Uri修改时间失败: ${e.message}")
+            -1L
+        }
+    }
+    
+    /**
+     * 设置默认转换回调
+     * 调用转换方法时未单独传入回调的任务使用该回调
+     */
+    fun setConvertCallback(callback: VideoConvertCallback?) {
+        this.convertCallback = callback
+    }
+    
+    /**
+     * 将视频转换为AVI格式
+     * 编码参数按设备的表盘信息从VideoEncodeProfileRegistry中选择；
+     * 转换前先用关键帧采样预测质量值，使完整编码尽量一次满足单帧预算（默认20KB）；
+     * 如果转换后的AVI文件缓冲区大小仍超过预算，会自动降低质量重试
+     * @param inputPath 输入视频路径
+     * @param outputPath 输出AVI文件路径
+     * @param params 转换参数
+     * @param callback 该任务的回调（默认使用setConvertCallback设置的回调）
+     * @return 转换任务句柄
+     */
+    fun convertToAVI(
+        inputPath: String,
+        outputPath: String,
+        params: VideoConvertParams,
+        callback: VideoConvertCallback? = convertCallback
+    ): VideoConvertJob {
+        return launchJob(inputPath, outputPath, callback) { job, reporter ->
+            convertToAVIInternal(job, VideoInput(inputPath, null), params, reporter)
+        }
+    }
+    
+    /**
+     * 将content:// Uri指向的视频转换为AVI格式
+     * 通过SAF文件描述符直接交给FFmpeg读取，无需先把整个视频复制到缓存目录
+     * @param inputUri 输入视频Uri（如相册选择返回的content://）
+     * @param outputPath 输出AVI文件路径
+     * @param params 转换参数
+     * @param callback 该任务的回调（默认使用setConvertCallback设置的回调）
+     * @return 转换任务句柄
+     */
+    fun convertToAVI(
+        inputUri: Uri,
+        outputPath: String,
+        params: VideoConvertParams,
+        callback: VideoConvertCallback? = convertCallback
+    ): VideoConvertJob {
+        return launchJob(inputUri.toString(), outputPath, callback) { job, reporter ->
+            convertToAVIInternal(job, VideoInput(null, inputUri), params, reporter)
+        }
+    }
+    
+    /**
+     * 单次解码同时生成多个输出（设备AVI、预览MP4、GIF缩略图，均可选）
+     * 源视频只解码、裁剪缩放一次，经split滤镜分路编码，比先转AVI再分别转MP4和GIF少两次解码；
+     * AVI缓冲区超限需要降低质量重试时，只重新编码AVI，预览输出不再重复生成
+     * @param inputPath 输入视频路径
+     * @param outputs 输出路径（至少指定一个）
+     * @param params 转换参数
+     * @param callback 该任务的回调（onConvertSuccess返回AVI路径，未输出AVI时返回第一个输出路径）
+     * @return 转换任务句柄
+     */
+    fun convertToOutputs(
+        inputPath: String,
+        outputs: VideoConvertOutputs,
+        params: VideoConvertParams,
+        callback: VideoConvertCallback? = convertCallback
+    ): VideoConvertJob {
+        return launchOutputsJob(VideoInput(inputPath, null), outputs, params, callback)
+    }
+    
+    /**
+     * 单次解码同时生成多个输出（content:// Uri输入，通过SAF读取）
+     * @see convertToOutputs
+     */
+    fun convertToOutputs(
+        inputUri: Uri,
+        outputs: VideoConvertOutputs,
+        params: VideoConvertParams,
+        callback: VideoConvertCallback? = convertCallback
+    ): VideoConvertJob {
+        return launchOutputsJob(VideoInput(null, inputUri), outputs, params, callback)
+    }
+    
+    private fun launchOutputsJob(
+        input: VideoInput,
+        outputs: VideoConvertOutputs,
+        params: VideoConvertParams,
+        callback: VideoConvertCallback?
+    ): VideoConvertJob {
+        val primaryPath = outputs.aviPath ?: outputs.mp4Path ?: outputs.gifPath
+        requireNotNull(primaryPath) { "至少需要指定一个输出路径" }
+        return launchJob(input.toString(), primaryPath, callback) { job, reporter ->
+            try {
+                if (outputs.aviPath != null) {
+                    convertToAVIInternal(job, input, params, reporter, outputs)
+                } else {
+                    convertPreviewsInternal(job, input, params, outputs, reporter)
+                }
+            } catch (e: CancellationException) {
+                // 主输出由launchJob删除，这里删除其余未完成的输出
+                listOfNotNull(outputs.aviPath, outputs.mp4Path, outputs.gifPath)
+                    .filter { it != primaryPath }
+                    .forEach { File(it).delete() }
+                throw e
+            }
+        }
+    }
+    
+    /**
+     * 将Uri转换为FFmpeg可直接读取的输入参数（SAF协议）
+     * 返回值只能用于一条FFmpeg命令，每条命令都需要重新获取
+     * @param uri 视频Uri
+     * @return 可放在-i后面的输入参数
+     */
+    fun resolveFFmpegInput(uri: Uri): String {
+        return if (uri.scheme == "content") {
+            FFmpegKitConfig.getSafParameterForRead(context, uri)
+        } else {
+            uri.path ?: uri.toString()
+        }
+    }
+    
+    /**
+     * 获取未结束的转换任务
+     * @param jobId 任务ID
+     * @return 任务句柄，任务不存在或已结束时返回null
+     */
+    fun getJob(jobId: String): VideoConvertJob? {
+        return jobRegistry[jobId]
+    }
+    
+    /**
+     * 获取所有未结束的转换任务（排队中和转换中）
+     */
+    fun getActiveJobs(): List<VideoConvertJob> {
+        return jobRegistry.values.toList()
+    }
+    
+    /**
+     * 取消转换任务
+     * @param jobId 任务ID
+     * @return 任务存在且未结束时返回true
+     */
+    fun cancel(jobId: String): Boolean {
+        val job = jobRegistry[jobId] ?: return false
+        job.cancel()
+        return true
+    }
+    
+    /**
+     * 取消所有未结束的转换任务
+     */
+    fun cancelAll() {
+        jobRegistry.values.forEach { it.cancel() }
+    }
+    
+    /**
+     * 创建并启动转换任务
+     * 任务先排队等待空闲槽位，获得槽位后执行block；block正常返回即成功，
+     * 抛出ConvertException即失败；任务被取消时删除未完成的输出文件，只回调onConvertCancelled
+     */
+    private fun launchJob(
+        inputPath: String,
+        outputPath: String,
+        callback: VideoConvertCallback?,
+        block: suspend (VideoConvertJob, ProgressReporter) -> Unit
+    ): VideoConvertJob {
+        val job = VideoConvertJob(
+            id = "video_${System.currentTimeMillis()}_${jobIdGenerator.incrementAndGet()}",
+            inputPath = inputPath,
+            outputPath = outputPath
+        )
+        jobRegistry[job.id] = job
+        val reporter = ProgressReporter(job, callback)
+        
+        val coroutineJob = serviceScope.launch(start = CoroutineStart.LAZY) {
+            try {
+                jobSemaphore.withPermit {
+                    Log.d(TAG, "任务开始: ${job.id}, 当前并行任务上限: $MAX_CONCURRENT_JOBS")
+                    job.updateState(VideoConvertJob.State.RUNNING)
+                    withContext(Dispatchers.Main) {
+                        callback?.onConvertStart()
+                    }
+                    block(job, reporter)
+                }
+                reporter.logThroughput()
+                job.updateProgress(100)
+                job.updateState(VideoConvertJob.State.SUCCEEDED)
+                withContext(Dispatchers.Main) {
+                    job.stats?.let { callback?.onConvertStats(it) }
+                    callback?.onConvertSuccess(outputPath)
+                }
+            } catch (e: CancellationException) {
+                throw e
+            } catch (e: ConvertException) {
+                failJob(job, callback, e.message ?: "转换失败")
+            } catch (e: Exception) {
+                Log.e(TAG, "视频转换异常: ${e.message}", e)
+                failJob(job, callback, "转换异常: ${e.message}")
+            }
+        }
+        coroutineJob.invokeOnCompletion {
+            jobRegistry.remove(job.id)
+            job.clearSessions()
+            val state = job.state.value
+            if (!state.isFinished) {
+                Log.d(TAG, "任务已取消: ${job.id}")
+                // 排队中的任务还没写过输出文件，不能删除调用方原有的同名文件
+                if (state == VideoConvertJob.State.RUNNING && File(outputPath).delete()) {
+                    Log.d(TAG, "已删除未完成的输出文件: $outputPath")
+                }
+                job.updateState(VideoConvertJob.State.CANCELLED)
+                mainHandler.post {
+                    callback?.onConvertCancelled()
+                }
+            }
+        }
+        job.coroutineJob = coroutineJob
+        coroutineJob.start()
+        return job
+    }
+    
+    /**
+     * 标记任务失败并回调
+     */
+    private suspend fun failJob(job: VideoConvertJob, callback: VideoConvertCallback?, error: String) {
+        job.error = error
+        job.updateState(VideoConvertJob.State.FAILED)
+        withContext(Dispatchers.Main) {
+            callback?.onConvertFailed(error)
+        }
+    }
+    
+    /**
+     * 执行FFmpeg命令并挂起等待会话结束
+     * 会话ID记录在任务上，协程被取消时同时取消对应的FFmpeg会话
+     * @param reporter 进度上报（为null时不订阅编码统计，如质量采样）
+     * @param onStatistics 额外的编码统计监听（在FFmpeg统计线程回调）
+     */
+    private suspend fun executeSession(
+        command: String,
+        job: VideoConvertJob,
+        reporter: ProgressReporter? = null,
+        onStatistics: ((Statistics) -> Unit)? = null
+    ): FFmpegSession {
+        val statisticsCallback: ((Statistics) -> Unit)? = if (reporter != null || onStatistics != null) {
+            { statistics: Statistics ->
+                reporter?.onStatistics(statistics)
+                onStatistics?.invoke(statistics)
+            }
+        } else {
+            null
+        }
+        var sessionId: Long? = null
+        val session = try {
+            suspendCancellableCoroutine<FFmpegSession> { continuation ->
+                val session = FFmpegKit.executeAsync(
+                    command,
+                    { session -> continuation.resume(session) {} },
+                    null,
+                    statisticsCallback
+                )
+                sessionId = session.sessionId
+                job.addSession(session.sessionId)
+                continuation.invokeOnCancellation {
+                    Log.d(TAG, "取消FFmpeg会话: ${session.sessionId}, 任务: ${job.id}")
+                    FFmpegKit.cancel(session.sessionId)
+                }
+            }
+        } finally {
+            sessionId?.let { job.removeSession(it) }
+        }
+        reporter?.finishPass(session.duration)
+        return session
+    }
+    
+    /**
+     * 进度上报
+     * 根据FFmpeg编码统计中的已编码时长和本次编码的时间窗口计算百分比，
+     * 按PROGRESS_REPORT_INTERVAL_MS节流后更新任务进度并回调；同时累计每个任务的编码吞吐
+     */
+    private inner class ProgressReporter(
+        val job: VideoConvertJob,
+        private val callback: VideoConvertCallback?
+    ) {
+        @Volatile private var windowMs = 0L
+        @Volatile private var passStartProgress = 0
+        @Volatile private var lastReportTime = 0L
+        @Volatile private var segmentStatistics = arrayOfNulls<Statistics>(1)  // 每段最近一次的编码统计
+        
+        // 累计的编码吞吐（仅统计订阅了进度的完整编码）
+        var encodeTimeMs = 0L
+            private set
+        private var encodedFrames = 0L
+        private var encodedMediaMs = 0.0
+        
+        val averageFps: Float
+            get() = if (encodeTimeMs > 0) (encodedFrames * 1000f / encodeTimeMs) else 0f
+        
+        val averageSpeed: Double
+            get() = if (encodeTimeMs > 0) encodedMediaMs / encodeTimeMs else 0.0
+        
+        /**
+         * 开始一次编码
+         * 重试时从当前进度继续向PROGRESS_ENCODE_END推进，进度不会回退
+         * @param windowMs 本次编码的输出时长（毫秒），未知时传0，此时只上报统计不推进进度
+         * @param segmentCount 并行编码的段数，各段的统计累加后上报
+         */
+        fun startPass(windowMs: Long, segmentCount: Int = 1) {
+            this.windowMs = windowMs
+            passStartProgress = job.progress.value
+            segmentStatistics = arrayOfNulls(segmentCount)
+        }
+        
+        /**
+         * @param segment 统计所属的段序号（不分段时为0）
+         */
+        fun onStatistics(statistics: Statistics, segment: Int = 0) {
+            val segments = segmentStatistics
+            val now = SystemClock.elapsedRealtime()
+            val snapshot = synchronized(this) {
+                segments[segment] = statistics
+                if (now - lastReportTime < PROGRESS_REPORT_INTERVAL_MS) {
+                    return
+                }
+                lastReportTime = now
+                
+                val encodedMs = segments.sumOf { it?.time ?: 0.0 }
+                val window = windowMs
+                val progress = if (window > 0) {
+                    val fraction = (encodedMs / window).coerceIn(0.0, 1.0)
+                    passStartProgress + ((PROGRESS_ENCODE_END - passStartProgress) * fraction).toInt()
+                } else {
+                    job.progress.value
+                }
+                VideoConvertProgress(
+                    progress = progress,
+                    fps = segments.sumOf { it?.videoFps?.toDouble() ?: 0.0 }.toFloat(),
+                    speed = segments.sumOf { it?.speed ?: 0.0 },
+                    outputBytes = segments.sumOf { it?.size ?: 0L },
+                    encodedTimeMs = encodedMs.toLong()
+                )
+            }
+            val progress = snapshot.progress
+            job.updateProgress(progress)
+            job.updateStatistics(snapshot)
+            mainHandler.post {
+                if (!job.state.value.isFinished) {
+                    callback?.onConvertProgress(progress)
+                    callback?.onConvertStatistics(snapshot)
+                }
+            }
+        }
+        
+        /**
+         * 结束一次编码
+         * @param durationMs 本次编码的实际耗时（分段并行时为整体耗时，不是各段之和）
+         */
+        fun finishPass(durationMs: Long) {
+            encodeTimeMs += durationMs
+            segmentStatistics.forEach {
+                if (it != null) {
+                    encodedFrames += it.videoFrameNumber
+                    encodedMediaMs += it.time
+                }
+            }
+        }
+        
+        fun logThroughput() {
+            if (encodeTimeMs > 0) {
+                Log.d(TAG, "编码吞吐: 任务=${job.id}, 机型=${Build.MODEL}, 耗时=${encodeTimeMs}ms, " +
+                        "平均帧率=${"%.1f".format(averageFps)}fps, 平均速度=${"%.2f".format(averageSpeed)}x")
+            }
+        }
+    }
+    
+    /**
+     * 源视频信息（未知的字段为0）
+     * @param width 显示宽度（已按旋转信息校正）
+     * @param height 显示高度（已按旋转信息校正）
+     */
+    private data class SourceInfo(
+        val durationMs: Long,
+        val width: Int,
+        val height: Int
+    )
+    
+    /**
+     * 用ffprobe读取源视频的时长和显示尺寸
+     * 手机拍摄的竖屏视频通常带90/270度旋转信息，FFmpeg解码时会自动旋转，这里同步交换宽高
+     */
+    private fun probeSource(input: String): SourceInfo {
+        return try {
+            val info = FFprobeKit.getMediaInformation(input)?.mediaInformation ?: return SourceInfo(0, 0, 0)
+            val durationMs = info.duration?.toDoubleOrNull()?.let { (it * 1000).toLong() } ?: 0L
+            val videoStream = info.streams?.firstOrNull { it.type == "video" }
+            var width = videoStream?.width?.toInt() ?: 0
+            var height = videoStream?.height?.toInt() ?: 0
+            
+            val properties = videoStream?.allProperties
+            var rotation = properties?.optJSONObject("tags")?.optString("rotate")?.toIntOrNull() ?: 0
+            val sideDataList = properties?.optJSONArray("side_data_list")
+            if (sideDataList != null) {
+                for (i in 0 until sideDataList.length()) {
+                    val sideRotation = sideDataList.optJSONObject(i)?.optInt("rotation", 0) ?: 0
+                    if (sideRotation != 0) {
+                        rotation = sideRotation
+                    }
+                }
+            }
+            if (Math.abs(rotation) % 180 == 90) {
+                width = height.also { height = width }
+            }
+            Log.d(TAG, "源视频信息: 时长=${durationMs}ms, 尺寸=${width}x${height}, 旋转=$rotation")
+            SourceInfo(durationMs, width, height)
+        } catch (e: Exception) {
+            Log.w(TAG, "读取源视频信息失败: ${e.message}")
+            SourceInfo(0, 0, 0)
+        }
+    }
+    
+    /**
+     * 获取本次编码的输出时长（毫秒）
+     * 按裁剪时间段截取源视频时长；无法获取时返回0
+     * @param totalMs 源视频时长（毫秒），未知时为0
+     * @param maxDurationMs 命令本身限制的最大输出时长（毫秒），0表示不限制
+     */
+    private fun getEncodeWindowMs(
+        totalMs: Long,
+        startTime: Float = 0f,
+        duration: Float = 0f,
+        maxDurationMs: Long = 0L
+    ): Long {
+        val remainingMs = if (totalMs > 0) maxOf(0L, totalMs - (startTime * 1000).toLong()) else 0L
+        val limits = listOf(remainingMs, (duration * 1000).toLong(), maxDurationMs).filter { it > 0 }
+        return limits.minOrNull() ?: 0L
+    }
+    
+    /**
+     * 内部转换方法，支持重试机制
+     * 重试状态保存在局部变量中，每个任务独立
+     * @param previews 同一次解码中额外输出的预览MP4/GIF（只在第一次完整编码时输出）
+     */
+    private suspend fun convertToAVIInternal(
+        job: VideoConvertJob,
+        input: VideoInput,
+        params: VideoConvertParams,
+        reporter: ProgressReporter,
+        previews: VideoConvertOutputs? = null
+    ) {
+        val outputPath = job.outputPath
+        Log.d(TAG, "开始转换视频为AVI: $input -> $outputPath")
+        
+        // 从表盘信息获取视频尺寸（优先使用表盘信息，确保视频尺寸匹配设备屏幕）
+        val videoSize = getVideoSizeFromClockDialInfo()
+        
+        // 按设备能力选择编码配置（帧率上限、音频、色度格式、单帧预算）
+        val profile = resolveEncodeProfile()
+        val fps = resolveFps(params, profile)
+        val sizedParams = params.copy(targetWidth = videoSize.first, targetHeight = videoSize.second, fps = fps)
+        val bufferSizeLimit = profile.frameSizeBudget
+        
+        // 输入已满足设备要求（如之前由SDK生成的AVI）时直接使用，不重新编码；需要同时输出预览时仍要解码
+        val hasPreviews = previews != null && (previews.mp4Path != null || previews.gifPath != null)
+        if (!hasPreviews && tryPassThrough(job, input, sizedParams, profile)) {
+            return
+        }
+        
+        val source = probeSource(input.toFFmpegInput())
+        
+        // 圆屏设备四角不可见，编码前填充纯黑以减少每帧字节
+        val roundMask = isRoundScreen()
+        
+        // 相同内容和参数已转换过，直接复用缓存的AVI（需要同时输出预览时仍要解码，不读缓存）
+        val cacheKey = buildCacheKey(input, sizedParams, source, profile, roundMask)
+        val cachedFile = cacheKey?.takeIf { !hasPreviews }?.let { convertCache?.get(it) }
+        if (cachedFile != null) {
+            cachedFile.copyTo(File(outputPath), overwrite = true)
+            val bufferSize = getAviStreamBufferSize(outputPath)
+            Log.d(TAG, "命中转换缓存: ${cachedFile.name}, 缓冲区大小: $bufferSize bytes")
+            job.stats = VideoConvertStats(
+                outputPath = outputPath,
+                encodePasses = 0,
+                qualityProbed = false,
+                predictedQuality = 0,
+                finalQuality = 0,
+                bufferSize = bufferSize,
+                deviceModel = Build.MODEL ?: "",
+                cacheHit = true,
+                profileName = profile.name,
+                fps = fps
+            )
+            return
+        }
+        
+        val prediction = predictQuality(job, input, sizedParams, source, profile, roundMask)
+        val predictedQuality = prediction.quality
+        val windowMs = getEncodeWindowMs(source.durationMs, params.startTime, params.duration)
+        var currentQuality = predictedQuality
+        var retryCount = 0
+        var encodePasses = 0
+        var repairedFrames = 0
+        // 多路输出依赖同一次解码，不分段
+        val segmentCount = if (hasPreviews) 1 else getSegmentCount(windowMs, params)
+        if (segmentCount > 1) {
+            Log.d(TAG, "分段并行编码: $segmentCount 段, 编码时长: ${windowMs}ms")
+        }
+        
+        while (true) {
+            encodePasses++
+            if (retryCount > 0) {
+                Log.d(TAG, "重试转换，当前质量: $currentQuality, 重试次数: $retryCount/$MAX_RETRY_COUNT")
+            }
+            Log.d(TAG, "使用表盘信息尺寸进行转换: ${videoSize.first}x${videoSize.second}, 质量: $currentQuality")
+            
+            if (segmentCount > 1) {
+                encodeSegmented(
+                    job,
+                    input,
+                    sizedParams.copy(quality = currentQuality),
+                    source,
+                    profile,
+                    roundMask,
+                    windowMs,
+                    segmentCount,
+                    reporter
+                )
+            } else {
+                // 构建FFmpeg命令（使用当前质量值，可能是重试后的值）；第一次编码时同时输出预览
+                val passPreviews = previews?.takeIf { hasPreviews && encodePasses == 1 }
+                val command = if (passPreviews != null) {
+                    buildMultiOutputCommand(
+                        input.toFFmpegInput(),
+                        outputPath,
+                        passPreviews,
+                        sizedParams.copy(quality = currentQuality),
+                        source,
+                        profile,
+                        roundMask
+                    )
+                } else {
+                    buildFFmpegCommand(
+                        input.toFFmpegInput(),
+                        outputPath,
+                        sizedParams.copy(quality = currentQuality),
+                        source,
+                        profile,
+                        roundMask
+                    )
+                }
+                Log.d(TAG, "FFmpeg命令: $command")
+                
+                reporter.startPass(windowMs)
+                val session = executeSession(command, job, reporter)
+                if (!ReturnCode.isSuccess(session.returnCode)) {
+                    val output = session.output
+                    Log.e(TAG, "视频转换失败: $output")
+                    throw ConvertException("转换失败: $output")
+                }
+                passPreviews?.let { checkPreviewOutputs(it) }
+            }
+            
+            val outputFile = File(outputPath)
+            if (!outputFile.exists() || outputFile.length() == 0L) {
+                Log.e(TAG, "转换后的文件不存在或为空")
+                throw ConvertException("转换后的文件不存在或为空")
+            }
+            Log.d(TAG, "视频转换成功: $outputPath, 大小: ${outputFile.length()} bytes")
+            
+            // 检查AVI文件的缓冲区大小
+            var bufferSize = getAviStreamBufferSize(outputPath)
+            Log.d(TAG, "检测到的dwSuggestedBufferSize: $bufferSize bytes (限制: $bufferSizeLimit bytes = ${bufferSizeLimit / 1024}KB)")
+            
+            if (bufferSize >= bufferSizeLimit) {
+                // 只有少量帧超限时，只重新压缩这些帧，不重新编码整段视频
+                val repaired = repairOversizeFrames(outputPath, bufferSizeLimit)
+                if (repaired > 0) {
+                    repairedFrames += repaired
+                    bufferSize = getAviStreamBufferSize(outputPath)
+                    Log.d(TAG, "已修复 $repaired 个超限帧，修复后缓冲区大小: $bufferSize bytes")
+                }
+            }
+            
+            if (bufferSize > 0 && bufferSize >= bufferSizeLimit) {
+                // 缓冲区大小超过限制，需要降低质量重试
+                if (retryCount < MAX_RETRY_COUNT && currentQuality < MAX_QUALITY) {
+                    retryCount++
+                    
+                    // 每次重试增加质量值（降低质量），逐步增加增量
+                    val qualityIncrement = minOf(5 + (retryCount - 1) * 2, MAX_QUALITY - currentQuality)
+                    currentQuality = minOf(MAX_QUALITY, currentQuality + qualityIncrement)
+                    
+                    Log.w(TAG, "缓冲区大小超过${bufferSizeLimit / 1024}KB (${bufferSize / 1024}KB)，降低质量重试。当前质量: $currentQuality, 重试次数: $retryCount/$MAX_RETRY_COUNT")
+                    
+                    // 删除当前文件，重新转换
+                    if (outputFile.delete()) {
+                        Log.d(TAG, "已删除文件，准备重新转换")
+                    }
+                    continue
+                }
+                
+                // 达到最大重试次数或质量上限，提示失败
+                Log.e(TAG, "达到最大重试次数($MAX_RETRY_COUNT)或质量上限($MAX_QUALITY)，缓冲区大小仍超过${bufferSizeLimit / 1024}KB (${bufferSize / 1024}KB)")
+                throw ConvertException("视频文件缓冲区过大 (${bufferSize / 1024}KB)，已达到最大重试次数")
+            }
+            
+            // 缓冲区大小符合要求，转换成功
+            Log.d(TAG, "转换完成，完整编码次数: $encodePasses, 预测质量: $predictedQuality, 最终质量: $currentQuality")
+            if (cacheKey != null) {
+                saveToCache(cacheKey, outputFile)
+            }
+            val maskBytesSaved = estimateMaskBytesSaved(outputPath, prediction.maskSavingRatio)
+            if (roundMask) {
+                Log.d(TAG, "圆屏遮罩估算节省: $maskBytesSaved bytes (采样节省比例: ${"%.1f".format(prediction.maskSavingRatio * 100)}%)")
+            }
+            job.stats = VideoConvertStats(
+                outputPath = outputPath,
+                encodePasses = encodePasses,
+                qualityProbed = prediction.probed,
+                predictedQuality = predictedQuality,
+                finalQuality = currentQuality,
+                bufferSize = bufferSize,
+                repairedFrames = repairedFrames,
+                encodeTimeMs = reporter.encodeTimeMs,
+                averageFps = reporter.averageFps,
+                averageSpeed = reporter.averageSpeed,
+                deviceModel = Build.MODEL ?: "",
+                profileName = profile.name,
+                fps = fps,
+                maskBytesSaved = maskBytesSaved,
+                encodeSegments = segmentCount
+            )
+            return
+        }
+    }
+    
+    /**
+     * 只输出预览MP4/GIF（不输出AVI）
+     * 画面与设备AVI一致（表盘尺寸、帧率、圆屏遮罩），源视频只解码一次
+     */
+    private suspend fun convertPreviewsInternal(
+        job: VideoConvertJob,
+        input: VideoInput,
+        params: VideoConvertParams,
+        outputs: VideoConvertOutputs,
+        reporter: ProgressReporter
+    ) {
+        val videoSize = getVideoSizeFromClockDialInfo()
+        val profile = resolveEncodeProfile()
+        val fps = resolveFps(params, profile)
+        val sizedParams = params.copy(targetWidth = videoSize.first, targetHeight = videoSize.second, fps = fps)
+        val source = probeSource(input.toFFmpegInput())
+        
+        val command = buildMultiOutputCommand(input.toFFmpegInput(), null, outputs, sizedParams, source, profile, isRoundScreen())
+        Log.d(TAG, "预览输出命令: $command")
+        reporter.startPass(getEncodeWindowMs(source.durationMs, params.startTime, params.duration))
+        val session = executeSession(command, job, reporter)
+        if (!ReturnCode.isSuccess(session.returnCode)) {
+            Log.e(TAG, "预览输出失败: ${session.output}")
+            throw ConvertException("转换失败: ${session.output}")
+        }
+        checkPreviewOutputs(outputs)
+        Log.d(TAG, "预览输出完成: MP4=${outputs.mp4Path}, GIF=${outputs.gifPath}")
+    }
+    
+    /**
+     * 检查预览输出文件是否已生成
+     */
+    private fun checkPreviewOutputs(outputs: VideoConvertOutputs) {
+        listOfNotNull(outputs.mp4Path, outputs.gifPath).forEach {
+            val file = File(it)
+            if (!file.exists() || file.length() == 0L) {
+                throw ConvertException("预览文件不存在或为空: $it")
+            }
+        }
+    }
+    
+    /**
+     * 设备兼容性检查
+     * 不裁剪画面、不截取时间段，且输入已是满足设备要求的AVI（MJPEG、表盘尺寸、帧率不超过实际编码帧率、
+     * 音频格式与编码配置一致、每个数据块都小于单帧预算）时，直接复制到输出文件；
+     * 只有头信息中的dwSuggestedBufferSize超限时修正头信息，不重新编码
+     * @param params 转换参数（已确定表盘尺寸和实际编码帧率）
+     * @return 已直接使用输入时返回true
+     */
+    private fun tryPassThrough(
+        job: VideoConvertJob,
+        input: VideoInput,
+        params: VideoConvertParams,
+        profile: VideoEncodeProfile
+    ): Boolean {
+        if (params.cropRegion != null || params.startTime > 0) {
+            return false
+        }
+        val aviFile = try {
+            input.parseAvi()
+        } catch (e: IOException) {
+            // 不是AVI文件，正常转码
+            return false
+        }
+        val requirements = AviComplianceProbe.Requirements(
+            width = params.targetWidth,
+            height = params.targetHeight,
+            maxFps = params.fps,
+            frameSizeLimit = profile.frameSizeBudget,
+            audioEnabled = profile.audioEnabled,
+            audioSampleRate = profile.audioSampleRate,
+            audioChannels = profile.audioChannels
+        )
+        val result = AviComplianceProbe.check(aviFile, requirements)
+        if (!result.compliant) {
+            Log.d(TAG, "输入AVI不满足设备要求，需要重新编码: ${result.reasons.joinToString("; ")}")
+            return false
+        }
+        if (params.duration > 0 && params.duration * 1000 < result.durationMs) {
+            Log.d(TAG, "输入AVI满足设备要求，但需要截取时间段，重新编码")
+            return false
+        }
+        
+        val outputFile = File(job.outputPath)
+        input.copyTo(outputFile)
+        if (result.needsHeaderPatch) {
+            AviComplianceProbe.patchSuggestedBufferSize(outputFile, aviFile)
+        }
+        val bufferSize = getAviStreamBufferSize(job.outputPath)
+        val inputFps = aviFile.videoStream?.header?.let { if (it.scale > 0) (it.rate.toDouble() / it.scale).roundToInt() else 0 } ?: 0
+        Log.d(TAG, "输入AVI已满足设备要求，直接使用: $input, 修正头信息: ${result.needsHeaderPatch}, 缓冲区大小: $bufferSize bytes")
+        job.stats = VideoConvertStats(
+            outputPath = job.outputPath,
+            encodePasses = 0,
+            qualityProbed = false,
+            predictedQuality = 0,
+            finalQuality = 0,
+            bufferSize = bufferSize,
+            deviceModel = Build.MODEL ?: "",
+            profileName = profile.name,
+            fps = inputFps,
+            passThrough = true,
+            headerPatched = result.needsHeaderPatch
+        )
+        return true
+    }
+    
+    /**
+     * 计算分段并行编码的段数
+     * 每段不短于SEGMENT_MIN_DURATION_MS；同时运行的转换任务越多，每个任务分到的段数越少
+     * @return 段数，为1时不分段
+     */
+    private fun getSegmentCount(windowMs: Long, params: VideoConvertParams): Int {
+        if (!params.segmentedEncoding || windowMs <= 0) {
+            return 1
+        }
+        val runningJobs = jobRegistry.values.count { it.state.value == VideoConvertJob.State.RUNNING }
+        val maxSegments = maxOf(1, SEGMENT_MAX_COUNT / maxOf(1, runningJobs))
+        return (windowMs / SEGMENT_MIN_DURATION_MS).toInt().coerceIn(1, maxSegments)
+    }
+    
+    /**
+     * 分段并行编码
+     * 按整秒边界把编码时间窗口切成多段（整秒一定是帧间隔的整数倍，拼接后帧时间连续），
+     * 各段同时编码为独立的AVI，再用concat分离器流复制拼接到输出文件；
+     * 拼接时由FFmpeg的AVI封装器重新生成idx1和头信息（帧数、dwSuggestedBufferSize），
+     * 拼接后按各段帧数之和校验索引
+     */
+    private suspend fun encodeSegmented(
+        job: VideoConvertJob,
+        input: VideoInput,
+        params: VideoConvertParams,
+        source: SourceInfo,
+        profile: VideoEncodeProfile,
+        roundMask: Boolean,
+        windowMs: Long,
+        segmentCount: Int,
+        reporter: ProgressReporter
+    ) {
+        val segmentDir = File(context.cacheDir, "segments_${job.id}")
+        try {
+            segmentDir.mkdirs()
+            val segmentMs = ceil(windowMs / 1000.0 / segmentCount).toLong() * 1000
+            val ranges = (0 until segmentCount).map { it * segmentMs }.filter { it < windowMs }
+            val commands = ranges.mapIndexed { index, startMs ->
+                val isLast = index == ranges.size - 1
+                val segmentParams = params.copy(
+                    startTime = params.startTime + startMs / 1000f,
+                    // 最后一段未指定时长时编码到结尾，避免时长估算误差丢掉末尾的帧
+                    duration = if (isLast && params.duration <= 0f) 0f else minOf(segmentMs, windowMs - startMs) / 1000f
+                )
+                val segmentFile = File(segmentDir, "segment_$index.avi")
+                Pair(segmentFile, buildFFmpegCommand(input.toFFmpegInput(), segmentFile.absolutePath, segmentParams, source, profile, roundMask))
+            }
+            
+            reporter.startPass(windowMs, commands.size)
+            val encodeStart = SystemClock.elapsedRealtime()
+            val segmentFiles = coroutineScope {
+                commands.mapIndexed { index, (segmentFile, command) ->
+                    async {
+                        Log.d(TAG, "分段编码命令[$index]: $command")
+                        val session = executeSession(command, job) { reporter.onStatistics(it, index) }
+                        if (!ReturnCode.isSuccess(session.returnCode)) {
+                            Log.e(TAG, "分段${index}转换失败: ${session.output}")
+                            throw ConvertException("分段转换失败: ${session.output}")
+                        }
+                        segmentFile
+                    }
+                }.awaitAll()
+            }
+            reporter.finishPass(SystemClock.elapsedRealtime() - encodeStart)
+            
+            val expectedFrames = segmentFiles.sumOf { AviParser.parse(it).videoStream?.chunkCount ?: 0 }
+            val listFile = File(segmentDir, "segments.txt")
+            listFile.writeText(segmentFiles.joinToString("\n") { "file '${it.absolutePath}'" })
+            val concatCommand = "-y -f concat -safe 0 -i \"${listFile.absolutePath}\" -c copy -vtag mjpg" +
+                    " -packetsize ${profile.packetSize} -f avi \"${job.outputPath}\""
+            Log.d(TAG, "分段拼接命令: $concatCommand")
+            val session = executeSession(concatCommand, job)
+            if (!ReturnCode.isSuccess(session.returnCode)) {
+                Log.e(TAG, "分段拼接失败: ${session.output}")
+                throw ConvertException("分段拼接失败: ${session.output}")
+            }
+            
+            val merged = AviParser.parse(File(job.outputPath))
+            val mergedFrames = merged.videoStream?.chunkCount ?: 0
+            if (merged.index == null || mergedFrames != expectedFrames) {
+                throw ConvertException("分段拼接结果异常: 帧数 $mergedFrames/$expectedFrames")
+            }
+            Log.d(TAG, "分段拼接完成: ${segmentFiles.size} 段, $mergedFrames 帧, 耗时: ${SystemClock.elapsedRealtime() - encodeStart}ms")
+        } finally {
+            segmentDir.deleteRecursively()
+        }
+    }
+    
+    /**
+     * 估算圆屏遮罩节省的字节数
+     * 遮罩后视频帧总字节为V、采样节省比例为r时，未遮罩约为V/(1-r)，节省 V·r/(1-r)
+     */
+    private fun estimateMaskBytesSaved(aviPath: String, savingRatio: Double): Long {
+        if (savingRatio <= 0 || savingRatio >= 1) {
+            return 0
+        }
+        return try {
+            val videoBytes = AviParser.parse(File(aviPath)).videoStream?.chunkSizes?.sumOf { it.toLong() } ?: 0L
+            (videoBytes * savingRatio / (1 - savingRatio)).toLong()
+        } catch (e: Exception) {
+            Log.w(TAG, "估算遮罩节省字节失败: ${e.message}")
+            0
+        }
+    }
+    
+    /**
+     * 计算转换结果缓存的key
+     * 输入内容哈希 + 转换参数 + 表盘尺寸和屏幕类型 + 用占位路径生成的实际编码命令（包含滤镜和编码器配置）
+     * @return 缓存key，缓存未启用或无法读取输入文件时返回null
+     */
+    private fun buildCacheKey(
+        input: VideoInput,
+        sizedParams: VideoConvertParams,
+        source: SourceInfo,
+        profile: VideoEncodeProfile,
+        roundMask: Boolean
+    ): String? {
+        if (convertCache == null) {
+            return null
+        }
+        return try {
+            val contentHash = contentHashMemo.getOrPut(input.identity()) {
+                input.openStream().use { DiskLruFileCache.hashStream(it) }
+            }
+            val screenType = clockDialInfoService?.getCurrentClockDialInfo()?.screenType ?: 0
+            DiskLruFileCache.hashKey(
+                CACHE_KEY_VERSION,
+                contentHash,
+                sizedParams.toString(),
+                "${sizedParams.targetWidth}x${sizedParams.targetHeight}",
+                "screenType=$screenType",
+                profile.toString(),
+                buildFFmpegCommand("input", "output", sizedParams, source, profile, roundMask)
+            ) + ".avi"
+        } catch (e: Exception) {
+            Log.w(TAG, "计算转换缓存key失败，跳过缓存: ${e.message}")
+            null
+        }
+    }
+    
+    /**
+     * 将转换结果写入缓存（先写临时文件再rename，失败不影响本次转换结果）
+     */
+    private fun saveToCache(cacheKey: String, outputFile: File) {
+        try {
+            convertCache?.put(cacheKey, outputFile)
+            Log.d(TAG, "转换结果已缓存: $cacheKey, 缓存总大小: ${convertCache?.size()} bytes")
+        } catch (e: Exception) {
+            Log.w(TAG, "写入转换缓存失败: ${e.message}")
+        }
+    }
+    
+    /**
+     * 清空转换结果缓存
+     */
+    fun clearCache() {
+        convertCache?.clear()
+        contentHashMemo.clear()
+        Log.d(TAG, "转换结果缓存已清空")
+    }
+    
+    /**
+     * 采样预测质量值
+     * 只解码裁剪时间段内的关键帧，用几个候选质量值各编码少量JPEG帧，
+     * 按 ln(帧大小) = a + b·ln(q) 拟合曲线，选出最大帧不超过缓冲区限制的最高画质
+     * 采样失败时回退到初始质量值，由完整编码后的重试机制兜底
+     * 启用圆屏遮罩时额外以初始质量编码一路未遮罩的采样帧，用于统计遮罩节省的字节比例
+     */
+    private suspend fun predictQuality(
+        job: VideoConvertJob,
+        input: VideoInput,
+        params: VideoConvertParams,
+        source: SourceInfo,
+        profile: VideoEncodeProfile,
+        roundMask: Boolean
+    ): QualityPrediction {
+        val baseQuality = params.quality.takeIf { it > 0 } ?: 10
+        val candidates = QUALITY_PROBE_STEPS.map { minOf(MAX_QUALITY, baseQuality + it) }.distinct()
+        if (candidates.size < 2) {
+            return QualityPrediction(baseQuality, false)
+        }
+        
+        var predicted = baseQuality
+        var probed = false
+        var maskSavingRatio = 0.0
+        val probeDir = File(context.cacheDir, "quality_probe_${System.nanoTime()}")
+        try {
+            probeDir.mkdirs()
+            val command = buildQualityProbeCommand(
+                input.toFFmpegInput(),
+                probeDir,
+                params,
+                candidates,
+                source,
+                profile,
+                roundMask
+            )
+            Log.d(TAG, "质量采样命令: $command")
+            
+            val session = executeSession(command, job)
+            if (ReturnCode.isSuccess(session.returnCode)) {
+                // 每个候选质量取采样帧中的最大帧，dwSuggestedBufferSize由最大帧决定
+                val samples = candidates.mapNotNull { quality ->
+                    val maxFrameBytes = probeDir.listFiles()
+                        ?.filter { it.name.startsWith("q${quality}_") }
+                        ?.maxOfOrNull { it.length() } ?: 0L
+                    if (maxFrameBytes > 0) Pair(quality, maxFrameBytes) else null
+                }
+                Log.d(TAG, "质量采样结果: ${samples.joinToString { "q${it.first}=${it.second}B" }}")
+                if (samples.isNotEmpty()) {
+                    predicted = MjpegQualityFit.fit(
+                        samples, baseQuality, profile.frameSizeBudget * QUALITY_PROBE_SAFETY, MAX_QUALITY
+                    )
+                    probed = true
+                }
+                
+                if (roundMask) {
+                    val files = probeDir.listFiles() ?: emptyArray()
+                    val maskedBytes = files.filter { it.name.startsWith("q${candidates[0]}_") }.sumOf { it.length() }
+                    val unmaskedBytes = files.filter { it.name.startsWith("u_") }.sumOf { it.length() }
+                    if (maskedBytes > 0 && unmaskedBytes > maskedBytes) {
+                        maskSavingRatio = 1.0 - maskedBytes.toDouble() / unmaskedBytes
+                    }
+                }
+            } else {
+                Log.w(TAG, "质量采样失败，使用初始质量: ${session.output}")
+            }
+        } catch (e: CancellationException) {
+            throw e
+        } catch (e: Exception) {
+            Log.w(TAG, "质量采样异常，使用初始质量: ${e.message}")
+        } finally {
+            probeDir.deleteRecursively()
+        }
+        Log.d(TAG, "预测质量值: $predicted (初始: $baseQuality)")
+        return QualityPrediction(predicted, probed, maskSavingRatio)
+    }
+    
+    /**
+     * 构建质量采样命令
+     * 只解码关键帧（-skip_frame nokey），经split分成多路，每路用一个候选质量值编码为JPEG
+     */
+    private fun buildQualityProbeCommand(
+        inputPath: String,
+        probeDir: File,
+        params: VideoConvertParams,
+        candidates: List<Int>,
+        source: SourceInfo,
+        profile: VideoEncodeProfile,
+        roundMask: Boolean
+    ): String {
+        val commandBuilder = StringBuilder()
+        commandBuilder.append("-y")
+        
+        if (params.startTime > 0) {
+            commandBuilder.append(" -ss ").append(params.startTime)
+        }
+        if (params.duration > 0) {
+            commandBuilder.append(" -t ").append(params.duration)
+        }
+        commandBuilder.append(" -skip_frame nokey")
+        commandBuilder.append(" -i \"").append(inputPath).append("\"")
+        
+        // 采样时不加fps滤镜，避免关键帧被复制填充
+        val videoFilter = buildVideoFilter(params, source, includeFps = false)
+        val labels = candidates.indices.joinToString("") { "[p$it]" }
+        commandBuilder.append(" -filter_complex \"")
+        if (roundMask) {
+            // 缩放后的画面分成两路：一路加遮罩后按候选质量编码，一路不加遮罩用于对比节省的字节
+            commandBuilder.append("[0:v]").append(videoFilter.ifEmpty { "null" }).append(",split=2[masked][unmasked];")
+            commandBuilder.append(VideoFilterPlanner.roundMask(params.targetWidth, params.targetHeight)).append("[mask];")
+            commandBuilder.append("[masked][mask]overlay=0:0,")
+        } else {
+            commandBuilder.append("[0:v]")
+            if (videoFilter.isNotEmpty()) {
+                commandBuilder.append(videoFilter).append(",")
+            }
+        }
+        commandBuilder.append("split=").append(candidates.size).append(labels).append("\"")
+        
+        candidates.forEachIndexed { index, quality ->
+            commandBuilder.append(" -map \"[p").append(index).append("]\"")
+            commandBuilder.append(" -frames:v ").append(QUALITY_PROBE_FRAMES)
+            commandBuilder.append(" -vsync vfr")
+            appendMjpegEncoderOptions(commandBuilder, quality, profile)
+            commandBuilder.append(" -f image2")
+            commandBuilder.append(" \"").append(File(probeDir, "q${quality}_%03d.jpg").absolutePath).append("\"")
+        }
+        
+        if (roundMask) {
+            commandBuilder.append(" -map \"[unmasked]\"")
+            commandBuilder.append(" -frames:v ").append(QUALITY_PROBE_FRAMES)
+            commandBuilder.append(" -vsync vfr")
+            appendMjpegEncoderOptions(commandBuilder, candidates[0], profile)
+            commandBuilder.append(" -f image2")
+            commandBuilder.append(" \"").append(File(probeDir, "u_%03d.jpg").absolutePath).append("\"")
+        }
+        
+        return commandBuilder.toString()
+    }
+    
+    /**
+     * 帧级修复：只重新压缩超过缓冲区限制的MJPEG帧，并修正AVI索引和头信息
+     * @return 修复的帧数，无需修复或无法修复时返回0
+     */
+    private fun repairOversizeFrames(aviPath: String, bufferSizeLimit: Int): Int {
+        return try {
+            val file = File(aviPath)
+            val totalFrames = AviParser.parse(file).videoStream?.chunkCount ?: 0
+            val maxRepairFrames = maxOf(1, (totalFrames * FRAME_REPAIR_MAX_RATIO).toInt())
+            val result = AviFrameRepair.repair(file, bufferSizeLimit, maxRepairFrames) { frame, maxSize ->
+                recompressJpegFrame(frame, maxSize)
+            }
+            if (result == null) {
+                Log.w(TAG, "超限帧过多或无法修复，改为降低质量重新编码")
+                0
+            } else {
+                result.repairedFrames
+            }
+        } catch (e: Exception) {
+            Log.e(TAG, "帧级修复失败: ${e.message}", e)
+            0
+        }
+    }
+    
+    /**
+     * 以逐步降低的JPEG质量重新压缩一帧，直到不超过maxSize
+     * @return 压缩后的JPEG数据，达到最低质量仍超限时返回null
+     */
+    private fun recompressJpegFrame(frame: ByteArray, maxSize: Int): ByteArray? {
+        val bitmap = BitmapFactory.decodeByteArray(frame, 0, frame.size) ?: return null
+        try {
+            val outputStream = ByteArrayOutputStream(maxSize)
+            var quality = FRAME_REPAIR_START_QUALITY
+            while (quality >= FRAME_REPAIR_MIN_QUALITY) {
+                outputStream.reset()
+                bitmap.compress(Bitmap.CompressFormat.JPEG, quality, outputStream)
+                if (outputStream.size() <= maxSize) {
+                    Log.d(TAG, "帧重新压缩: ${frame.size} -> ${outputStream.size()} bytes, JPEG质量: $quality")
+                    return outputStream.toByteArray()
+                }
+                quality -= FRAME_REPAIR_QUALITY_STEP
+            }
+            return null
+        } finally {
+            bitmap.recycle()
+        }
+    }
     
     /**
-     * 设置转换回调
+     * 将AVI转换为MP4预览
+     * 播放器支持MJPEG时只做封装转换：MJPEG视频和PCM音频原样复制到MOV封装，
+     * 不解码也不编码，耗时与复制文件相当；否则回退为低分辨率的ultrafast H.264转码
+     *
+     * 注意：封装转换时写入mp4Path（以及onConvertSuccess回调）的文件内容是QuickTime MOV（video/quicktime），
+     * 扩展名仍是调用方传入的；按扩展名或MIME类型判断格式、或只支持MP4的播放器，应使用Mp4PreviewMode.TRANSCODE
+     * @param mp4Path 输出路径（封装转换时内容为MOV，见上）
+     * @param mode 生成方式（默认按本机是否有MJPEG解码器自动选择）
+     * @param callback 该任务的回调（默认使用setConvertCallback设置的回调）
+     * @return 转换任务句柄
      */
-    fun setConvertCallback(callback: VideoConvertCallback?) {
-        this.convertCallback = callback
+    fun convertAVIToMP4(
+        aviPath: String,
+        mp4Path: String,
+        callback: VideoConvertCallback? = convertCallback,
+        mode: Mp4PreviewMode = Mp4PreviewMode.AUTO
+    ): VideoConvertJob {
+        return launchJob(aviPath, mp4Path, callback) { _, reporter ->
+            Log.d(TAG, "开始将AVI转换为MP4: $aviPath -> $mp4Path")
+            val windowMs = getEncodeWindowMs(probeSource(aviPath).durationMs)
+            val remux = when (mode) {
+                Mp4PreviewMode.AUTO -> mjpegDecoderAvailable
+                Mp4PreviewMode.REMUX -> true
+                Mp4PreviewMode.TRANSCODE -> false
+            }
+            if (remux) {
+                val command = "-y -i \"$aviPath\" -map 0 -c copy -f mov \"$mp4Path\""
+                reporter.startPass(windowMs)
+                try {
+                    executeToFile(command, mp4Path, "AVI封装为MP4", reporter)
+                    return@launchJob
+                } catch (e: ConvertException) {
+                    Log.w(TAG, "直接封装失败，改为快速转码: ${e.message}")
+                }
+            }
+            val command = "-y -i \"$aviPath\" -vf \"scale='min($MP4_FAST_PREVIEW_MAX_WIDTH,iw)':-2\"" +
+                    " $MP4_FAST_PREVIEW_OPTIONS $MP4_PREVIEW_AUDIO_OPTIONS -f mp4 \"$mp4Path\""
+            reporter.startPass(windowMs)
+            executeToFile(command, mp4Path, "AVI转MP4", reporter)
+        }
     }
     
     /**
-     * 将视频转换为AVI格式
-     * 支持自动质量重试机制：如果转换后的AVI文件缓冲区大小超过20KB，会自动降低质量重试
+     * 将AVI转换为GIF
+     * @param callback 该任务的回调（默认使用setConvertCallback设置的回调）
+     * @return 转换任务句柄
+     */
+    fun convertAVIToGIF(
+        aviPath: String,
+        gifPath: String,
+        callback: VideoConvertCallback? = convertCallback
+    ): VideoConvertJob {
+        return launchJob(aviPath, gifPath, callback) { _, reporter ->
+            Log.d(TAG, "开始将AVI转换为GIF: $aviPath -> $gifPath")
+            // 生成GIF（前3秒，fps=2，缩放为200宽度）
+            val command = "-y -i \"$aviPath\" -t $GIF_PREVIEW_DURATION" +
+                    " -vf \"fps=$GIF_PREVIEW_FPS,scale=$GIF_PREVIEW_WIDTH:-1\" -loop 0 \"$gifPath\""
+            reporter.startPass(getEncodeWindowMs(probeSource(aviPath).durationMs, maxDurationMs = GIF_PREVIEW_DURATION * 1000L))
+            executeToFile(command, gifPath, "AVI转GIF", reporter)
+        }
+    }
+    
+    /**
+     * 提取时间轴缩略图
+     * 整段视频只解码一次：fps滤镜按等间隔选出count帧，裁剪缩放后由同一个FFmpeg会话全部输出，
+     * 每张缩略图写完后立即回调，不必等整条时间轴提取完
      * @param inputPath 输入视频路径
-     * @param outputPath 输出AVI文件路径
-     * @param params 转换参数
+     * @param outputDir 缩略图输出目录（文件名为thumb_000.jpg、thumb_001.jpg……）
+     * @param count 缩略图数量（均匀分布在整段视频上）
+     * @param width 缩略图宽度
+     * @param height 缩略图高度
+     * @param callback 缩略图回调
+     * @param keyframesOnly 是否只解码关键帧（更快，但每张取最近的关键帧，适合长视频的粗略预览）
+     * @return 提取任务句柄，可随时取消
      */
-    fun convertToAVI(
+    fun extractThumbnails(
         inputPath: String,
-        outputPath: String,
-        params: VideoConvertParams
-    ) {
-        convertToAVIInternal(inputPath, outputPath, params)
+        outputDir: String,
+        count: Int,
+        width: Int,
+        height: Int,
+        callback: VideoThumbnailCallback,
+        keyframesOnly: Boolean = false
+    ): VideoConvertJob {
+        return launchThumbnailJob(VideoInput(inputPath, null), outputDir, count, width, height, callback, keyframesOnly)
     }
     
     /**
-     * 内部转换方法，支持重试机制
+     * 提取content:// Uri指向视频的时间轴缩略图（通过SAF读取，无需复制）
+     * @see extractThumbnails
      */
-    private fun convertToAVIInternal(
-        inputPath: String,
-        outputPath: String,
-        params: VideoConvertParams,
-        isRetry: Boolean = false
-    ) {
-        try {
-            // 获取或创建重试状态
-            val retryState = retryStateMap.getOrPut(outputPath) { RetryState() }
+    fun extractThumbnails(
+        inputUri: Uri,
+        outputDir: String,
+        count: Int,
+        width: Int,
+        height: Int,
+        callback: VideoThumbnailCallback,
+        keyframesOnly: Boolean = false
+    ): VideoConvertJob {
+        return launchThumbnailJob(VideoInput(null, inputUri), outputDir, count, width, height, callback, keyframesOnly)
+    }
+    
+    /**
+     * 以转换任务的形式执行缩略图提取（共用排队、取消和会话管理）
+     */
+    private fun launchThumbnailJob(
+        input: VideoInput,
+        outputDir: String,
+        count: Int,
+        width: Int,
+        height: Int,
+        callback: VideoThumbnailCallback,
+        keyframesOnly: Boolean
+    ): VideoConvertJob {
+        // 只在主线程读写
+        val thumbnails = mutableListOf<VideoThumbnail>()
+        val jobCallback = object : VideoConvertCallback {
+            override fun onConvertStart() {}
             
-            // 如果是重试，重置重试状态
-            if (!isRetry) {
-                retryState.retryCount = 0
-                retryState.currentQuality = params.quality.takeIf { it > 0 } ?: 10
-            }
+            override fun onConvertProgress(progress: Int) {}
             
-            Log.d(TAG, "开始转换视频为AVI: $inputPath -> $outputPath")
-            if (isRetry) {
-                Log.d(TAG, "重试转换，当前质量: ${retryState.currentQuality}, 重试次数: ${retryState.retryCount}/$MAX_RETRY_COUNT")
+            override fun onConvertSuccess(outputPath: String) {
+                callback.onThumbnailsComplete(thumbnails.toList())
             }
             
-            // 从表盘信息获取视频尺寸（优先使用表盘信息，确保视频尺寸匹配设备屏幕）
-            val videoSize = getVideoSizeFromClockDialInfo()
-            val updatedParams = params.copy(
-                targetWidth = videoSize.first,
-                targetHeight = videoSize.second,
-                quality = retryState.currentQuality  // 使用当前质量值（可能是重试后的值）
-            )
-            Log.d(TAG, "使用表盘信息尺寸进行转换: ${videoSize.first}x${videoSize.second}, 质量: ${retryState.currentQuality}")
-            
-            convertCallback?.onConvertStart()
-            
-            // 构建FFmpeg命令（使用更新后的参数）
-            val command = buildFFmpegCommand(inputPath, outputPath, updatedParams)
-            Log.d(TAG, "FFmpeg命令: $command")
+            override fun onConvertFailed(error: String) {
+                callback.onThumbnailsFailed(error)
+            }
             
-            // 执行转换
-            FFmpegKit.executeAsync(command) { session ->
-                val returnCode = session.returnCode
-                if (ReturnCode.isSuccess(returnCode)) {
-                    val outputFile = File(outputPath)
-                    if (outputFile.exists() && outputFile.length() > 0) {
-                        Log.d(TAG, "视频转换成功: $outputPath, 大小: ${outputFile.length()} bytes")
-                        
-                        // 检查AVI文件的缓冲区大小
-                        val bufferSize = getAviStreamBufferSize(outputPath)
-                        Log.d(TAG, "检测到的dwSuggestedBufferSize: $bufferSize bytes (限制: ${BUFFER_SIZE_LIMIT} bytes = ${BUFFER_SIZE_LIMIT / 1024}KB)")
-                        
-                        if (bufferSize > 0 && bufferSize >= BUFFER_SIZE_LIMIT) {
-                            // 缓冲区大小超过限制，需要降低质量重试
-                            if (retryState.retryCount < MAX_RETRY_COUNT && retryState.currentQuality < MAX_QUALITY) {
-                                // 可以继续重试：降低质量（增加q:v值）
-                                retryState.retryCount++
-                                
-                                // 每次重试增加质量值（降低质量），逐步增加增量
-                                val qualityIncrement = minOf(
-                                    5 + (retryState.retryCount - 1) * 2,
-                                    MAX_QUALITY - retryState.currentQuality
-                                )
-                                retryState.currentQuality = minOf(MAX_QUALITY, retryState.currentQuality + qualityIncrement)
-                                
-                                Log.w(TAG, "缓冲区大小超过${BUFFER_SIZE_LIMIT / 1024}KB (${bufferSize / 1024}KB)，降低质量重试。当前质量: ${retryState.currentQuality}, 重试次数: ${retryState.retryCount}/$MAX_RETRY_COUNT")
-                                
-                                // 删除当前文件，重新转换
-                                if (outputFile.delete()) {
-                                    Log.d(TAG, "已删除文件，准备重新转换")
-                                }
-                                
-                                // 重新执行转换
-                                convertToAVIInternal(inputPath, outputPath, params, isRetry = true)
-                                return@executeAsync
-                            } else {
-                                // 达到最大重试次数或质量上限，提示失败
-                                Log.e(TAG, "达到最大重试次数($MAX_RETRY_COUNT)或质量上限($MAX_QUALITY)，缓冲区大小仍超过${BUFFER_SIZE_LIMIT / 1024}KB (${bufferSize / 1024}KB)")
-                                retryStateMap.remove(outputPath)  // 清理重试状态
-                                convertCallback?.onConvertFailed("视频文件缓冲区过大 (${bufferSize / 1024}KB)，已达到最大重试次数")
-                                return@executeAsync
-                            }
-                        }
-                        
-                        // 缓冲区大小符合要求，转换成功
-                        retryStateMap.remove(outputPath)  // 清理重试状态
-                        convertCallback?.onConvertSuccess(outputPath)
-                    } else {
-                        Log.e(TAG, "转换后的文件不存在或为空")
-                        retryStateMap.remove(outputPath)  // 清理重试状态
-                        convertCallback?.onConvertFailed("转换后的文件不存在或为空")
+            override fun onConvertCancelled() {
+                callback.onThumbnailsCancelled()
+            }
+        }
+        return launchJob(input.toString(), outputDir, jobCallback) { job, reporter ->
+            extractThumbnailsInternal(job, input, count, width, height, keyframesOnly, reporter) { thumbnail ->
+                mainHandler.post {
+                    if (job.state.value != VideoConvertJob.State.CANCELLED) {
+                        thumbnails.add(thumbnail)
+                        callback.onThumbnail(thumbnail)
                     }
-                } else {
-                    val output = session.output
-                    Log.e(TAG, "视频转换失败: $output")
-                    retryStateMap.remove(outputPath)  // 清理重试状态
-                    convertCallback?.onConvertFailed("转换失败: $output")
                 }
             }
-        } catch (e: Exception) {
-            Log.e(TAG, "视频转换异常: ${e.message}", e)
-            retryStateMap.remove(outputPath)  // 清理重试状态
-            convertCallback?.onConvertFailed("转换异常: ${e.message}")
         }
     }
     
     /**
-     * 将AVI转换为MP4
+     * 缩略图提取
+     * 根据FFmpeg统计中的已输出帧数判断哪些文件已经写完，按序号依次回调
      */
-    fun convertAVIToMP4(aviPath: String, mp4Path: String) {
-        try {
-            Log.d(TAG, "开始将AVI转换为MP4: $aviPath -> $mp4Path")
-            convertCallback?.onConvertStart()
-            
-            val command = "-y -i \"$aviPath\" -c:v libx264 -preset fast -crf 23 -pix_fmt yuv420p -c:a aac -b:a 64k -f mp4 \"$mp4Path\""
-            
-            FFmpegKit.executeAsync(command) { session ->
-                val returnCode = session.returnCode
-                if (ReturnCode.isSuccess(returnCode)) {
-                    val outputFile = File(mp4Path)
-                    if (outputFile.exists() && outputFile.length() > 0) {
-                        Log.d(TAG, "AVI转MP4成功: $mp4Path")
-                        convertCallback?.onConvertSuccess(mp4Path)
-                    } else {
-                        convertCallback?.onConvertFailed("转换后的文件不存在或为空")
+    private suspend fun extractThumbnailsInternal(
+        job: VideoConvertJob,
+        input: VideoInput,
+        count: Int,
+        width: Int,
+        height: Int,
+        keyframesOnly: Boolean,
+        reporter: ProgressReporter,
+        onThumbnail: (VideoThumbnail) -> Unit
+    ) {
+        if (count <= 0 || width <= 0 || height <= 0) {
+            throw ConvertException("缩略图数量和尺寸必须大于0")
+        }
+        val outputDir = File(job.outputPath)
+        outputDir.mkdirs()
+        
+        // 同一视频、相同数量和尺寸的缩略图条已缓存时，直接从磁盘缓存输出，不运行FFmpeg
+        val stripKey = buildThumbnailStripKey(input, count, width, height, keyframesOnly)
+        if (stripKey != null && emitCachedThumbnails(stripKey, outputDir, count, onThumbnail)) {
+            return
+        }
+        
+        val source = probeSource(input.toFFmpegInput())
+        val command = buildThumbnailCommand(input.toFFmpegInput(), outputDir, count, width, height, source, keyframesOnly)
+        Log.d(TAG, "缩略图提取命令: $command")
+        
+        // 时长未知时按每秒一张
+        val intervalMs = if (source.durationMs > 0) source.durationMs.toDouble() / count else 1000.0
+        val emitted = AtomicInteger(0)
+        val emitReady = { readyCount: Int ->
+            synchronized(emitted) {
+                while (emitted.get() < minOf(readyCount, count)) {
+                    val index = emitted.get()
+                    val file = getThumbnailFile(outputDir, index)
+                    if (!file.exists() || file.length() == 0L) {
+                        break
                     }
-                } else {
-                    val output = session.output
-                    Log.e(TAG, "AVI转MP4失败: $output")
-                    convertCallback?.onConvertFailed("转换失败: $output")
+                    emitted.incrementAndGet()
+                    val cacheKey = stripKey?.let { getThumbnailCacheKey(it, index) }
+                    if (cacheKey != null) {
+                        try {
+                            thumbnailCache?.putFile(cacheKey, file)
+                        } catch (e: Exception) {
+                            Log.w(TAG, "写入缩略图缓存失败: ${e.message}")
+                        }
+                    }
+                    onThumbnail(VideoThumbnail(index, (index * intervalMs).toLong(), file.absolutePath, cacheKey))
                 }
             }
+        }
+        
+        reporter.startPass(source.durationMs)
+        try {
+            // 统计中的帧数是已编码并写出的帧数，对应序号之前的文件都已写完
+            val session = executeSession(command, job, reporter) { statistics ->
+                emitReady(statistics.videoFrameNumber)
+            }
+            if (!ReturnCode.isSuccess(session.returnCode)) {
+                Log.e(TAG, "缩略图提取失败: ${session.output}")
+                throw ConvertException("缩略图提取失败: ${session.output}")
+            }
+            emitReady(count)
+        } catch (e: CancellationException) {
+            // 还没回调的缩略图可能只写了一半，直接删除
+            for (index in emitted.get() until count) {
+                getThumbnailFile(outputDir, index).delete()
+            }
+            throw e
+        }
+        if (emitted.get() == 0) {
+            throw ConvertException("未能提取到缩略图")
+        }
+        // 所有缩略图都写入缓存后再写元信息，元信息存在即表示整条缩略图可用
+        if (stripKey != null && emitted.get() == count) {
+            try {
+                thumbnailCache?.putText(stripKey, intervalMs.toString())
+            } catch (e: Exception) {
+                Log.w(TAG, "写入缩略图缓存失败: ${e.message}")
+            }
+        }
+        Log.d(TAG, "缩略图提取完成: ${emitted.get()}/$count, 耗时: ${reporter.encodeTimeMs}ms")
+    }
+    
+    /**
+     * 计算缩略图条的缓存key（输入标识 + 数量 + 尺寸 + 是否只解码关键帧）
+     * 每张缩略图的时间点由序号和数量决定，单张缩略图的key为stripKey加序号
+     * @return 缓存key，缓存未启用或无法读取输入信息时返回null
+     */
+    private fun buildThumbnailStripKey(
+        input: VideoInput,
+        count: Int,
+        width: Int,
+        height: Int,
+        keyframesOnly: Boolean
+    ): String? {
+        if (thumbnailCache == null) {
+            return null
+        }
+        return try {
+            DiskLruFileCache.hashKey(
+                CACHE_KEY_VERSION,
+                input.identity(),
+                "count=$count",
+                "${width}x$height",
+                "keyframesOnly=$keyframesOnly"
+            )
         } catch (e: Exception) {
-            Log.e(TAG, "AVI转MP4异常: ${e.message}", e)
-            convertCallback?.onConvertFailed("转换异常: ${e.message}")
+            Log.w(TAG, "计算缩略图缓存key失败，跳过缓存: ${e.message}")
+            null
         }
     }
     
+    private fun getThumbnailCacheKey(stripKey: String, index: Int): String = "${stripKey}_$index.jpg"
+    
     /**
-     * 将AVI转换为GIF
+     * 从磁盘缓存输出整条缩略图
+     * 缓存文件复制到输出目录（缓存条目可能随时被淘汰，不直接交给调用方）
+     * @return 整条缩略图都命中并已回调时返回true
      */
-    fun convertAVIToGIF(aviPath: String, gifPath: String) {
-        try {
-            Log.d(TAG, "开始将AVI转换为GIF: $aviPath -> $gifPath")
-            convertCallback?.onConvertStart()
-            
-            // 生成GIF（前3秒，fps=2，缩放为200宽度）
-            val command = "-y -i \"$aviPath\" -t 3 -vf \"fps=2,scale=200:-1\" -loop 0 \"$gifPath\""
-            
-            FFmpegKit.executeAsync(command) { session ->
-                val returnCode = session.returnCode
-                if (ReturnCode.isSuccess(returnCode)) {
-                    val outputFile = File(gifPath)
-                    if (outputFile.exists() && outputFile.length() > 0) {
-                        Log.d(TAG, "AVI转GIF成功: $gifPath")
-                        convertCallback?.onConvertSuccess(gifPath)
-                    } else {
-                        convertCallback?.onConvertFailed("转换后的文件不存在或为空")
-                    }
-                } else {
-                    val output = session.output
-                    Log.e(TAG, "AVI转GIF失败: $output")
-                    convertCallback?.onConvertFailed("转换失败: $output")
-                }
+    private fun emitCachedThumbnails(
+        stripKey: String,
+        outputDir: File,
+        count: Int,
+        onThumbnail: (VideoThumbnail) -> Unit
+    ): Boolean {
+        val cache = thumbnailCache ?: return false
+        val intervalMs = cache.getText(stripKey)?.toDoubleOrNull() ?: return false
+        val cachedFiles = (0 until count).map { cache.getFile(getThumbnailCacheKey(stripKey, it)) ?: return false }
+        return try {
+            cachedFiles.forEachIndexed { index, cachedFile ->
+                val target = getThumbnailFile(outputDir, index)
+                cachedFile.copyTo(target, overwrite = true)
+                onThumbnail(VideoThumbnail(index, (index * intervalMs).toLong(), target.absolutePath, getThumbnailCacheKey(stripKey, index)))
             }
-        } catch (e: Exception) {
-            Log.e(TAG, "AVI转GIF异常: ${e.message}", e)
-            convertCallback?.onConvertFailed("转换异常: ${e.message}")
+            Log.d(TAG, "命中缩略图缓存: $count 张, 缓存总大小: ${cache.diskSize()} bytes")
+            true
+        } catch (e: IOException) {
+            Log.w(TAG, "读取缩略图缓存失败，重新提取: ${e.message}")
+            false
+        }
+    }
+    
+    /**
+     * 读取缩略图Bitmap（优先使用内存缓存，未命中时从磁盘缓存或缩略图文件解码）
+     * 返回的Bitmap由缓存持有，调用方不能recycle；会读取磁盘，应在后台线程调用
+     * @param thumbnail extractThumbnails回调的缩略图
+     * @return 缩略图Bitmap，解码失败时返回null
+     */
+    fun getThumbnailBitmap(thumbnail: VideoThumbnail): Bitmap? {
+        val cache = thumbnailCache
+        val cacheKey = thumbnail.cacheKey
+        if (cache == null || cacheKey == null) {
+            return BitmapFactory.decodeFile(thumbnail.path)
+        }
+        return cache.getBitmap(cacheKey, File(thumbnail.path))
+    }
+    
+    /**
+     * 释放缩略图内存缓存（缓存尚未创建时不创建）
+     */
+    private fun trimThumbnailMemory(level: Int) {
+        if (thumbnailCacheDelegate.isInitialized()) {
+            thumbnailCache?.trimMemory(level)
+        }
+    }
+    
+    /**
+     * 清空缩略图缓存（内存和磁盘）
+     */
+    fun clearThumbnailCache() {
+        thumbnailCache?.clear()
+        Log.d(TAG, "缩略图缓存已清空")
+    }
+    
+    /**
+     * 构建缩略图提取命令
+     * fps滤镜放在最前面，按等间隔丢帧后再裁剪缩放，只有保留下来的帧会经过缩放和JPEG编码
+     */
+    private fun buildThumbnailCommand(
+        inputPath: String,
+        outputDir: File,
+        count: Int,
+        width: Int,
+        height: Int,
+        source: SourceInfo,
+        keyframesOnly: Boolean
+    ): String {
+        // 用整数分数表示帧率，避免小数受系统语言影响
+        val fps = if (source.durationMs > 0) "${count * 1000L}/${source.durationMs}" else "1"
+        val scaleFilter = VideoFilterPlanner.plan(source.width, source.height, width, height, 0)
+        val videoFilter = if (scaleFilter.isEmpty()) "fps=$fps" else "fps=$fps,$scaleFilter"
+        
+        val commandBuilder = StringBuilder()
+        commandBuilder.append("-y")
+        if (keyframesOnly) {
+            commandBuilder.append(" -skip_frame nokey")
+        }
+        commandBuilder.append(" -i \"").append(inputPath).append("\"")
+        commandBuilder.append(" -vf \"").append(videoFilter).append("\"")
+        commandBuilder.append(" -frames:v ").append(count)
+        commandBuilder.append(" -an")
+        commandBuilder.append(" -q:v ").append(THUMBNAIL_QUALITY)
+        commandBuilder.append(" -start_number 0")
+        commandBuilder.append(" -f image2")
+        commandBuilder.append(" \"").append(File(outputDir, "$THUMBNAIL_FILE_PREFIX%03d.jpg").absolutePath).append("\"")
+        return commandBuilder.toString()
+    }
+    
+    private fun getThumbnailFile(outputDir: File, index: Int): File {
+        return File(outputDir, "$THUMBNAIL_FILE_PREFIX${index.toString().padStart(3, '0')}.jpg")
+    }
+    
+    /**
+     * 执行单次FFmpeg转换并检查输出文件
+     * @param name 转换名称（用于日志）
+     */
+    private suspend fun executeToFile(
+        command: String,
+        outputPath: String,
+        name: String,
+        reporter: ProgressReporter
+    ) {
+        val session = executeSession(command, reporter.job, reporter)
+        if (!ReturnCode.isSuccess(session.returnCode)) {
+            val output = session.output
+            Log.e(TAG, "${name}失败: $output")
+            throw ConvertException("转换失败: $output")
         }
+        val outputFile = File(outputPath)
+        if (!outputFile.exists() || outputFile.length() == 0L) {
+            throw ConvertException("转换后的文件不存在或为空")
+        }
+        Log.d(TAG, "${name}成功: $outputPath")
     }
     
     /**
@@ -233,14 +1775,16 @@ class VideoConvertService(
     private fun buildFFmpegCommand(
         inputPath: String,
         outputPath: String,
-        params: VideoConvertParams
+        params: VideoConvertParams,
+        source: SourceInfo,
+        profile: VideoEncodeProfile,
+        roundMask: Boolean
     ): String {
-        val ffmpegConfig = config.ffmpegConfig
         val quality = params.quality.takeIf { it > 0 } ?: 10  // 默认质量值，与主项目一致
         val fps = params.fps.takeIf { it > 0 } ?: 5  // 默认5fps，与主项目一致
         
         // 构建视频滤镜
-        val videoFilter = buildVideoFilter(params)
+        val videoFilter = buildVideoFilter(params, source)
         
         // 构建完整命令
         val startTime = params.startTime
@@ -259,69 +1803,214 @@ class VideoConvertService(
             commandBuilder.append(" -t ").append(duration)
         }
         
-        if (videoFilter.isNotEmpty()) {
+        if (roundMask) {
+            // 圆屏：缩放后叠加只计算一次的遮罩帧，四角填充纯黑；使用filter_complex后需显式映射音频
+            commandBuilder.append(" -filter_complex \"[0:v]").append(videoFilter.ifEmpty { "null" }).append("[base];")
+            commandBuilder.append(VideoFilterPlanner.roundMask(params.targetWidth, params.targetHeight)).append("[mask];")
+            commandBuilder.append("[base][mask]overlay=0:0[vout]\"")
+            commandBuilder.append(" -map \"[vout]\"")
+            if (profile.audioEnabled) {
+                commandBuilder.append(" -map 0:a?")
+            }
+        } else if (videoFilter.isNotEmpty()) {
             commandBuilder.append(" -vf \"").append(videoFilter).append("\"")
         }
         
+        appendAviOutputOptions(commandBuilder, outputPath, fps, quality, profile)
+        
+        return commandBuilder.toString()
+    }
+    
+    /**
+     * 追加设备AVI输出的编码参数和输出路径
+     */
+    private fun appendAviOutputOptions(
+        commandBuilder: StringBuilder,
+        outputPath: String,
+        fps: Int,
+        quality: Int,
+        profile: VideoEncodeProfile
+    ) {
         // 视频编码参数（参考主项目）
         commandBuilder.append(" -r ").append(fps)  // 帧率
-        commandBuilder.append(" -c:v mjpeg")  // MJPEG编码
+        appendMjpegEncoderOptions(commandBuilder, quality, profile)
         commandBuilder.append(" -vtag mjpg")  // 视频标签
-        commandBuilder.append(" -pix_fmt yuvj420p")  // JPEG色彩空间，与主项目一致
-        commandBuilder.append(" -q:v ").append(quality)  // 质量值
-        
-        // 编码器参数（参考主项目）
-        commandBuilder.append(" -coder 1")  // 使用编码器1
-        commandBuilder.append(" -flags +loop+global_header")  // 循环标志和全局头
-        commandBuilder.append(" -pred 1")  // 预测模式
-        commandBuilder.append(" -qmin 10")  // 最小质量值
-        commandBuilder.append(" -qmax 20")  // 最大质量值
         commandBuilder.append(" -vsync cfr")  // 恒定帧率
         commandBuilder.append(" -video_track_timescale ").append(fps)  // 视频轨道时间刻度
-        commandBuilder.append(" -packetsize 4096")  // 数据包大小
+        commandBuilder.append(" -packetsize ").append(profile.packetSize)  // 数据包大小
         
-        // 音频编码参数（参考主项目）
-        commandBuilder.append(" -c:a pcm_s16le")  // PCM 16位小端音频
-        commandBuilder.append(" -ar 16000")  // 音频采样率16kHz，与主项目一致
-        commandBuilder.append(" -ac 1")  // 单声道
+        // 音频编码参数（设备不支持音频时不写入音频流）
+        if (profile.audioEnabled) {
+            commandBuilder.append(" -c:a pcm_s16le")  // PCM 16位小端音频
+            commandBuilder.append(" -ar ").append(profile.audioSampleRate)  // 音频采样率
+            commandBuilder.append(" -ac ").append(profile.audioChannels)  // 声道数
+        } else {
+            commandBuilder.append(" -an")  // 不编码音频
+        }
         commandBuilder.append(" -f avi")  // AVI格式
         commandBuilder.append(" \"").append(outputPath).append("\"")
-        
-        return commandBuilder.toString()
     }
     
     /**
-     * 构建视频滤镜
-     * 参考主项目的实现，使用智能裁剪策略消除黑边
+     * 构建单次解码、多路输出的FFmpeg命令
+     * 抽帧、裁剪缩放和圆屏遮罩只做一次，之后经split分成多路：设备AVI、预览MP4直接编码，
+     * GIF再降帧率缩小后编码；各路都从同一画面输出，预览与设备上看到的一致
+     * @param aviPath 设备AVI输出路径（为null时不输出AVI）
+     * @param outputs 预览输出（使用其中的mp4Path和gifPath）
      */
-    private fun buildVideoFilter(params: VideoConvertParams): String {
+    private fun buildMultiOutputCommand(
+        inputPath: String,
+        aviPath: String?,
+        outputs: VideoConvertOutputs,
+        params: VideoConvertParams,
+        source: SourceInfo,
+        profile: VideoEncodeProfile,
+        roundMask: Boolean
+    ): String {
+        val quality = params.quality.takeIf { it > 0 } ?: 10
         val fps = params.fps.takeIf { it > 0 } ?: 5
+        val videoFilter = buildVideoFilter(params, source)
+        val branches = listOfNotNull(
+            aviPath?.let { "vavi" },
+            outputs.mp4Path?.let { "vmp4" },
+            outputs.gifPath?.let { "gsrc" }
+        )
         
-        // 获取屏幕类型（用于决定裁剪策略）
-        val screenType = try {
-            clockDialInfoService?.getCurrentClockDialInfo()?.screenType ?: 0
-        } catch (e: Exception) {
-            Log.w(TAG, "获取屏幕类型失败，使用默认值: ${e.message}")
-            0
+        val commandBuilder = StringBuilder()
+        commandBuilder.append("-y")
+        if (params.startTime > 0) {
+            commandBuilder.append(" -ss ").append(params.startTime)
+        }
+        // 多路输出时-t作为输入选项，对所有输出生效
+        if (params.duration > 0) {
+            commandBuilder.append(" -t ").append(params.duration)
         }
+        commandBuilder.append(" -i \"").append(inputPath).append("\"")
         
-        // 检查是否有用户选择的裁剪区域
-        if (params.cropRegion != null) {
-            // 使用用户选择的裁剪区域
-            val crop = params.cropRegion!!
-            // 先裁剪用户选择的区域，然后缩放到目标尺寸
-            return "crop=${crop.width}:${crop.height}:${crop.x}:${crop.y}," +
-                   "scale=${params.targetWidth}:${params.targetHeight}:force_original_aspect_ratio=decrease," +
-                   "pad=${params.targetWidth}:${params.targetHeight}:(ow-iw)/2:(oh-ih)/2," +
-                   "fps=$fps"
+        commandBuilder.append(" -filter_complex \"[0:v]").append(videoFilter.ifEmpty { "null" })
+        if (roundMask) {
+            commandBuilder.append("[base];")
+            commandBuilder.append(VideoFilterPlanner.roundMask(params.targetWidth, params.targetHeight)).append("[mask];")
+            commandBuilder.append("[base][mask]overlay=0:0")
+        }
+        if (branches.size > 1) {
+            commandBuilder.append(",split=").append(branches.size).append(branches.joinToString("") { "[$it]" })
         } else {
-            // 使用默认的智能裁剪策略（居中裁剪，消除黑边）
-            // 先缩放到能完全填充目标尺寸的最小尺寸，再裁剪到目标尺寸
-            // 这样确保视频内容铺满整个屏幕，无黑边
-            return "scale=${params.targetWidth}:${params.targetHeight}:force_original_aspect_ratio=increase," +
-                   "crop=${params.targetWidth}:${params.targetHeight}:(iw-${params.targetWidth})/2:(ih-${params.targetHeight})/2," +
-                   "fps=$fps"
+            commandBuilder.append("[").append(branches[0]).append("]")
+        }
+        if (outputs.gifPath != null) {
+            commandBuilder.append(";[gsrc]fps=").append(GIF_PREVIEW_FPS)
+                .append(",scale=").append(GIF_PREVIEW_WIDTH).append(":-1[vgif]")
+        }
+        commandBuilder.append("\"")
+        
+        if (aviPath != null) {
+            commandBuilder.append(" -map \"[vavi]\"")
+            if (profile.audioEnabled) {
+                commandBuilder.append(" -map 0:a?")
+            }
+            appendAviOutputOptions(commandBuilder, aviPath, fps, quality, profile)
+        }
+        outputs.mp4Path?.let {
+            commandBuilder.append(" -map \"[vmp4]\"")
+            if (profile.audioEnabled) {
+                commandBuilder.append(" -map 0:a? ").append(MP4_PREVIEW_AUDIO_OPTIONS)
+            } else {
+                commandBuilder.append(" -an")
+            }
+            commandBuilder.append(" ").append(MP4_PREVIEW_OPTIONS)
+            commandBuilder.append(" -f mp4 \"").append(it).append("\"")
+        }
+        outputs.gifPath?.let {
+            commandBuilder.append(" -map \"[vgif]\"")
+            commandBuilder.append(" -t ").append(GIF_PREVIEW_DURATION)
+            commandBuilder.append(" -an -loop 0")
+            commandBuilder.append(" -f gif \"").append(it).append("\"")
+        }
+        return commandBuilder.toString()
+    }
+    
+    /**
+     * 追加MJPEG编码器参数
+     * 完整编码与质量采样共用，保证采样帧大小与实际编码一致；
+     * qmin/qmax按质量值放宽（见MjpegQualityFit.encoderRange），超出profile范围的质量值也按原值编码
+     */
+    private fun appendMjpegEncoderOptions(
+        commandBuilder: StringBuilder,
+        quality: Int,
+        profile: VideoEncodeProfile
+    ) {
+        commandBuilder.append(" -c:v mjpeg")  // MJPEG编码
+        commandBuilder.append(" -pix_fmt ").append(profile.pixelFormat)  // JPEG色彩空间
+        commandBuilder.append(" -q:v ").append(quality)  // 质量值
+        
+        // 编码器参数（参考主项目）
+        commandBuilder.append(" -coder 1")  // 使用编码器1
+        commandBuilder.append(" -flags +loop+global_header")  // 循环标志和全局头
+        commandBuilder.append(" -pred 1")  // 预测模式
+        val qRange = MjpegQualityFit.encoderRange(quality, profile.qMin, profile.qMax)
+        commandBuilder.append(" -qmin ").append(qRange.first)  // 最小质量值
+        commandBuilder.append(" -qmax ").append(qRange.last)  // 最大质量值
+    }
+    
+    /**
+     * 当前设备是否为圆屏（screenType为0表示方屏，其余为圆屏）
+     */
+    private fun isRoundScreen(): Boolean {
+        return try {
+            (clockDialInfoService?.getCurrentClockDialInfo()?.screenType ?: 0) != 0
+        } catch (e: Exception) {
+            Log.w(TAG, "获取屏幕类型失败，按方屏处理: ${e.message}")
+            false
+        }
+    }
+    
+    /**
+     * 实际编码帧率：转换参数中的帧率（未设置时5fps），不超过编码配置的帧率上限
+     */
+    private fun resolveFps(params: VideoConvertParams, profile: VideoEncodeProfile): Int {
+        val requested = params.fps.takeIf { it > 0 } ?: 5
+        if (requested > profile.maxFps) {
+            Log.w(TAG, "帧率${requested}fps超过编码配置${profile.name}的上限，按${profile.maxFps}fps编码")
+        }
+        return minOf(requested, profile.maxFps)
+    }
+    
+    /**
+     * 按当前设备的表盘信息选择编码配置
+     */
+    private fun resolveEncodeProfile(): VideoEncodeProfile {
+        val profile = try {
+            VideoEncodeProfileRegistry.resolve(clockDialInfoService?.getCurrentClockDialInfo())
+        } catch (e: Exception) {
+            Log.w(TAG, "选择编码配置失败，使用默认配置: ${e.message}")
+            VideoEncodeProfileRegistry.DEFAULT
         }
+        Log.d(TAG, "编码配置: $profile")
+        return profile
+    }
+    
+    /**
+     * 构建视频滤镜
+     * 先抽帧再裁剪缩放（见VideoFilterPlanner），宽高比一致时不裁剪，缩小倍数大时使用更快的缩放算法
+     * @param source 源视频信息（尺寸未知时退回"缩放铺满+居中裁剪"）
+     * @param includeFps 是否添加fps滤镜（质量采样时不需要）
+     */
+    private fun buildVideoFilter(
+        params: VideoConvertParams,
+        source: SourceInfo,
+        includeFps: Boolean = true
+    ): String {
+        val fps = params.fps.takeIf { it > 0 } ?: 5
+        val cropRegion = params.cropRegion?.let { VideoFilterPlanner.Region(it.x, it.y, it.width, it.height) }
+        return VideoFilterPlanner.plan(
+            sourceWidth = source.width,
+            sourceHeight = source.height,
+            targetWidth = params.targetWidth,
+            targetHeight = params.targetHeight,
+            fps = if (includeFps) fps else 0,
+            cropRegion = cropRegion
+        )
     }
     
     /**
@@ -386,157 +2075,25 @@ class VideoConvertService(
     }
     
     /**
-     * 读取AVI文件中strh块的dwSuggestedBufferSize值
-     * 
-     * AVI文件格式说明：
-     * - RIFF块包含多个子块
-     * - strh块（Stream Header Chunk）包含流的头信息
-     * - 在AVIStreamHeader结构体中，dwSuggestedBufferSize的偏移是0x24 (36字节)
-     * 
-     * strh块结构（AVIStreamHeader）：
-     * ==============================
-     * 偏移  大小  字段名
-     * 0x00  4     fccType          - 流类型 ("vids"=视频, "auds"=音频)
-     * 0x04  4     fccHandler       - 编码器标识
-     * 0x08  4     dwFlags          - 标志
-     * 0x0C  2     wPriority        - 优先级
-     * 0x0E  2     wLanguage        - 语言
-     * 0x10  4     dwInitialFrames  - 初始帧数
-     * 0x14  4     dwScale          - 时间刻度
-     * 0x18  4     dwRate           - 数据速率
-     * 0x1C  4     dwStart          - 开始时间
-     * 0x20  4     dwLength         - 数据长度
-     * 0x24  4     dwSuggestedBufferSize ⭐ 建议的缓冲区大小（我们要读取的字段）
-     * 0x28  4     dwQuality        - 质量
-     * 0x2C  4     dwSampleSize     - 样本大小
-     * 
-     * 所以 dwSuggestedBufferSize 在 strh 块开始后的偏移 0x24 (36字节) 处
-     * 但根据实际测试，有些编码器可能将其放在 0x20 (32字节) 处
+     * 读取AVI文件的缓冲区大小
+     * 按RIFF块结构解析AVI（见AviParser），取所有流头中的dwSuggestedBufferSize
+     * 与movi中实际最大块大小两者的较大值，设备按此分配帧缓冲区
      * 
      * @param filePath AVI文件路径
-     * @return dwSuggestedBufferSize值（字节），如果读取失败返回-1
+     * @return 缓冲区大小（字节），如果读取失败返回-1
      */
     private fun getAviStreamBufferSize(filePath: String): Int {
-        var raf: RandomAccessFile? = null
-        try {
-            raf = RandomAccessFile(filePath, "r")
-            val fileSize = raf.length()
-            Log.d(TAG, "=== 开始检测AVI文件缓冲区大小 ===")
-            Log.d(TAG, "文件路径: $filePath")
-            Log.d(TAG, "文件大小: $fileSize bytes")
-            
-            // 读取文件头，查找strh块（Stream Header Chunk）
-            // strh块通常在文件的前2KB内，读取4096字节以确保找到
-            val header = ByteArray(4096)
-            val bytesRead = raf.read(header)
-            
-            if (bytesRead < 100) {
-                Log.w(TAG, "文件头太短，无法读取dwSuggestedBufferSize")
-                return -1
-            }
-            
-            // 检查是否是AVI文件
-            val isAvi = (header[0] == 'R'.toByte() && header[1] == 'I'.toByte() && 
-                        header[2] == 'F'.toByte() && header[3] == 'F'.toByte()) &&
-                       (header[8] == 'A'.toByte() && header[9] == 'V'.toByte() && 
-                        header[10] == 'I'.toByte() && header[11] == ' '.toByte())
-            Log.d(TAG, "是否为AVI文件: $isAvi")
-            
-            // 查找所有"strh"标识（可能有多个流：视频流和音频流）
-            // 每个流都有自己的strh块，我们需要找到最大的dwSuggestedBufferSize值
-            var maxBufferSize = -1
-            var strhCount = 0
-            
-            for (i in 0 until (bytesRead - 4)) {
-                // 查找 "strh" 四个字节的标识符
-                if (header[i] == 's'.toByte() && header[i + 1] == 't'.toByte() && 
-                    header[i + 2] == 'r'.toByte() && header[i + 3] == 'h'.toByte()) {
-                    strhCount++
-                    // 找到strh块，记录偏移位置
-                    val strhOffset = i
-                    Log.d(TAG, "找到strh块 #$strhCount，文件偏移: 0x${strhOffset.toString(16)} ($strhOffset)")
-                    
-                    // strh块结构：
-                    // "strh" (4字节) + size (4字节) + AVIStreamHeader结构体
-                    // 所以数据部分从 strhOffset + 8 开始
-                    val dataStart = strhOffset + 8
-                    
-                    // 在AVIStreamHeader结构体中，dwSuggestedBufferSize的偏移是0x24
-                    // 所以实际文件偏移 = strhOffset + 8 + 0x24 = strhOffset + 0x2C (44字节)
-                    // 但也要尝试其他可能的位置（有些编码器可能有不同的布局）
-                    val possibleOffsets = intArrayOf(0x2C, 0x28, 0x24, 0x20)  // 从最可能的位置开始
-                    
-                    for (offset in possibleOffsets) {
-                        val bufferSizeOffset = strhOffset + offset
-                        
-                        try {
-                            val bufferSize: Int
-                            if (bufferSizeOffset + 4 <= bytesRead) {
-                                // 从已读取的header中读取
-                                bufferSize = (header[bufferSizeOffset].toInt() and 0xFF) or
-                                           ((header[bufferSizeOffset + 1].toInt() and 0xFF) shl 8) or
-                                           ((header[bufferSizeOffset + 2].toInt() and 0xFF) shl 16) or
-                                           ((header[bufferSizeOffset + 3].toInt() and 0xFF) shl 24)
-                            } else {
-                                // 如果偏移超出已读取的范围，需要重新读取
-                                raf.seek(bufferSizeOffset.toLong())
-                                val sizeBytes = ByteArray(4)
-                                val readBytes = raf.read(sizeBytes)
-                                if (readBytes != 4) {
-                                    continue
-                                }
-                                bufferSize = (sizeBytes[0].toInt() and 0xFF) or
-                                           ((sizeBytes[1].toInt() and 0xFF) shl 8) or
-                                           ((sizeBytes[2].toInt() and 0xFF) shl 16) or
-                                           ((sizeBytes[3].toInt() and 0xFF) shl 24)
-                            }
-                            
-                            Log.d(TAG, "  strh偏移 +0x${offset.toString(16)} (绝对偏移 0x${bufferSizeOffset.toString(16)}) 处的值: $bufferSize bytes (${if (bufferSize > 0) "${bufferSize / 1024} KB" else "0"})")
-                            
-                            // 验证：dwSuggestedBufferSize应该在合理范围内（通常几KB到几百KB）
-                            // 对于360x360@5fps的MJPEG视频，应该在10KB-500KB之间
-                            if (bufferSize >= 1024 && bufferSize < 10 * 1024 * 1024) {
-                                Log.d(TAG, "  ✓ 找到有效的dwSuggestedBufferSize: $bufferSize bytes (${bufferSize / 1024} KB)")
-                                
-                                // 取最大值（通常视频流的缓冲区更大）
-                                if (bufferSize > maxBufferSize) {
-                                    maxBufferSize = bufferSize
-                                }
-                                // 找到有效值后，可以继续尝试其他位置，但优先使用这个
-                            } else if (bufferSize > 0 && bufferSize < 50 * 1024 * 1024) {
-                                // 值在范围内但可能不太合理，记录但不使用
-                                Log.d(TAG, "  ? 读取到值但可能不是dwSuggestedBufferSize: $bufferSize bytes")
-                            }
-                        } catch (e: Exception) {
-                            Log.w(TAG, "  读取偏移 +0x${offset.toString(16)} 时出错: ${e.message}")
-                        }
-                    }
-                }
-            }
-            
-            if (strhCount == 0) {
-                Log.w(TAG, "未找到任何strh块！")
-            } else {
-                Log.d(TAG, "共找到 $strhCount 个strh块")
-            }
-            
-            if (maxBufferSize == -1) {
-                Log.w(TAG, "未找到有效的dwSuggestedBufferSize值")
-            } else {
-                Log.d(TAG, "最终检测到的最大dwSuggestedBufferSize: $maxBufferSize bytes (${maxBufferSize / 1024} KB)")
+        return try {
+            val aviFile = AviParser.parse(File(filePath))
+            aviFile.streams.forEach { stream ->
+                Log.d(TAG, "流#${stream.index} ${stream.header.fccType}/${stream.header.fccHandler}: " +
+                        "dwSuggestedBufferSize=${stream.header.suggestedBufferSize}, " +
+                        "块数=${stream.chunkCount}, 最大块=${stream.maxChunkSize} bytes")
             }
-            
-            return maxBufferSize
-            
+            maxOf(aviFile.maxSuggestedBufferSize, aviFile.maxChunkSize)
         } catch (e: Exception) {
-            Log.e(TAG, "读取AVI文件dwSuggestedBufferSize失败", e)
-            return -1
-        } finally {
-            try {
-                raf?.close()
-            } catch (e: Exception) {
-                Log.e(TAG, "关闭文件失败", e)
-            }
+            Log.e(TAG, "解析AVI文件失败: ${e.message}", e)
+            -1
         }
     }
     
@@ -544,8 +2101,11 @@ class VideoConvertService(
      * 清理资源
      */
     fun cleanup() {
+        cancelAll()
+        serviceScope.cancel()
+        context.applicationContext.unregisterComponentCallbacks(memoryCallbacks)
+        trimThumbnailMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE)
         convertCallback = null
-        retryStateMap.clear()
         Log.d(TAG, "视频转换服务资源已清理")
     }
 }
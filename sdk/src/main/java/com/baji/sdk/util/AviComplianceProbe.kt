@@ -0,0 +1,150 @@
+package com.baji.sdk.util
+
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import kotlin.math.abs
+
+/**
+ * AVI设备兼容性检查
+ * 判断AVI文件是否已经满足设备要求（MJPEG编码、表盘尺寸、帧率、音频格式、单帧大小、idx1索引），
+ * 满足时可以直接发送到设备，无需重新编码；如果只是头信息中的dwSuggestedBufferSize超限而实际帧都符合，
+ * 只需修正头信息
+ *
+ * 纯JVM实现，只读取块头，不解码帧数据
+ */
+object AviComplianceProbe {
+
+    /**
+     * 设备要求
+     * @param maxFps 最大帧率
+     * @param frameSizeLimit 单个数据块的大小限制（字节），块大小必须小于该值
+     * @param audioEnabled 设备是否支持音频（不支持时文件不能包含音频流）
+     */
+    data class Requirements(
+        val width: Int,
+        val height: Int,
+        val maxFps: Int,
+        val frameSizeLimit: Int,
+        val audioEnabled: Boolean,
+        val audioSampleRate: Int,
+        val audioChannels: Int
+    )
+
+    /**
+     * 检查结果
+     * @param compliant 是否可以直接使用（needsHeaderPatch为true时需要先修正头信息）
+     * @param needsHeaderPatch 实际块大小都符合，但头信息中的dwSuggestedBufferSize超限
+     * @param durationMs 视频时长（毫秒），无法计算时为0
+     * @param reasons 不满足的原因（compliant为true时为空）
+     */
+    data class Result(
+        val compliant: Boolean,
+        val needsHeaderPatch: Boolean,
+        val durationMs: Long,
+        val reasons: List<String>
+    )
+
+    private const val PCM_FORMAT_TAG = 1
+    private const val PCM_BITS_PER_SAMPLE = 16
+    private const val FPS_TOLERANCE = 0.01
+
+    /**
+     * 检查AVI文件是否满足设备要求
+     * @param aviFile AviParser的解析结果
+     * @param requirements 设备要求
+     * @return 检查结果
+     */
+    @JvmStatic
+    fun check(aviFile: AviParser.AviFile, requirements: Requirements): Result {
+        val reasons = mutableListOf<String>()
+        var durationMs = 0L
+
+        val video = aviFile.videoStream
+        if (video == null) {
+            reasons.add("没有视频流")
+        } else {
+            val compression = video.videoFormat?.compression ?: video.header.fccHandler
+            if (!compression.equals("MJPG", ignoreCase = true)) {
+                reasons.add("视频编码不是MJPEG: $compression")
+            }
+            // BITMAPINFOHEADER的高度为负数时表示自上而下存储
+            val width = video.videoFormat?.width ?: aviFile.mainHeader.width
+            val height = abs(video.videoFormat?.height ?: aviFile.mainHeader.height)
+            if (width != requirements.width || height != requirements.height) {
+                reasons.add("尺寸不匹配: ${width}x$height, 需要: ${requirements.width}x${requirements.height}")
+            }
+            val header = video.header
+            val fps = if (header.scale > 0) header.rate.toDouble() / header.scale else 0.0
+            if (fps <= 0 || fps > requirements.maxFps + FPS_TOLERANCE) {
+                reasons.add("帧率不符合: $fps, 最大: ${requirements.maxFps}")
+            } else {
+                durationMs = (video.chunkCount * 1000 / fps).toLong()
+            }
+            if (video.chunkCount == 0) {
+                reasons.add("没有视频帧")
+            }
+        }
+
+        val audio = aviFile.audioStream
+        if (audio != null) {
+            val format = audio.audioFormat
+            if (!requirements.audioEnabled) {
+                reasons.add("设备不支持音频")
+            } else if (format == null ||
+                format.formatTag != PCM_FORMAT_TAG ||
+                format.bitsPerSample != PCM_BITS_PER_SAMPLE ||
+                format.samplesPerSec != requirements.audioSampleRate ||
+                format.channels != requirements.audioChannels
+            ) {
+                reasons.add("音频格式不符合: $format")
+            }
+        }
+
+        if (aviFile.streams.size > listOfNotNull(video, audio).size) {
+            reasons.add("包含其他数据流")
+        }
+        if (aviFile.index == null) {
+            reasons.add("缺少idx1索引")
+        }
+        if (aviFile.moviLists.size != 1) {
+            reasons.add("不支持OpenDML扩展")
+        }
+        if (aviFile.maxChunkSize >= requirements.frameSizeLimit) {
+            reasons.add("存在超过缓冲区限制的块: ${aviFile.maxChunkSize} bytes, 限制: ${requirements.frameSizeLimit} bytes")
+        }
+
+        val limit = requirements.frameSizeLimit
+        val needsHeaderPatch = reasons.isEmpty() &&
+                (aviFile.maxSuggestedBufferSize >= limit || aviFile.mainHeader.suggestedBufferSize >= limit)
+        return Result(reasons.isEmpty(), needsHeaderPatch, durationMs, reasons)
+    }
+
+    /**
+     * 将各流头和主头中的dwSuggestedBufferSize修正为实际的最大块大小
+     * @param file 要修正的AVI文件（与aviFile结构相同，如原文件的副本）
+     * @param aviFile 该文件的解析结果
+     */
+    @JvmStatic
+    @Throws(IOException::class)
+    fun patchSuggestedBufferSize(file: File, aviFile: AviParser.AviFile) {
+        RandomAccessFile(file, "rw").use { raf ->
+            aviFile.streams.forEach {
+                writeInt(raf, it.header.offset + AviParser.StreamHeader.SUGGESTED_BUFFER_SIZE_OFFSET, it.maxChunkSize)
+            }
+            writeInt(raf, aviFile.mainHeader.offset + AviParser.MainHeader.SUGGESTED_BUFFER_SIZE_OFFSET, aviFile.maxChunkSize)
+        }
+    }
+
+    private fun writeInt(raf: RandomAccessFile, position: Long, value: Int) {
+        raf.seek(position)
+        raf.write(
+            byteArrayOf(
+                value.toByte(),
+                (value shr 8).toByte(),
+                (value shr 16).toByte(),
+                (value shr 24).toByte()
+            )
+        )
+    }
+}
@@ -0,0 +1,346 @@
+package com.baji.sdk.util
+
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.channels.FileChannel
+
+/**
+ * AVI帧级修复工具
+ * 找出movi中超过缓冲区限制的视频帧，只对这些帧重新压缩，其余数据按原样拷贝，
+ * 并同步修正movi/idx1中的偏移和大小、RIFF/movi列表大小以及strh/avih中的dwSuggestedBufferSize
+ *
+ * 修复只涉及少量帧的重新压缩和一次顺序文件拷贝，代价远小于整段视频重新编码
+ * 纯JVM实现，帧的重新压缩由调用方通过FrameRecompressor提供
+ */
+object AviFrameRepair {
+
+    /**
+     * 帧重新压缩器
+     */
+    fun interface FrameRecompressor {
+        /**
+         * 重新压缩一帧
+         * @param frame 原始帧数据（MJPEG帧即一张完整的JPEG）
+         * @param maxSize 压缩后允许的最大字节数
+         * @return 压缩后的帧数据，无法压缩到maxSize以内时返回null
+         */
+        fun recompress(frame: ByteArray, maxSize: Int): ByteArray?
+    }
+
+    /**
+     * 修复结果
+     * @param repairedFrames 重新压缩的帧数
+     * @param maxChunkSize 修复后视频流的最大帧大小
+     */
+    data class Result(
+        val repairedFrames: Int,
+        val maxChunkSize: Int
+    )
+
+    /**
+     * 修复超过缓冲区限制的视频帧
+     * 修复结果先写入临时文件，完成后再替换原文件，失败时原文件保持不变
+     *
+     * @param file AVI文件
+     * @param limit 缓冲区限制（字节），帧大小必须小于该值
+     * @param maxRepairFrames 最多修复的帧数，超过时认为需要整体降质量重新编码
+     * @param recompressor 帧重新压缩器
+     * @return 修复结果；无法修复（超限帧过多、帧无法压缩、文件结构不支持）时返回null
+     */
+    @JvmStatic
+    @Throws(IOException::class)
+    fun repair(
+        file: File,
+        limit: Int,
+        maxRepairFrames: Int,
+        recompressor: FrameRecompressor
+    ): Result? {
+        val aviFile = AviParser.parse(file)
+        val video = aviFile.videoStream ?: return null
+        val oversized = video.chunkSizes.indices.filter { video.chunkSizes[it] >= limit }
+        if (oversized.isEmpty()) {
+            return Result(0, video.maxChunkSize)
+        }
+        // 只支持单个movi列表（不含OpenDML的AVIX扩展）
+        if (oversized.size > maxRepairFrames || aviFile.moviLists.size != 1) {
+            return null
+        }
+
+        // 重新压缩超限帧，key为帧数据的绝对偏移
+        val replacements = HashMap<Long, ByteArray>()
+        RandomAccessFile(file, "r").use { raf ->
+            for (i in oversized) {
+                val frame = ByteArray(video.chunkSizes[i])
+                raf.seek(video.chunkOffsets[i])
+                raf.readFully(frame)
+                val recompressed = recompressor.recompress(frame, limit - 1)
+                if (recompressed == null || recompressed.size >= limit) {
+                    return null
+                }
+                replacements[video.chunkOffsets[i]] = recompressed
+            }
+        }
+
+        val newSizes = video.chunkSizes.copyOf()
+        for (i in oversized) {
+            newSizes[i] = replacements.getValue(video.chunkOffsets[i]).size
+        }
+        val newMaxChunkSize = newSizes.maxOrNull() ?: 0
+
+        val tempFile = File(file.path + ".repair")
+        try {
+            if (!rewrite(file, tempFile, aviFile, replacements)) {
+                return null
+            }
+            patchHeaders(tempFile, aviFile, video, newMaxChunkSize)
+            if (!tempFile.renameTo(file)) {
+                throw IOException("替换AVI文件失败: ${file.path}")
+            }
+        } finally {
+            if (tempFile.exists()) {
+                tempFile.delete()
+            }
+        }
+        return Result(oversized.size, newMaxChunkSize)
+    }
+
+    /**
+     * 按顺序重写文件：movi之前原样拷贝，movi中替换超限帧，之后重写idx1
+     * @return 文件结构不支持时返回false
+     */
+    private fun rewrite(
+        source: File,
+        target: File,
+        aviFile: AviParser.AviFile,
+        replacements: Map<Long, ByteArray>
+    ): Boolean {
+        val movi = aviFile.moviLists[0]
+        val moviChildrenStart = movi.offset + 4
+        val moviEnd = movi.offset + movi.size
+
+        FileInputStream(source).channel.use { input ->
+            FileOutputStream(target).channel.use { output ->
+                copy(input, output, 0, moviChildrenStart)
+
+                // movi中每个被替换块之后的相对偏移阈值及累计偏移变化量
+                val shiftThresholds = ArrayList<Long>()
+                val shiftDeltas = ArrayList<Long>()
+                var delta = 0L
+
+                val header = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN)
+                var position = moviChildrenStart
+                while (position + 8 <= moviEnd) {
+                    val id = readChunkHeader(input, position, header)
+                    val size = header.getInt(4).toLong() and 0xFFFFFFFFL
+                    val padded = 8 + size + (size and 1L)
+                    val replacement = replacements[position + 8]
+
+                    if (id.startsWith("ix")) {
+                        // OpenDML标准索引块记录了绝对偏移，不支持
+                        return false
+                    } else if (replacement != null) {
+                        writeChunk(output, id, replacement)
+                        val newPadded = 8L + replacement.size + (replacement.size and 1)
+                        delta += newPadded - padded
+                        shiftThresholds.add(position + padded - movi.offset)
+                        shiftDeltas.add(delta)
+                    } else {
+                        if (id == "LIST" && replacements.keys.any { it > position && it < position + padded }) {
+                            // 被替换的帧在"LIST rec "分组内，不支持
+                            return false
+                        }
+                        copy(input, output, position, minOf(padded, moviEnd - position))
+                    }
+                    position += padded
+                }
+                if (position < moviEnd) {
+                    copy(input, output, position, moviEnd - position)
+                }
+
+                // movi之后的块（idx1等）
+                position = moviEnd + (movi.size and 1L)
+                if (position > moviEnd) {
+                    copy(input, output, moviEnd, position - moviEnd)
+                }
+                val fileSize = input.size()
+                while (position + 8 <= fileSize) {
+                    val id = readChunkHeader(input, position, header)
+                    val size = header.getInt(4).toLong() and 0xFFFFFFFFL
+                    val padded = minOf(8 + size + (size and 1L), fileSize - position)
+                    if (id == "idx1") {
+                        rewriteIndex(input, output, position, size, movi, replacements, shiftThresholds, shiftDeltas)
+                        if (padded > 8 + size) {
+                            copy(input, output, position + 8 + size, padded - 8 - size)
+                        }
+                    } else {
+                        copy(input, output, position, padded)
+                    }
+                    position += padded
+                }
+                if (position < fileSize) {
+                    copy(input, output, position, fileSize - position)
+                }
+            }
+        }
+        return true
+    }
+
+    /**
+     * 重写idx1：修正被替换块之后的偏移，以及被替换块本身的大小
+     * idx1中的偏移可能相对于movi列表类型字段，也可能是文件绝对偏移，按第一项判断
+     */
+    private fun rewriteIndex(
+        input: FileChannel,
+        output: FileChannel,
+        position: Long,
+        size: Long,
+        movi: AviParser.MoviList,
+        replacements: Map<Long, ByteArray>,
+        shiftThresholds: List<Long>,
+        shiftDeltas: List<Long>
+    ) {
+        val entries = ByteBuffer.allocate(size.toInt()).order(ByteOrder.LITTLE_ENDIAN)
+        input.read(entries, position + 8)
+        entries.flip()
+
+        val entryCount = entries.limit() / 16
+        var base = movi.offset
+        if (entryCount > 0) {
+            val firstOffset = entries.getInt(8).toLong() and 0xFFFFFFFFL
+            val probe = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN)
+            val firstId = fourCC(entries, 0)
+            if (movi.offset + firstOffset + 8 > input.size() ||
+                readChunkHeader(input, movi.offset + firstOffset, probe) != firstId) {
+                base = 0L
+            }
+        }
+
+        for (i in 0 until entryCount) {
+            val entry = i * 16
+            val oldOffset = entries.getInt(entry + 8).toLong() and 0xFFFFFFFFL
+            val relative = oldOffset + base - movi.offset
+            replacements[relative + movi.offset + 8]?.let {
+                entries.putInt(entry + 12, it.size)
+            }
+            entries.putInt(entry + 8, (oldOffset + shiftFor(relative, shiftThresholds, shiftDeltas)).toInt())
+        }
+
+        val header = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN)
+        header.put("idx1".toByteArray(Charsets.US_ASCII)).putInt(size.toInt()).flip()
+        writeFully(output, header)
+        entries.rewind()
+        writeFully(output, entries)
+    }
+
+    /**
+     * 相对偏移对应的累计偏移变化量
+     */
+    private fun shiftFor(relative: Long, thresholds: List<Long>, deltas: List<Long>): Long {
+        var low = 0
+        var high = thresholds.size - 1
+        var result = 0L
+        while (low <= high) {
+            val mid = (low + high) ushr 1
+            if (thresholds[mid] <= relative) {
+                result = deltas[mid]
+                low = mid + 1
+            } else {
+                high = mid - 1
+            }
+        }
+        return result
+    }
+
+    /**
+     * 修正RIFF/movi列表大小和缓冲区大小字段
+     * 与AviComplianceProbe.patchSuggestedBufferSize一致，各流头和主头的dwSuggestedBufferSize都改为实际的最大块大小
+     */
+    private fun patchHeaders(
+        file: File,
+        aviFile: AviParser.AviFile,
+        video: AviParser.Stream,
+        newMaxChunkSize: Int
+    ) {
+        RandomAccessFile(file, "rw").use { raf ->
+            val channel = raf.channel
+            val movi = aviFile.moviLists[0]
+            val sizeChange = raf.length() - aviFile.fileSize
+
+            writeInt(channel, 4, (raf.length() - 8).toInt())
+            // idx1大小不变，文件大小的变化全部来自movi
+            writeInt(channel, movi.offset - 4, (movi.size + sizeChange).toInt())
+
+            var maxChunkSize = 0
+            aviFile.streams.forEach {
+                val streamMax = if (it === video) newMaxChunkSize else it.maxChunkSize
+                writeInt(channel, it.header.offset + AviParser.StreamHeader.SUGGESTED_BUFFER_SIZE_OFFSET, streamMax)
+                maxChunkSize = maxOf(maxChunkSize, streamMax)
+            }
+            writeInt(
+                channel,
+                aviFile.mainHeader.offset + AviParser.MainHeader.SUGGESTED_BUFFER_SIZE_OFFSET,
+                maxChunkSize
+            )
+        }
+    }
+
+    private fun readChunkHeader(channel: FileChannel, position: Long, header: ByteBuffer): String {
+        header.clear()
+        while (header.hasRemaining()) {
+            if (channel.read(header, position + header.position()) < 0) {
+                break
+            }
+        }
+        header.flip()
+        return fourCC(header, 0)
+    }
+
+    private fun fourCC(buffer: ByteBuffer, position: Int): String {
+        val chars = CharArray(4)
+        for (i in 0 until 4) {
+            chars[i] = (buffer.get(position + i).toInt() and 0xFF).toChar()
+        }
+        return String(chars)
+    }
+
+    private fun writeChunk(output: FileChannel, id: String, data: ByteArray) {
+        val header = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN)
+        header.put(id.toByteArray(Charsets.US_ASCII)).putInt(data.size).flip()
+        writeFully(output, header)
+        writeFully(output, ByteBuffer.wrap(data))
+        if (data.size and 1 == 1) {
+            writeFully(output, ByteBuffer.wrap(ByteArray(1)))
+        }
+    }
+
+    private fun writeInt(channel: FileChannel, position: Long, value: Int) {
+        val buffer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN)
+        buffer.putInt(value).flip()
+        var written = 0
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer, position + written)
+        }
+    }
+
+    private fun writeFully(output: FileChannel, buffer: ByteBuffer) {
+        while (buffer.hasRemaining()) {
+            output.write(buffer)
+        }
+    }
+
+    private fun copy(input: FileChannel, output: FileChannel, position: Long, count: Long) {
+        var transferred = 0L
+        while (transferred < count) {
+            val n = input.transferTo(position + transferred, count - transferred, output)
+            if (n <= 0) {
+                throw IOException("拷贝AVI数据失败: position=${position + transferred}")
+            }
+            transferred += n
+        }
+    }
+}
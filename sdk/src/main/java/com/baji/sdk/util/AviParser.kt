@@ -0,0 +1,461 @@
+package com.baji.sdk.util
+
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteOrder
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+
+/**
+ * AVI文件结构解析工具
+ * 通过FileChannel内存映射按RIFF块结构遍历AVI文件，解析hdrl/avih/strl/strh/strf/movi/idx1，
+ * 只读取块头，不加载帧数据
+ *
+ * 纯JVM实现（不依赖Android API），可直接在JVM上做单元测试和基准测试
+ *
+ * RIFF块结构：
+ * ==============================
+ * 偏移  大小  字段
+ * 0x00  4     ckID     - 块标识 ("RIFF"/"LIST"/"strh"/"00dc"...)
+ * 0x04  4     ckSize   - 数据大小（不含8字节块头，不含对齐填充）
+ * 0x08  n     ckData   - 数据（RIFF/LIST的前4字节为列表类型，如"AVI "/"hdrl"/"movi"）
+ * 数据按2字节对齐，奇数大小的块后面有1字节填充
+ */
+object AviParser {
+
+    /**
+     * AVI格式错误
+     */
+    class AviFormatException(message: String) : IOException(message)
+
+    /**
+     * 主头（avih，MainAVIHeader）
+     * @param offset avih数据在文件中的绝对偏移
+     */
+    data class MainHeader(
+        val offset: Long,
+        val microSecPerFrame: Int,
+        val maxBytesPerSec: Int,
+        val flags: Int,
+        val totalFrames: Int,
+        val initialFrames: Int,
+        val streams: Int,
+        val suggestedBufferSize: Int,
+        val width: Int,
+        val height: Int
+    ) {
+        companion object {
+            /** dwSuggestedBufferSize在avih数据中的偏移 */
+            const val SUGGESTED_BUFFER_SIZE_OFFSET = 0x1C
+        }
+    }
+
+    /**
+     * 流头（strh，AVIStreamHeader）
+     * @param offset strh数据在文件中的绝对偏移
+     */
+    data class StreamHeader(
+        val offset: Long,
+        val fccType: String,
+        val fccHandler: String,
+        val flags: Int,
+        val priority: Int,
+        val language: Int,
+        val initialFrames: Int,
+        val scale: Int,
+        val rate: Int,
+        val start: Int,
+        val length: Int,
+        val suggestedBufferSize: Int,
+        val quality: Int,
+        val sampleSize: Int
+    ) {
+        val isVideo: Boolean get() = fccType == "vids"
+        val isAudio: Boolean get() = fccType == "auds"
+
+        companion object {
+            /** dwSuggestedBufferSize在strh数据中的偏移 */
+            const val SUGGESTED_BUFFER_SIZE_OFFSET = 0x24
+        }
+    }
+
+    /**
+     * 视频流格式（strf，BITMAPINFOHEADER）
+     */
+    data class VideoFormat(
+        val width: Int,
+        val height: Int,
+        val bitCount: Int,
+        val compression: String,
+        val sizeImage: Int
+    )
+
+    /**
+     * 音频流格式（strf，WAVEFORMATEX）
+     */
+    data class AudioFormat(
+        val formatTag: Int,
+        val channels: Int,
+        val samplesPerSec: Int,
+        val avgBytesPerSec: Int,
+        val blockAlign: Int,
+        val bitsPerSample: Int
+    )
+
+    /**
+     * 单个流的解析结果
+     * @param chunkOffsets movi中每个数据块的数据绝对偏移（块头之后）
+     * @param chunkSizes movi中每个数据块的大小（字节），视频流即每帧大小
+     */
+    class Stream(
+        val index: Int,
+        val header: StreamHeader,
+        val videoFormat: VideoFormat?,
+        val audioFormat: AudioFormat?,
+        val chunkOffsets: LongArray,
+        val chunkSizes: IntArray
+    ) {
+        /**
+         * 实际最大块大小
+         */
+        val maxChunkSize: Int = chunkSizes.maxOrNull() ?: 0
+
+        val chunkCount: Int get() = chunkSizes.size
+    }
+
+    /**
+     * movi列表位置
+     * @param offset movi列表类型字段（"movi"四字节）的绝对偏移，idx1中的块偏移以此为基准
+     * @param size movi列表数据大小（含"movi"四字节）
+     */
+    data class MoviList(
+        val offset: Long,
+        val size: Long
+    )
+
+    /**
+     * idx1索引信息
+     * @param offset idx1数据的绝对偏移
+     * @param entryCount 索引项数量（每项16字节）
+     */
+    data class Index(
+        val offset: Long,
+        val entryCount: Int
+    )
+
+    /**
+     * AVI文件解析结果
+     */
+    class AviFile(
+        val fileSize: Long,
+        val mainHeader: MainHeader,
+        val streams: List<Stream>,
+        val moviLists: List<MoviList>,
+        val index: Index?
+    ) {
+        val videoStream: Stream? get() = streams.firstOrNull { it.header.isVideo }
+        val audioStream: Stream? get() = streams.firstOrNull { it.header.isAudio }
+
+        /**
+         * 所有流头中的最大dwSuggestedBufferSize
+         */
+        val maxSuggestedBufferSize: Int
+            get() = streams.maxOfOrNull { it.header.suggestedBufferSize } ?: mainHeader.suggestedBufferSize
+
+        /**
+         * 所有流中实际的最大块大小
+         */
+        val maxChunkSize: Int
+            get() = streams.maxOfOrNull { it.maxChunkSize } ?: 0
+    }
+
+    private const val AVIH_MIN_SIZE = 40
+    private const val STRH_MIN_SIZE = 48
+    private const val BITMAPINFOHEADER_SIZE = 40
+    private const val WAVEFORMAT_MIN_SIZE = 16
+
+    /**
+     * 解析AVI文件
+     * @param file AVI文件
+     * @return 解析结果
+     * @throws AviFormatException 文件不是有效的AVI文件
+     * @throws IOException 读取文件失败
+     */
+    @JvmStatic
+    @Throws(IOException::class)
+    fun parse(file: File): AviFile {
+        RandomAccessFile(file, "r").use { raf ->
+            return parse(raf.channel)
+        }
+    }
+
+    /**
+     * 解析已打开的AVI文件（如通过文件描述符打开的content:// Uri），不关闭channel
+     * @param channel 可随机读取的文件通道
+     * @return 解析结果
+     * @throws AviFormatException 文件不是有效的AVI文件
+     * @throws IOException 读取文件失败
+     */
+    @JvmStatic
+    @Throws(IOException::class)
+    fun parse(channel: FileChannel): AviFile {
+        val fileSize = channel.size()
+        if (fileSize > Int.MAX_VALUE) {
+            throw AviFormatException("文件过大，不支持: $fileSize bytes")
+        }
+        val buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize)
+        buffer.order(ByteOrder.LITTLE_ENDIAN)
+        return Walker(buffer, fileSize).parse()
+    }
+
+    /**
+     * 读取四字符码
+     */
+    private fun MappedByteBuffer.fourCC(position: Int): String {
+        val chars = CharArray(4)
+        for (i in 0 until 4) {
+            chars[i] = (get(position + i).toInt() and 0xFF).toChar()
+        }
+        return String(chars)
+    }
+
+    private class Walker(
+        private val buffer: MappedByteBuffer,
+        private val fileSize: Long
+    ) {
+        private var mainHeader: MainHeader? = null
+        private val headers = ArrayList<StreamHeader>()
+        private val videoFormats = ArrayList<VideoFormat?>()
+        private val audioFormats = ArrayList<AudioFormat?>()
+        private val moviLists = ArrayList<MoviList>()
+        private var index: Index? = null
+        private val chunkOffsets = HashMap<Int, LongList>()
+        private val chunkSizes = HashMap<Int, IntList>()
+
+        fun parse(): AviFile {
+            if (fileSize < 12 || buffer.fourCC(0) != "RIFF" || buffer.fourCC(8) != "AVI ") {
+                throw AviFormatException("不是AVI文件")
+            }
+
+            // 顶层可能有多个RIFF块（OpenDML扩展的"AVIX"）
+            var position = 0L
+            while (position + 12 <= fileSize) {
+                val id = buffer.fourCC(position.toInt())
+                val size = chunkSize(position)
+                val end = minOf(fileSize, position + 8 + size)
+                if (id == "RIFF") {
+                    walkList(position + 12, end)
+                }
+                position = position + 8 + size + (size and 1L)
+            }
+
+            val avih = mainHeader ?: throw AviFormatException("缺少avih主头")
+            if (headers.isEmpty()) {
+                throw AviFormatException("缺少strh流头")
+            }
+
+            val streams = headers.indices.map { i ->
+                Stream(
+                    index = i,
+                    header = headers[i],
+                    videoFormat = videoFormats.getOrNull(i),
+                    audioFormat = audioFormats.getOrNull(i),
+                    chunkOffsets = chunkOffsets[i]?.toArray() ?: LongArray(0),
+                    chunkSizes = chunkSizes[i]?.toArray() ?: IntArray(0)
+                )
+            }
+            return AviFile(fileSize, avih, streams, moviLists, index)
+        }
+
+        /**
+         * 遍历[start, end)范围内的子块
+         */
+        private fun walkList(start: Long, end: Long) {
+            var position = start
+            while (position + 8 <= end) {
+                val id = buffer.fourCC(position.toInt())
+                val size = chunkSize(position)
+                val dataStart = position + 8
+                val dataEnd = minOf(end, dataStart + size)
+
+                when (id) {
+                    "LIST" -> {
+                        if (dataStart + 4 <= dataEnd) {
+                            when (buffer.fourCC(dataStart.toInt())) {
+                                "hdrl" -> walkList(dataStart + 4, dataEnd)
+                                "strl" -> walkStreamList(dataStart + 4, dataEnd)
+                                "movi" -> {
+                                    moviLists.add(MoviList(dataStart, dataEnd - dataStart))
+                                    walkMovi(dataStart + 4, dataEnd)
+                                }
+                            }
+                        }
+                    }
+                    "avih" -> if (dataEnd - dataStart >= AVIH_MIN_SIZE) {
+                        mainHeader = readMainHeader(dataStart)
+                    }
+                    "idx1" -> index = Index(dataStart, ((dataEnd - dataStart) / 16).toInt())
+                }
+                position = dataStart + size + (size and 1L)
+            }
+        }
+
+        /**
+         * 遍历strl列表（每个流一个：strh + strf + 可选的strd/strn/indx）
+         */
+        private fun walkStreamList(start: Long, end: Long) {
+            var header: StreamHeader? = null
+            var videoFormat: VideoFormat? = null
+            var audioFormat: AudioFormat? = null
+
+            var position = start
+            while (position + 8 <= end) {
+                val id = buffer.fourCC(position.toInt())
+                val size = chunkSize(position)
+                val dataStart = position + 8
+                val dataSize = minOf(end, dataStart + size) - dataStart
+
+                when (id) {
+                    "strh" -> if (dataSize >= STRH_MIN_SIZE) {
+                        header = readStreamHeader(dataStart)
+                    }
+                    "strf" -> when (header?.fccType) {
+                        "vids" -> if (dataSize >= BITMAPINFOHEADER_SIZE) {
+                            videoFormat = readVideoFormat(dataStart)
+                        }
+                        "auds" -> if (dataSize >= WAVEFORMAT_MIN_SIZE) {
+                            audioFormat = readAudioFormat(dataStart)
+                        }
+                    }
+                }
+                position = dataStart + size + (size and 1L)
+            }
+
+            header?.let {
+                headers.add(it)
+                videoFormats.add(videoFormat)
+                audioFormats.add(audioFormat)
+            }
+        }
+
+        /**
+         * 遍历movi列表，记录每个数据块的位置和大小（不读取数据）
+         * 数据块标识为"##dc"/"##db"/"##wb"，前两位是流序号；"LIST rec "分组需要递归
+         */
+        private fun walkMovi(start: Long, end: Long) {
+            var position = start
+            while (position + 8 <= end) {
+                val id = buffer.fourCC(position.toInt())
+                val size = chunkSize(position)
+                val dataStart = position + 8
+
+                if (id == "LIST") {
+                    walkMovi(dataStart + 4, minOf(end, dataStart + size))
+                } else {
+                    val streamIndex = streamIndexOf(id)
+                    if (streamIndex >= 0 && dataStart + size <= end) {
+                        chunkOffsets.getOrPut(streamIndex) { LongList() }.add(dataStart)
+                        chunkSizes.getOrPut(streamIndex) { IntList() }.add(size.toInt())
+                    }
+                }
+                position = dataStart + size + (size and 1L)
+            }
+        }
+
+        private fun streamIndexOf(id: String): Int {
+            val tens = id[0] - '0'
+            val ones = id[1] - '0'
+            if (tens !in 0..9 || ones !in 0..9) {
+                return -1
+            }
+            return tens * 10 + ones
+        }
+
+        private fun chunkSize(position: Long): Long {
+            return buffer.getInt(position.toInt() + 4).toLong() and 0xFFFFFFFFL
+        }
+
+        private fun int(position: Long): Int = buffer.getInt(position.toInt())
+
+        private fun short(position: Long): Int = buffer.getShort(position.toInt()).toInt() and 0xFFFF
+
+        private fun readMainHeader(offset: Long) = MainHeader(
+            offset = offset,
+            microSecPerFrame = int(offset),
+            maxBytesPerSec = int(offset + 0x04),
+            flags = int(offset + 0x0C),
+            totalFrames = int(offset + 0x10),
+            initialFrames = int(offset + 0x14),
+            streams = int(offset + 0x18),
+            suggestedBufferSize = int(offset + MainHeader.SUGGESTED_BUFFER_SIZE_OFFSET),
+            width = int(offset + 0x20),
+            height = int(offset + 0x24)
+        )
+
+        private fun readStreamHeader(offset: Long) = StreamHeader(
+            offset = offset,
+            fccType = buffer.fourCC(offset.toInt()),
+            fccHandler = buffer.fourCC(offset.toInt() + 0x04),
+            flags = int(offset + 0x08),
+            priority = short(offset + 0x0C),
+            language = short(offset + 0x0E),
+            initialFrames = int(offset + 0x10),
+            scale = int(offset + 0x14),
+            rate = int(offset + 0x18),
+            start = int(offset + 0x1C),
+            length = int(offset + 0x20),
+            suggestedBufferSize = int(offset + StreamHeader.SUGGESTED_BUFFER_SIZE_OFFSET),
+            quality = int(offset + 0x28),
+            sampleSize = int(offset + 0x2C)
+        )
+
+        private fun readVideoFormat(offset: Long) = VideoFormat(
+            width = int(offset + 0x04),
+            height = int(offset + 0x08),
+            bitCount = short(offset + 0x0E),
+            compression = buffer.fourCC(offset.toInt() + 0x10),
+            sizeImage = int(offset + 0x14)
+        )
+
+        private fun readAudioFormat(offset: Long) = AudioFormat(
+            formatTag = short(offset),
+            channels = short(offset + 0x02),
+            samplesPerSec = int(offset + 0x04),
+            avgBytesPerSec = int(offset + 0x08),
+            blockAlign = short(offset + 0x0C),
+            bitsPerSample = short(offset + 0x0E)
+        )
+    }
+
+    /**
+     * 简单的基本类型动态数组，避免逐块装箱
+     */
+    private class IntList {
+        private var data = IntArray(64)
+        private var size = 0
+
+        fun add(value: Int) {
+            if (size == data.size) {
+                data = data.copyOf(size * 2)
+            }
+            data[size++] = value
+        }
+
+        fun toArray(): IntArray = data.copyOf(size)
+    }
+
+    private class LongList {
+        private var data = LongArray(64)
+        private var size = 0
+
+        fun add(value: Long) {
+            if (size == data.size) {
+                data = data.copyOf(size * 2)
+            }
+            data[size++] = value
+        }
+
+        fun toArray(): LongArray = data.copyOf(size)
+    }
+}
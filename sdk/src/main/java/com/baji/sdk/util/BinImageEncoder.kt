@@ -0,0 +1,360 @@
+package com.baji.sdk.util
+
+import java.io.OutputStream
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+/**
+ * 设备bin图片编码（纯Kotlin实现，不依赖杰理BmpConvert的native库）
+ * 输出与BmpConvert逐字节一致，输入为Bitmap.getPixels得到的ARGB像素数组，可以在普通JVM和任意线程上运行
+ *
+ * 文件结构：0x50字节文件头 + 0x400字节保留区（全0）+ 数据区
+ * - BR_28（701N RGB）：每行转换为RGB565（高字节在前）后单独做RLE，数据区开头是每行一项的索引表
+ * - 707N_ARGB（ARGB8565格式）：每像素3字节（RGB565小端 + Alpha），按8x8块蛇形扫描后分块RLE，
+ *   数据区开头是每块一项的索引表，压缩后不小于原始大小的块直接存原始数据
+ *
+ * BmpConvert对707N_ARGB默认（FORMAT_AUTO）在ETC2压缩结果更小时输出ETC2格式，这里只实现ARGB8565格式，
+ * 与BmpConvert设置ConvertParam.FORMAT_ARGB_8565时的输出一致
+ */
+object BinImageEncoder {
+
+    private const val HEADER_SIZE = 0x50
+    private const val RESERVED_SIZE = 0x400
+    private const val DATA_OFFSET = HEADER_SIZE + RESERVED_SIZE
+
+    private const val BR28_MAGIC = 0x30335552  // "RU30"
+    private const val BR28_VERSION = 0x03
+    private const val BR28_FORMAT = 0x24010000
+    private const val ARGB8565_MAGIC = 0x30355552  // "RU50"
+    private const val ARGB8565_VERSION = 0x05
+    private const val ARGB8565_FORMAT = 0x00208001
+
+    private const val MAX_RLE_COUNT = 127  // RLE每段最多127个单元，最高位区分重复段和原样段
+    private const val RLE_REPEAT_FLAG = 0x80
+
+    private const val BLOCK_SIZE = 8  // ARGB8565分块边长
+    private const val BLOCK_BYTES = BLOCK_SIZE * BLOCK_SIZE * 3
+    private const val BLOCK_RAW_FLAG = 0x80000000.toInt()  // 块索引中表示存原始数据
+
+    // CRC-16/XMODEM（多项式0x1021，初值0），按半字节查表
+    private val CRC16_TABLE = IntArray(16) { index ->
+        var crc = index shl 12
+        repeat(4) {
+            crc = if (crc and 0x8000 != 0) (crc shl 1) xor 0x1021 else crc shl 1
+        }
+        crc and 0xFFFF
+    }
+
+    /**
+     * 编码为BR_28格式（BmpConvert.TYPE_BR_28，不含透明度）
+     * @param pixels ARGB像素，按行存储
+     * @return 完整的bin文件内容
+     */
+    @JvmStatic
+    fun encodeBr28(pixels: IntArray, width: Int, height: Int): ByteArray {
+        val buffer = ByteArray(br28BufferSize(width, height))
+        val dataSize = encodeBr28Data(pixels, width, height, buffer)
+        return buildFile(BR28_MAGIC, BR28_VERSION, BR28_FORMAT, width, height, buffer, dataSize)
+    }
+
+    /**
+     * 编码为BR_28格式并写入输出流，使用调用方提供的缓冲区（可以复用，避免每次分配）
+     * @param buffer 长度不小于br28BufferSize(width, height)
+     */
+    @JvmStatic
+    fun encodeBr28(pixels: IntArray, width: Int, height: Int, buffer: ByteArray, output: OutputStream) {
+        val dataSize = encodeBr28Data(pixels, width, height, buffer)
+        output.write(buildHeader(BR28_MAGIC, BR28_VERSION, BR28_FORMAT, width, height, buffer, dataSize))
+        output.write(buffer, 0, dataSize)
+    }
+
+    /**
+     * encodeBr28写入输出流时需要的缓冲区大小
+     * 索引表 + 最坏情况下的RLE数据（每个单元多1字节）+ 一行RGB565
+     */
+    @JvmStatic
+    fun br28BufferSize(width: Int, height: Int): Int = height * 4 + height * width * 3 + width * 2
+
+    /**
+     * 将BR_28数据区（索引表 + 各行RLE数据）写入buffer开头，缓冲区末尾用于存放转换中的一行
+     * @return 数据区大小
+     */
+    private fun encodeBr28Data(pixels: IntArray, width: Int, height: Int, buffer: ByteArray): Int {
+        checkSize(pixels, width, height)
+        val rowBytes = width * 2
+        val bufferSize = br28BufferSize(width, height)
+        require(buffer.size >= bufferSize) { "缓冲区不足: ${buffer.size}, 需要: $bufferSize" }
+        val row = bufferSize - rowBytes
+        var offset = height * 4
+        for (y in 0 until height) {
+            var index = y * width
+            var i = row
+            while (i < bufferSize) {
+                val pixel = pixels[index++]
+                val r = (pixel shr 16) and 0xFF
+                val g = (pixel shr 8) and 0xFF
+                val b = pixel and 0xFF
+                buffer[i] = ((r and 0xF8) or (g shr 5)).toByte()
+                buffer[i + 1] = (((g shl 3) and 0xE0) or (b shr 3)).toByte()
+                i += 2
+            }
+            val size = rleEncode(buffer, row, width, 2, 3, buffer, offset)
+            writeIntLE(buffer, y * 4, (size shl 21) or (offset and 0x1FFFFF))
+            offset += size
+        }
+        return offset
+    }
+
+    /**
+     * 编码为BR_28格式
+     * @param pixels BmpConvert原始像素文件的格式（每像素4字节，依次为B、G、R、A）
+     */
+    @JvmStatic
+    fun encodeBr28(pixels: ByteBuffer, width: Int, height: Int): ByteArray {
+        return encodeBr28(readPixels(pixels, width, height), width, height)
+    }
+
+    /**
+     * 编码为707N_ARGB的ARGB8565格式
+     * @param pixels BmpConvert原始像素文件的格式（每像素4字节，依次为B、G、R、A）
+     */
+    @JvmStatic
+    fun encodeArgb8565(pixels: ByteBuffer, width: Int, height: Int): ByteArray {
+        return encodeArgb8565(readPixels(pixels, width, height), width, height)
+    }
+
+    /**
+     * 编码为707N_ARGB的ARGB8565格式（BmpConvert.TYPE_707N_ARGB + ConvertParam.FORMAT_ARGB_8565）
+     * @param pixels ARGB像素（不预乘透明度），按行存储
+     * @return 完整的bin文件内容
+     */
+    @JvmStatic
+    fun encodeArgb8565(pixels: IntArray, width: Int, height: Int): ByteArray {
+        checkSize(pixels, width, height)
+        val blocksX = (width + BLOCK_SIZE - 1) / BLOCK_SIZE
+        val blocksY = (height + BLOCK_SIZE - 1) / BLOCK_SIZE
+        val tableSize = blocksX * blocksY * 4
+        val block = ByteArray(BLOCK_BYTES)
+        // 压缩后不小于原始大小的块存原始数据，每块最多BLOCK_BYTES字节
+        val data = ByteArray(tableSize + blocksX * blocksY * BLOCK_BYTES)
+        val packed = ByteArray(BLOCK_SIZE * BLOCK_SIZE * 4)
+        var offset = tableSize
+        var entry = 0
+        for (by in 0 until blocksY) {
+            val blockHeight = if (by < blocksY - 1) BLOCK_SIZE else height - by * BLOCK_SIZE
+            for (bx in 0 until blocksX) {
+                val blockWidth = if (bx < blocksX - 1) BLOCK_SIZE else width - bx * BLOCK_SIZE
+                // 蛇形扫描：偶数行从左到右、奇数行从右到左
+                // 不足8x8的边缘块，右侧用本行最后一个像素补齐，下方用块内右下角的像素补齐
+                val corner = pixels[(by * BLOCK_SIZE + blockHeight - 1) * width + bx * BLOCK_SIZE + blockWidth - 1]
+                for (j in 0 until BLOCK_SIZE) {
+                    val rowStart = (by * BLOCK_SIZE + j) * width + bx * BLOCK_SIZE
+                    val odd = j and 1 != 0
+                    for (i in 0 until BLOCK_SIZE) {
+                        val pixel = when {
+                            j >= blockHeight -> corner
+                            i >= blockWidth -> pixels[rowStart + blockWidth - 1]
+                            else -> pixels[rowStart + i]
+                        }
+                        val target = (j * BLOCK_SIZE + if (odd) BLOCK_SIZE - 1 - i else i) * 3
+                        val r = (pixel shr 16) and 0xFF
+                        val g = (pixel shr 8) and 0xFF
+                        val b = pixel and 0xFF
+                        block[target] = (((g shl 3) and 0xE0) or (b shr 3)).toByte()
+                        block[target + 1] = ((r and 0xF8) or (g shr 5)).toByte()
+                        block[target + 2] = (pixel ushr 24).toByte()
+                    }
+                }
+                var size = rleEncode(block, 0, BLOCK_SIZE * BLOCK_SIZE, 3, 2, packed, 0)
+                var flag = 0
+                if (size < BLOCK_BYTES) {
+                    System.arraycopy(packed, 0, data, offset, size)
+                } else {
+                    System.arraycopy(block, 0, data, offset, BLOCK_BYTES)
+                    size = BLOCK_BYTES
+                    flag = BLOCK_RAW_FLAG
+                }
+                writeIntLE(data, entry, flag or (offset and 0x3FFFFF) or ((size shl 22) and 0x7FC00000))
+                entry += 4
+                offset += size
+            }
+        }
+        return buildFile(ARGB8565_MAGIC, ARGB8565_VERSION, ARGB8565_FORMAT, width, height, data, offset)
+    }
+
+    /**
+     * RLE编码（与BmpConvert的Rle_Encode一致）
+     * 每段以1字节开头：最高位为1表示重复段（低7位为重复次数，后跟1个单元），为0表示原样段（低7位为单元数，后跟这些单元）；
+     * 开头连续minRun个相同单元时输出重复段，否则输出原样段直到遇到minRun个连续相同的单元
+     * @param unit 每个单元的字节数
+     * @param count 单元数
+     * @return 写入dst的字节数
+     */
+    private fun rleEncode(
+        src: ByteArray,
+        srcOffset: Int,
+        count: Int,
+        unit: Int,
+        minRun: Int,
+        dst: ByteArray,
+        dstOffset: Int
+    ): Int {
+        var position = srcOffset
+        var remaining = count
+        var out = dstOffset
+        while (remaining > 0) {
+            if (remaining >= minRun && startsWithRun(src, position, unit, minRun)) {
+                var run = 1
+                while (run < remaining && run < MAX_RLE_COUNT && unitEquals(src, position, position + run * unit, unit)) {
+                    run++
+                }
+                dst[out++] = (run or RLE_REPEAT_FLAG).toByte()
+                System.arraycopy(src, position, dst, out, unit)
+                out += unit
+                position += run * unit
+                remaining -= run
+            } else {
+                var literal = 0
+                var previous = position
+                var same = 0
+                var i = 0
+                while (true) {
+                    if (i == remaining) {
+                        literal = remaining
+                        break
+                    }
+                    val current = position + i * unit
+                    if (unitEquals(src, previous, current, unit)) {
+                        same++
+                        if (same == minRun) {
+                            literal = i - minRun + 1
+                            break
+                        }
+                    } else {
+                        previous = current
+                        same = 1
+                    }
+                    i++
+                    if (i == MAX_RLE_COUNT) {
+                        literal = MAX_RLE_COUNT
+                        break
+                    }
+                }
+                dst[out++] = literal.toByte()
+                System.arraycopy(src, position, dst, out, literal * unit)
+                out += literal * unit
+                position += literal * unit
+                remaining -= literal
+            }
+        }
+        return out - dstOffset
+    }
+
+    private fun startsWithRun(src: ByteArray, position: Int, unit: Int, minRun: Int): Boolean {
+        for (k in 1 until minRun) {
+            if (!unitEquals(src, position, position + k * unit, unit)) {
+                return false
+            }
+        }
+        return true
+    }
+
+    private fun unitEquals(src: ByteArray, a: Int, b: Int, unit: Int): Boolean {
+        for (k in 0 until unit) {
+            if (src[a + k] != src[b + k]) {
+                return false
+            }
+        }
+        return true
+    }
+
+    /**
+     * 组装完整的bin文件
+     */
+    private fun buildFile(
+        magic: Int,
+        version: Int,
+        format: Int,
+        width: Int,
+        height: Int,
+        data: ByteArray,
+        dataSize: Int
+    ): ByteArray {
+        val file = buildHeader(magic, version, format, width, height, data, dataSize).copyOf(DATA_OFFSET + dataSize)
+        System.arraycopy(data, 0, file, DATA_OFFSET, dataSize)
+        return file
+    }
+
+    /**
+     * 组装文件头和保留区（数据区之前的部分）
+     */
+    private fun buildHeader(
+        magic: Int,
+        version: Int,
+        format: Int,
+        width: Int,
+        height: Int,
+        data: ByteArray,
+        dataSize: Int
+    ): ByteArray {
+        val header = ByteArray(DATA_OFFSET)
+        writeIntLE(header, 0x00, magic)
+        header[0x05] = version.toByte()
+        header[0x06] = 0x01
+        header[0x08] = 0x01
+        writeIntLE(header, 0x14, 0x18)
+        writeIntLE(header, 0x18, 0x30)
+        writeIntLE(header, 0x1C, 0x00540001)
+        writeIntLE(header, 0x24, 0x3C)
+        writeIntLE(header, 0x28, 0x00500001)
+        writeIntLE(header, 0x30, 0x100)
+        writeIntLE(header, 0x34, HEADER_SIZE)
+        writeIntLE(header, 0x38, RESERVED_SIZE)
+        writeShortLE(header, 0x3E, crc16(data, 0, dataSize))
+        writeIntLE(header, 0x40, format)
+        writeShortLE(header, 0x44, width)
+        writeShortLE(header, 0x46, height)
+        writeIntLE(header, 0x48, dataSize)
+        writeIntLE(header, 0x4C, DATA_OFFSET)
+        // 头校验覆盖数据校验值到数据偏移之间的18字节
+        writeShortLE(header, 0x3C, crc16(header, 0x3E, 0x12))
+        return header
+    }
+
+    /**
+     * CRC-16/XMODEM
+     */
+    @JvmStatic
+    fun crc16(data: ByteArray, offset: Int, length: Int): Int {
+        var crc = 0
+        for (i in offset until offset + length) {
+            val value = data[i].toInt() and 0xFF
+            crc = ((crc shl 4) xor CRC16_TABLE[((crc shr 12) xor (value shr 4)) and 0x0F]) and 0xFFFF
+            crc = ((crc shl 4) xor CRC16_TABLE[((crc shr 12) xor value) and 0x0F]) and 0xFFFF
+        }
+        return crc
+    }
+
+    private fun readPixels(buffer: ByteBuffer, width: Int, height: Int): IntArray {
+        val pixels = IntArray(width * height)
+        buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(pixels)
+        return pixels
+    }
+
+    private fun checkSize(pixels: IntArray, width: Int, height: Int) {
+        require(width in 1..0xFFFF && height in 1..0xFFFF) { "图片尺寸无效: ${width}x$height" }
+        require(pixels.size >= width * height) { "像素数量不足: ${pixels.size}, 需要: ${width * height}" }
+    }
+
+    private fun writeIntLE(buffer: ByteArray, position: Int, value: Int) {
+        buffer[position] = value.toByte()
+        buffer[position + 1] = (value shr 8).toByte()
+        buffer[position + 2] = (value shr 16).toByte()
+        buffer[position + 3] = (value shr 24).toByte()
+    }
+
+    private fun writeShortLE(buffer: ByteArray, position: Int, value: Int) {
+        buffer[position] = value.toByte()
+        buffer[position + 1] = (value shr 8).toByte()
+    }
+}
@@ -0,0 +1,200 @@
+package com.baji.sdk.util
+
+import android.content.ComponentCallbacks2
+import android.graphics.Bitmap
+import android.graphics.Color
+
+/**
+ * 图片转换的Bitmap和缓冲区复用池
+ * 批量转换时每张图都要分配解码Bitmap、缩放目标Bitmap和像素缓冲区，反复分配会导致频繁GC，
+ * 转换结束后把这些对象放回池中，下一张图按字节数取出复用：
+ * - Bitmap：作为BitmapFactory的inBitmap，或reconfigure为需要的尺寸后作为缩放、遮罩的目标
+ * - IntArray/ByteArray：读取像素和编码bin时的缓冲区，长度可能大于请求的长度
+ *
+ * 池中对象总大小不超过maxBytes，超出时先淘汰最早放入的对象；线程安全
+ * 放回池中的对象之后可能被其他转换使用，放回后调用方不能再访问
+ */
+class BitmapPool(private val maxBytes: Long) {
+
+    /**
+     * 复用统计
+     * @param hitCount 从池中取到对象的次数
+     * @param missCount 池中没有合适对象、需要新分配的次数
+     * @param size 池中对象总大小（字节）
+     * @param maxSize 池的大小上限（字节）
+     */
+    data class Stats(
+        val hitCount: Long,
+        val missCount: Long,
+        val size: Long,
+        val maxSize: Long
+    )
+
+    // 按放入顺序排列，淘汰时从头部开始
+    private val entries = ArrayList<Any>()
+    private var currentBytes = 0L
+    private var hitCount = 0L
+    private var missCount = 0L
+
+    /**
+     * 取出指定尺寸的Bitmap（内容已清空为透明），池中没有合适的Bitmap时新建
+     */
+    @Synchronized
+    fun getBitmap(width: Int, height: Int, config: Bitmap.Config): Bitmap {
+        val bitmap = takeBitmap(width, height, config)
+        if (bitmap != null) {
+            bitmap.reconfigure(width, height, config)
+            bitmap.eraseColor(Color.TRANSPARENT)
+            return bitmap
+        }
+        return Bitmap.createBitmap(width, height, config)
+    }
+
+    /**
+     * 取出可以作为BitmapFactory.Options.inBitmap的Bitmap（内存不小于指定尺寸所需）
+     * @return 池中没有合适的Bitmap时返回null
+     */
+    @Synchronized
+    fun getReusableBitmap(width: Int, height: Int, config: Bitmap.Config): Bitmap? {
+        return takeBitmap(width, height, config)
+    }
+
+    /**
+     * 取出长度不小于size的IntArray，池中没有时新建
+     */
+    @Synchronized
+    fun getIntArray(size: Int): IntArray {
+        val array = takeBestFit { entry -> if (entry is IntArray && entry.size >= size) entry.size * 4L else null }
+        return array as IntArray? ?: IntArray(size)
+    }
+
+    /**
+     * 取出长度不小于size的ByteArray，池中没有时新建
+     */
+    @Synchronized
+    fun getByteArray(size: Int): ByteArray {
+        val array = takeBestFit { entry -> if (entry is ByteArray && entry.size >= size) entry.size.toLong() else null }
+        return array as ByteArray? ?: ByteArray(size)
+    }
+
+    /**
+     * 放回Bitmap，不可复用（不可变、已回收、硬件Bitmap）或超过上限时直接回收
+     */
+    @Synchronized
+    fun put(bitmap: Bitmap) {
+        if (bitmap.isRecycled) {
+            return
+        }
+        if (!bitmap.isMutable || bitmap.config == Bitmap.Config.HARDWARE || bitmap.allocationByteCount > maxBytes) {
+            bitmap.recycle()
+            return
+        }
+        add(bitmap, bitmap.allocationByteCount.toLong())
+    }
+
+    /**
+     * 放回IntArray
+     */
+    @Synchronized
+    fun put(array: IntArray) {
+        if (array.size * 4L <= maxBytes) {
+            add(array, array.size * 4L)
+        }
+    }
+
+    /**
+     * 放回ByteArray
+     */
+    @Synchronized
+    fun put(array: ByteArray) {
+        if (array.size <= maxBytes) {
+            add(array, array.size.toLong())
+        }
+    }
+
+    /**
+     * 系统内存紧张时释放池中的对象（ComponentCallbacks2.onTrimMemory）
+     * 前台运行且内存略紧张时释放一半，其余情况全部释放
+     */
+    @Synchronized
+    fun trimMemory(level: Int) {
+        if (level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            trimTo(maxBytes / 2)
+        } else {
+            trimTo(0)
+        }
+    }
+
+    /**
+     * 清空复用池
+     */
+    @Synchronized
+    fun clear() {
+        trimTo(0)
+    }
+
+    /**
+     * 复用统计
+     */
+    @Synchronized
+    fun stats(): Stats = Stats(hitCount, missCount, currentBytes, maxBytes)
+
+    private fun takeBitmap(width: Int, height: Int, config: Bitmap.Config): Bitmap? {
+        val required = width.toLong() * height * bytesPerPixel(config)
+        val bitmap = takeBestFit { entry ->
+            if (entry is Bitmap && entry.allocationByteCount >= required) entry.allocationByteCount.toLong() else null
+        }
+        return bitmap as Bitmap?
+    }
+
+    /**
+     * 取出满足条件且占用最小的对象，并统计命中/未命中
+     * @param sizeOf 返回对象大小，不满足条件时返回null
+     */
+    private fun takeBestFit(sizeOf: (Any) -> Long?): Any? {
+        var bestIndex = -1
+        var bestSize = Long.MAX_VALUE
+        for (i in entries.indices) {
+            val size = sizeOf(entries[i]) ?: continue
+            if (size < bestSize) {
+                bestIndex = i
+                bestSize = size
+            }
+        }
+        if (bestIndex < 0) {
+            missCount++
+            return null
+        }
+        hitCount++
+        currentBytes -= bestSize
+        return entries.removeAt(bestIndex)
+    }
+
+    private fun add(entry: Any, size: Long) {
+        entries.add(entry)
+        currentBytes += size
+        trimTo(maxBytes)
+    }
+
+    private fun trimTo(limit: Long) {
+        while (currentBytes > limit && entries.isNotEmpty()) {
+            val entry = entries.removeAt(0)
+            currentBytes -= sizeOf(entry)
+            (entry as? Bitmap)?.recycle()
+        }
+    }
+
+    private fun sizeOf(entry: Any): Long = when (entry) {
+        is Bitmap -> entry.allocationByteCount.toLong()
+        is IntArray -> entry.size * 4L
+        is ByteArray -> entry.size.toLong()
+        else -> 0L
+    }
+
+    private fun bytesPerPixel(config: Bitmap.Config): Int = when (config) {
+        Bitmap.Config.ALPHA_8 -> 1
+        Bitmap.Config.RGB_565, Bitmap.Config.ARGB_4444 -> 2
+        Bitmap.Config.RGBA_F16 -> 8
+        else -> 4
+    }
+}
@@ -0,0 +1,141 @@
+package com.baji.sdk.util
+
+import android.graphics.Bitmap
+import android.graphics.Canvas
+import android.graphics.Matrix
+import android.graphics.Paint
+import android.graphics.Rect
+import android.graphics.RectF
+import com.baji.sdk.model.ImageConvertParams
+import kotlin.math.ceil
+
+/**
+ * 图片裁剪缩放
+ * 按缩放模式计算源区域和目标区域，用一个Matrix把源区域直接绘制到目标尺寸的Bitmap上，裁剪和缩放一次完成：
+ * - CENTER_CROP：保持宽高比铺满目标尺寸，居中裁掉超出的部分
+ * - FIT：保持宽高比完整显示在目标尺寸内，不足部分透明（bin和JPEG中为黑色）
+ * - STRETCH：拉伸到目标尺寸，不保持宽高比
+ *
+ * 双线性插值缩小超过2倍时会跳过部分源像素，产生锯齿，这种情况先逐次缩小一半
+ * （每次2:1的双线性插值相当于2x2区域平均），剩余不足2倍的部分再一次绘制到目标Bitmap
+ */
+object BitmapScaler {
+
+    /**
+     * 缩小倍数达到该值时先逐次缩小一半
+     */
+    private const val STEP_RATIO = 2f
+
+    /**
+     * 绘制区域（浮点坐标，right/bottom不包含）
+     */
+    data class Bounds(val left: Float, val top: Float, val right: Float, val bottom: Float) {
+        val width: Float get() = right - left
+        val height: Float get() = bottom - top
+
+        fun toRectF(): RectF = RectF(left, top, right, bottom)
+    }
+
+    /**
+     * 计算源图中参与绘制的区域
+     * @return 源区域（源图坐标）
+     */
+    @JvmStatic
+    fun sourceRect(
+        sourceWidth: Int,
+        sourceHeight: Int,
+        targetWidth: Int,
+        targetHeight: Int,
+        mode: ImageConvertParams.ScaleMode
+    ): Bounds {
+        if (mode != ImageConvertParams.ScaleMode.CENTER_CROP ||
+            sourceWidth.toLong() * targetHeight == sourceHeight.toLong() * targetWidth
+        ) {
+            return Bounds(0f, 0f, sourceWidth.toFloat(), sourceHeight.toFloat())
+        }
+        return if (sourceWidth.toLong() * targetHeight > sourceHeight.toLong() * targetWidth) {
+            // 源图更宽，裁掉左右两侧
+            val width = sourceHeight.toFloat() * targetWidth / targetHeight
+            val left = (sourceWidth - width) / 2f
+            Bounds(left, 0f, left + width, sourceHeight.toFloat())
+        } else {
+            // 源图更高，裁掉上下两侧
+            val height = sourceWidth.toFloat() * targetHeight / targetWidth
+            val top = (sourceHeight - height) / 2f
+            Bounds(0f, top, sourceWidth.toFloat(), top + height)
+        }
+    }
+
+    /**
+     * 计算目标Bitmap中绘制内容的区域
+     * @return 目标区域（目标坐标），FIT模式下居中，其余模式为整个目标
+     */
+    @JvmStatic
+    fun targetRect(
+        sourceWidth: Int,
+        sourceHeight: Int,
+        targetWidth: Int,
+        targetHeight: Int,
+        mode: ImageConvertParams.ScaleMode
+    ): Bounds {
+        if (mode != ImageConvertParams.ScaleMode.FIT) {
+            return Bounds(0f, 0f, targetWidth.toFloat(), targetHeight.toFloat())
+        }
+        val scale = minOf(targetWidth.toFloat() / sourceWidth, targetHeight.toFloat() / sourceHeight)
+        val width = sourceWidth * scale
+        val height = sourceHeight * scale
+        val left = (targetWidth - width) / 2f
+        val top = (targetHeight - height) / 2f
+        return Bounds(left, top, left + width, top + height)
+    }
+
+    /**
+     * 裁剪缩放到目标尺寸
+     * 目标Bitmap和逐次缩小的中间Bitmap都从复用池取出，中间Bitmap用完后放回；source由调用方处理
+     * @return 目标尺寸的新Bitmap（与source颜色格式相同）
+     */
+    @JvmStatic
+    fun scale(
+        source: Bitmap,
+        targetWidth: Int,
+        targetHeight: Int,
+        mode: ImageConvertParams.ScaleMode,
+        pool: BitmapPool
+    ): Bitmap {
+        val config = source.config ?: Bitmap.Config.ARGB_8888
+        val paint = Paint(Paint.FILTER_BITMAP_FLAG or Paint.DITHER_FLAG)
+        val srcRect = sourceRect(source.width, source.height, targetWidth, targetHeight, mode).toRectF()
+        val dstRect = targetRect(source.width, source.height, targetWidth, targetHeight, mode).toRectF()
+
+        // 缩小超过2倍时先逐次缩小一半
+        var current = source
+        var currentRect = srcRect
+        while (currentRect.width() / dstRect.width() >= STEP_RATIO && currentRect.height() / dstRect.height() >= STEP_RATIO) {
+            val width = ceil(currentRect.width() / 2f).toInt()
+            val height = ceil(currentRect.height() / 2f).toInt()
+            val half = pool.getBitmap(width, height, config)
+            Canvas(half).drawBitmap(current, roundOut(currentRect), Rect(0, 0, width, height), paint)
+            if (current !== source) {
+                pool.put(current)
+            }
+            current = half
+            currentRect = RectF(0f, 0f, width.toFloat(), height.toFloat())
+        }
+
+        val target = pool.getBitmap(targetWidth, targetHeight, config)
+        val matrix = Matrix().apply { setRectToRect(currentRect, dstRect, Matrix.ScaleToFit.FILL) }
+        val canvas = Canvas(target)
+        canvas.clipRect(dstRect)
+        canvas.drawBitmap(current, matrix, paint)
+        if (current !== source) {
+            pool.put(current)
+        }
+        return target
+    }
+
+    private fun roundOut(rect: RectF): Rect {
+        val result = Rect()
+        rect.roundOut(result)
+        return result
+    }
+}
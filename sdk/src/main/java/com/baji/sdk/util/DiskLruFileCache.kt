@@ -0,0 +1,177 @@
+package com.baji.sdk.util
+
+import java.io.File
+import java.io.IOException
+import java.io.InputStream
+import java.security.MessageDigest
+
+/**
+ * 按内容寻址的磁盘文件缓存
+ * 每个条目是目录下以key命名的一个文件，按最近访问时间LRU淘汰，总大小不超过maxBytes
+ *
+ * 写入时先完整写到临时文件，再rename为正式文件，读取方只会看到完整的文件；
+ * 访问时间保存在文件的lastModified中，进程重启后LRU顺序仍然有效
+ */
+class DiskLruFileCache(
+    private val directory: File,
+    private val maxBytes: Long
+) {
+    private val TEMP_SUFFIX = ".tmp"
+
+    // key -> 文件大小，accessOrder=true，迭代顺序即从最久未访问到最近访问
+    private val entries = LinkedHashMap<String, Long>(16, 0.75f, true)
+    private var totalBytes = 0L
+
+    init {
+        directory.mkdirs()
+        val files = directory.listFiles() ?: emptyArray()
+        // 上次进程中断时留下的临时文件直接删除
+        files.filter { it.name.endsWith(TEMP_SUFFIX) }.forEach { it.delete() }
+        files.filter { it.isFile && !it.name.endsWith(TEMP_SUFFIX) }
+            .sortedBy { it.lastModified() }
+            .forEach {
+                entries[it.name] = it.length()
+                totalBytes += it.length()
+            }
+        trimToSize()
+    }
+
+    /**
+     * 读取缓存
+     * @return 缓存文件，未命中时返回null
+     */
+    @Synchronized
+    fun get(key: String): File? {
+        val size = entries[key] ?: return null
+        val file = File(directory, key)
+        if (!file.exists()) {
+            entries.remove(key)
+            totalBytes -= size
+            return null
+        }
+        file.setLastModified(System.currentTimeMillis())
+        return file
+    }
+
+    /**
+     * 将文件复制到缓存
+     * 先复制到临时文件再rename，复制中途失败不会留下不完整的缓存条目
+     * @return 缓存中的文件
+     */
+    @Throws(IOException::class)
+    fun put(key: String, source: File): File {
+        val temp = newTempFile(key)
+        try {
+            source.copyTo(temp, overwrite = true)
+            return publish(key, temp)
+        } finally {
+            temp.delete()
+        }
+    }
+
+    /**
+     * 将已写完的临时文件发布为缓存条目
+     * @param temp 与缓存目录在同一文件系统上的临时文件
+     */
+    @Synchronized
+    @Throws(IOException::class)
+    fun publish(key: String, temp: File): File {
+        val target = File(directory, key)
+        entries.remove(key)?.let { totalBytes -= it }
+        if (!temp.renameTo(target)) {
+            throw IOException("无法发布缓存文件: ${temp.name} -> $key")
+        }
+        target.setLastModified(System.currentTimeMillis())
+        entries[key] = target.length()
+        totalBytes += target.length()
+        trimToSize()
+        return target
+    }
+
+    /**
+     * 创建与缓存目录在同一文件系统上的临时文件，写完后调用publish发布
+     */
+    fun newTempFile(key: String): File {
+        return File(directory, "$key.${System.nanoTime()}$TEMP_SUFFIX")
+    }
+
+    /**
+     * 删除缓存条目
+     */
+    @Synchronized
+    fun remove(key: String) {
+        entries.remove(key)?.let {
+            totalBytes -= it
+            File(directory, key).delete()
+        }
+    }
+
+    /**
+     * 清空缓存
+     */
+    @Synchronized
+    fun clear() {
+        entries.keys.forEach { File(directory, it).delete() }
+        entries.clear()
+        totalBytes = 0
+    }
+
+    /**
+     * 当前缓存总大小（字节）
+     */
+    @Synchronized
+    fun size(): Long = totalBytes
+
+    /**
+     * 按LRU顺序淘汰，直到总大小不超过上限（最近写入的条目总是保留）
+     */
+    private fun trimToSize() {
+        val iterator = entries.entries.iterator()
+        while (totalBytes > maxBytes && entries.size > 1 && iterator.hasNext()) {
+            val entry = iterator.next()
+            totalBytes -= entry.value
+            File(directory, entry.key).delete()
+            iterator.remove()
+        }
+    }
+
+    companion object {
+        /**
+         * 计算缓存key（多个部分依次写入SHA-256，返回十六进制字符串）
+         */
+        @JvmStatic
+        fun hashKey(vararg parts: String): String {
+            val digest = MessageDigest.getInstance("SHA-256")
+            parts.forEach {
+                digest.update(it.toByteArray(Charsets.UTF_8))
+                digest.update(0)
+            }
+            return digest.digest().joinToString("") { "%02x".format(it) }
+        }
+
+        /**
+         * 计算文件内容的SHA-256
+         */
+        @JvmStatic
+        @Throws(IOException::class)
+        fun hashFile(file: File): String {
+            return file.inputStream().use { hashStream(it) }
+        }
+
+        /**
+         * 计算输入流内容的SHA-256（读到流结束，不关闭流）
+         */
+        @JvmStatic
+        @Throws(IOException::class)
+        fun hashStream(input: InputStream): String {
+            val digest = MessageDigest.getInstance("SHA-256")
+            val buffer = ByteArray(64 * 1024)
+            while (true) {
+                val read = input.read(buffer)
+                if (read < 0) break
+                digest.update(buffer, 0, read)
+            }
+            return digest.digest().joinToString("") { "%02x".format(it) }
+        }
+    }
+}
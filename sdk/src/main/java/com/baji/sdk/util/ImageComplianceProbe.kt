@@ -0,0 +1,116 @@
+package com.baji.sdk.util
+
+import android.graphics.BitmapFactory
+import com.baji.sdk.model.ImageConvertParams
+import java.io.File
+
+/**
+ * 图片设备兼容性检查
+ * 只读取图片头信息（不解码像素），判断输入是否已经满足设备要求，跳过不需要的转换步骤：
+ * 1. 之前由SDK生成、尺寸和算法一致的bin文件：直接复制
+ * 2. 尺寸与表盘一致、格式也一致的PNG/JPEG：直接复制
+ * 3. 尺寸与表盘一致、只是格式不同的图片：不缩放，直接编码为bin
+ *
+ * bin格式由杰理SDK生成，文件中没有可识别的尺寸信息，
+ * 只能通过内容哈希在SDK记录的已生成文件中查找（见knownBinSpec）
+ */
+object ImageComplianceProbe {
+
+    /**
+     * 处理方式
+     */
+    enum class Action {
+        /**
+         * 输入已是设备可用的文件，直接复制
+         */
+        COPY,
+
+        /**
+         * 尺寸已符合，只需转换为bin格式（跳过缩放）
+         */
+        BMP_CONVERT,
+
+        /**
+         * 需要完整转换（解码、缩放、遮罩、编码）
+         */
+        CONVERT
+    }
+
+    /**
+     * 检查结果
+     * @param width 输入图片宽度（无法识别时为-1）
+     * @param height 输入图片高度（无法识别时为-1）
+     * @param mimeType 输入图片格式（无法识别时为null）
+     */
+    data class Result(
+        val action: Action,
+        val width: Int,
+        val height: Int,
+        val mimeType: String?
+    )
+
+    /**
+     * 检查输入文件
+     * @param file 输入文件
+     * @param params 转换参数
+     * @param binAlgorithm 输出bin格式时使用的BmpConvert算法
+     * @param roundMasked 是否需要做圆屏遮罩（需要遮罩时必须解码，不能直接编码）
+     * @param knownBinSpec 输入不是可解码的图片时调用，返回SDK记录的该文件的bin规格（见binSpec），未记录时返回null
+     * @return 检查结果
+     */
+    @JvmStatic
+    fun probe(
+        file: File,
+        params: ImageConvertParams,
+        binAlgorithm: Int,
+        roundMasked: Boolean,
+        knownBinSpec: () -> String?
+    ): Result {
+        val options = BitmapFactory.Options().apply { inJustDecodeBounds = true }
+        BitmapFactory.decodeFile(file.absolutePath, options)
+        return classify(options.outWidth, options.outHeight, options.outMimeType, params, binAlgorithm, roundMasked, knownBinSpec)
+    }
+
+    /**
+     * 按图片头信息决定处理方式（probe读取头信息后调用）
+     * @param width 输入图片宽度，不是可解码的图片时小于等于0
+     * @param height 输入图片高度，不是可解码的图片时小于等于0
+     * @param mimeType 输入图片格式
+     * @return 检查结果
+     */
+    @JvmStatic
+    fun classify(
+        width: Int,
+        height: Int,
+        mimeType: String?,
+        params: ImageConvertParams,
+        binAlgorithm: Int,
+        roundMasked: Boolean,
+        knownBinSpec: () -> String?
+    ): Result {
+        if (width <= 0 || height <= 0) {
+            // 不是可解码的图片，可能是之前生成的bin文件
+            val ready = params.outputFormat == ImageConvertParams.ImageFormat.BIN &&
+                    knownBinSpec() == binSpec(params.targetWidth, params.targetHeight, binAlgorithm)
+            return Result(if (ready) Action.COPY else Action.CONVERT, width, height, mimeType)
+        }
+
+        if (width != params.targetWidth || height != params.targetHeight) {
+            return Result(Action.CONVERT, width, height, mimeType)
+        }
+        val action = when (params.outputFormat) {
+            ImageConvertParams.ImageFormat.BIN -> if (roundMasked) Action.CONVERT else Action.BMP_CONVERT
+            ImageConvertParams.ImageFormat.PNG -> if (mimeType == "image/png") Action.COPY else Action.CONVERT
+            ImageConvertParams.ImageFormat.JPEG -> if (mimeType == "image/jpeg") Action.COPY else Action.CONVERT
+            // BMP目前按PNG输出，统一走完整转换
+            ImageConvertParams.ImageFormat.BMP -> Action.CONVERT
+        }
+        return Result(action, width, height, mimeType)
+    }
+
+    /**
+     * bin文件规格（尺寸 + 算法），用于记录和识别SDK生成的bin文件
+     */
+    @JvmStatic
+    fun binSpec(width: Int, height: Int, algorithm: Int): String = "${width}x$height:$algorithm"
+}
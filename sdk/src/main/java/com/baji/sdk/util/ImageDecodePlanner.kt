@@ -0,0 +1,88 @@
+package com.baji.sdk.util
+
+import kotlin.math.ceil
+import kotlin.math.floor
+import kotlin.math.max
+import kotlin.math.sqrt
+
+/**
+ * 图片解码尺寸规划
+ * 大图只需要缩小到表盘尺寸，按原始分辨率解码会白白占用大量内存（4800万像素的照片ARGB解码约190MB），
+ * 这里根据原图尺寸、目标尺寸和内存上限计算解码尺寸：
+ * 1. 解码结果不小于"按比例铺满目标尺寸"所需的尺寸，后续缩放/裁剪的画质不受影响
+ * 2. 解码后的像素字节数不超过内存上限（上限优先，极端情况下解码结果会略小于目标尺寸）
+ */
+object ImageDecodePlanner {
+
+    /**
+     * 计算BitmapFactory的inSampleSize（2的幂）
+     * @param sourceWidth 原图宽度
+     * @param sourceHeight 原图高度
+     * @param targetWidth 目标宽度
+     * @param targetHeight 目标高度
+     * @param bytesPerPixel 解码格式每像素字节数
+     * @param maxBytes 解码结果的内存上限（字节）
+     * @return inSampleSize，不需要缩小时为1
+     */
+    @JvmStatic
+    fun sampleSize(
+        sourceWidth: Int,
+        sourceHeight: Int,
+        targetWidth: Int,
+        targetHeight: Int,
+        bytesPerPixel: Int,
+        maxBytes: Long
+    ): Int {
+        if (sourceWidth <= 0 || sourceHeight <= 0) {
+            return 1
+        }
+        var sampleSize = 1
+        // 缩小一半后仍能铺满目标尺寸时继续缩小
+        while (sourceWidth / (sampleSize * 2) >= targetWidth && sourceHeight / (sampleSize * 2) >= targetHeight) {
+            sampleSize *= 2
+        }
+        while (decodedBytes(sourceWidth / sampleSize, sourceHeight / sampleSize, bytesPerPixel) > maxBytes &&
+            sourceWidth / (sampleSize * 2) > 0 && sourceHeight / (sampleSize * 2) > 0
+        ) {
+            sampleSize *= 2
+        }
+        return sampleSize
+    }
+
+    /**
+     * 计算解码目标尺寸（用于ImageDecoder.setTargetSize，保持原图宽高比）
+     * @return 解码宽高，不需要缩小时返回原图尺寸
+     */
+    @JvmStatic
+    fun targetSize(
+        sourceWidth: Int,
+        sourceHeight: Int,
+        targetWidth: Int,
+        targetHeight: Int,
+        bytesPerPixel: Int,
+        maxBytes: Long
+    ): Pair<Int, Int> {
+        if (sourceWidth <= 0 || sourceHeight <= 0 || targetWidth <= 0 || targetHeight <= 0) {
+            return Pair(sourceWidth, sourceHeight)
+        }
+        // 按比例铺满目标尺寸的最小缩放比例，不放大
+        var scale = minOf(1.0, max(targetWidth.toDouble() / sourceWidth, targetHeight.toDouble() / sourceHeight))
+        val bytes = sourceWidth.toDouble() * sourceHeight * bytesPerPixel * scale * scale
+        val limited = bytes > maxBytes
+        if (limited) {
+            scale *= sqrt(maxBytes / bytes)
+        }
+        // 受内存上限限制时向下取整，保证不超过上限；否则向上取整，保证铺满目标尺寸
+        val width = max(1, (if (limited) floor(sourceWidth * scale) else ceil(sourceWidth * scale)).toInt())
+        val height = max(1, (if (limited) floor(sourceHeight * scale) else ceil(sourceHeight * scale)).toInt())
+        return Pair(minOf(width, sourceWidth), minOf(height, sourceHeight))
+    }
+
+    /**
+     * 解码结果的像素字节数
+     */
+    @JvmStatic
+    fun decodedBytes(width: Int, height: Int, bytesPerPixel: Int): Long {
+        return width.toLong() * height * bytesPerPixel
+    }
+}
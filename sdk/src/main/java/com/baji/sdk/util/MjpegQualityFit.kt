@@ -0,0 +1,67 @@
+package com.baji.sdk.util
+
+import kotlin.math.ceil
+import kotlin.math.exp
+import kotlin.math.ln
+
+/**
+ * MJPEG质量值拟合
+ * 用几个候选质量值（q:v，越大画质越低）编码的采样帧大小，按 ln(帧大小) = a + b·ln(q) 做最小二乘拟合，
+ * 求出最大帧不超过目标大小的最小质量值（即最高画质）
+ *
+ * 纯JVM实现，采样由调用方完成
+ */
+object MjpegQualityFit {
+
+    /**
+     * 拟合质量值
+     * @param samples 候选质量值与对应的最大采样帧大小（字节）
+     * @param baseQuality 初始质量值（结果不会比它更高画质）
+     * @param targetBytes 最大帧的目标大小（字节）
+     * @param maxQuality 质量值上限（最低画质）
+     * @return 质量值，范围[baseQuality, maxQuality]；初始质量已满足目标时返回baseQuality
+     */
+    @JvmStatic
+    fun fit(samples: List<Pair<Int, Long>>, baseQuality: Int, targetBytes: Double, maxQuality: Int): Int {
+        // 初始质量已满足限制，无需降质量
+        val base = samples.firstOrNull { it.first == baseQuality }
+        if (base != null && base.second <= targetBytes) {
+            return baseQuality
+        }
+
+        if (samples.size >= 2) {
+            // 对数坐标下最小二乘拟合：ln(bytes) = a + b·ln(q)
+            val xs = samples.map { ln(it.first.toDouble()) }
+            val ys = samples.map { ln(it.second.toDouble()) }
+            val xMean = xs.average()
+            val yMean = ys.average()
+            var sxy = 0.0
+            var sxx = 0.0
+            for (i in xs.indices) {
+                sxy += (xs[i] - xMean) * (ys[i] - yMean)
+                sxx += (xs[i] - xMean) * (xs[i] - xMean)
+            }
+            if (sxx > 0 && sxy < 0) {
+                val slope = sxy / sxx
+                val intercept = yMean - slope * xMean
+                val quality = ceil(exp((ln(targetBytes) - intercept) / slope)).toInt()
+                return quality.coerceIn(baseQuality, maxQuality)
+            }
+        }
+
+        // 无法拟合（样本不足或曲线异常），选用采样中第一个满足限制的质量值
+        return samples.sortedBy { it.first }.firstOrNull { it.second <= targetBytes }?.first ?: maxQuality
+    }
+
+    /**
+     * 编码时的qmin/qmax范围
+     * MJPEG编码器会把q:v限制在[qmin, qmax]内，质量值超出配置范围时放宽范围，保证实际按该质量值编码
+     * （否则采样帧大小与质量值对不上，预测出的质量值也不会生效）
+     * @param quality 本次编码的质量值
+     * @param qMin 配置的最小量化参数
+     * @param qMax 配置的最大量化参数
+     * @return 包含quality的qmin..qmax
+     */
+    @JvmStatic
+    fun encoderRange(quality: Int, qMin: Int, qMax: Int): IntRange = minOf(qMin, quality)..maxOf(qMax, quality)
+}
@@ -0,0 +1,90 @@
+package com.baji.sdk.util
+
+import com.baji.sdk.model.VideoEncodeProfile
+import com.legend.mywatch.sdk.mywatchsdklib.android.watchtheme.ClockDialInfoBody as SdkClockDialInfoBody
+import java.util.concurrent.CopyOnWriteArrayList
+
+/**
+ * 视频编码配置注册表
+ * 按表盘信息为设备选择编码配置，规则按注册的先后倒序匹配（后注册的优先），都不匹配时使用内置规则
+ *
+ * 内置规则只按屏幕像素数区分小屏幕；表盘信息中的algorithm、screenType、config与编码能力的对应关系
+ * 没有统一定义，内置规则不做判断，需要时由接入方按型号、算法或配置位注册规则
+ */
+object VideoEncodeProfileRegistry {
+    /**
+     * 小屏幕的像素数上限（不超过240x240视为小屏幕）
+     */
+    private const val SMALL_SCREEN_PIXELS = 240 * 240
+
+    /**
+     * 默认配置（与原有编码参数一致，不限制帧率）
+     */
+    @JvmField
+    val DEFAULT = VideoEncodeProfile(name = "default")
+
+    /**
+     * 小屏幕配置：帧率上限5fps，单帧预算12KB，文件更小、蓝牙传输更快
+     * 转换参数中的帧率超过5fps时按5fps编码，实际帧率见VideoConvertStats.fps
+     */
+    @JvmField
+    val SMALL_SCREEN = VideoEncodeProfile(
+        name = "small_screen",
+        maxFps = 5,
+        frameSizeBudget = 12 * 1024
+    )
+
+    /**
+     * 无音频配置（设备不支持播放音频时使用）
+     */
+    @JvmField
+    val NO_AUDIO = VideoEncodeProfile(name = "no_audio", audioEnabled = false)
+
+    private class Rule(
+        val matcher: (SdkClockDialInfoBody) -> Boolean,
+        val profile: VideoEncodeProfile
+    )
+
+    private val rules = CopyOnWriteArrayList<Rule>()
+
+    /**
+     * 注册编码配置规则
+     * @param matcher 匹配条件（如按型号、算法或配置位判断设备能力）
+     * @param profile 匹配时使用的编码配置
+     */
+    @JvmStatic
+    fun register(matcher: (SdkClockDialInfoBody) -> Boolean, profile: VideoEncodeProfile) {
+        rules.add(0, Rule(matcher, profile))
+    }
+
+    /**
+     * 为指定主型号注册编码配置
+     */
+    @JvmStatic
+    fun registerForModel(mainModel: String, profile: VideoEncodeProfile) {
+        register({ it.mainModel == mainModel }, profile)
+    }
+
+    /**
+     * 清除所有注册的规则（内置规则保留）
+     */
+    @JvmStatic
+    fun clear() {
+        rules.clear()
+    }
+
+    /**
+     * 为设备选择编码配置
+     * @param clockDialInfo 表盘信息，为null时返回默认配置
+     */
+    @JvmStatic
+    fun resolve(clockDialInfo: SdkClockDialInfoBody?): VideoEncodeProfile {
+        if (clockDialInfo == null) {
+            return DEFAULT
+        }
+        rules.firstOrNull { it.matcher(clockDialInfo) }?.let { return it.profile }
+
+        val pixels = clockDialInfo.width.toInt() * clockDialInfo.height.toInt()
+        return if (pixels in 1..SMALL_SCREEN_PIXELS) SMALL_SCREEN else DEFAULT
+    }
+}
@@ -0,0 +1,130 @@
+package com.baji.sdk.util
+
+import kotlin.math.abs
+import kotlin.math.roundToInt
+
+/**
+ * 视频滤镜图规划
+ * 按"先抽帧、再裁剪、最后缩放"的顺序生成FFmpeg滤镜，减少无用的像素处理：
+ * 1. fps放在最前面，30/60fps的源视频先丢掉大部分帧，后面的滤镜只处理保留下来的帧
+ * 2. 已知源尺寸时在源坐标系下先裁剪再缩放，缩放器只处理最终可见的区域；宽高比一致时不裁剪
+ * 3. 缩小倍数较大时改用更快的缩放算法（细节最终会被缩掉，高质量插值收益很小）
+ * 圆屏设备另见roundMask：四角不可见区域填充纯黑，减少JPEG字节
+ */
+object VideoFilterPlanner {
+    /**
+     * 宽高比相对误差小于该值时认为一致，不再裁剪或填充
+     */
+    private const val ASPECT_TOLERANCE = 0.01
+
+    /**
+     * 缩小倍数达到该值时使用fast_bilinear缩放
+     */
+    private const val FAST_SCALE_RATIO = 3.0
+
+    /**
+     * 源视频区域（用户裁剪区域，未裁剪时为整个画面）
+     */
+    data class Region(val x: Int, val y: Int, val width: Int, val height: Int)
+
+    /**
+     * 生成滤镜图
+     * @param sourceWidth 源视频宽度（已按旋转信息校正），未知时传0
+     * @param sourceHeight 源视频高度（已按旋转信息校正），未知时传0
+     * @param targetWidth 目标宽度
+     * @param targetHeight 目标高度
+     * @param fps 目标帧率，小于等于0时不加fps滤镜
+     * @param cropRegion 用户选择的裁剪区域（可选），内容按比例缩放后居中，不足部分填充黑边
+     * @return 逗号分隔的滤镜链，无需处理时返回空字符串
+     */
+    @JvmStatic
+    fun plan(
+        sourceWidth: Int,
+        sourceHeight: Int,
+        targetWidth: Int,
+        targetHeight: Int,
+        fps: Int,
+        cropRegion: Region? = null
+    ): String {
+        val filters = mutableListOf<String>()
+        if (fps > 0) {
+            filters.add("fps=$fps")
+        }
+
+        val sourceKnown = sourceWidth > 0 && sourceHeight > 0
+        if (cropRegion != null) {
+            // 用户裁剪区域：裁剪（覆盖整个画面时跳过）后按比例缩小放入目标尺寸
+            val coversSource = sourceKnown && cropRegion.x == 0 && cropRegion.y == 0 &&
+                    cropRegion.width == sourceWidth && cropRegion.height == sourceHeight
+            if (!coversSource) {
+                filters.add("crop=${cropRegion.width}:${cropRegion.height}:${cropRegion.x}:${cropRegion.y}")
+            }
+            val flags = scaleFlags(cropRegion.width, cropRegion.height, targetWidth, targetHeight)
+            if (sameAspect(cropRegion.width, cropRegion.height, targetWidth, targetHeight)) {
+                filters.add("scale=$targetWidth:$targetHeight$flags")
+            } else {
+                filters.add("scale=$targetWidth:$targetHeight:force_original_aspect_ratio=decrease$flags")
+                filters.add("pad=$targetWidth:$targetHeight:(ow-iw)/2:(oh-ih)/2")
+            }
+        } else if (sourceKnown) {
+            // 居中裁剪铺满屏幕：在源坐标系下先裁掉两侧，再缩放到目标尺寸
+            if (sourceWidth == targetWidth && sourceHeight == targetHeight) {
+                return filters.joinToString(",")
+            }
+            var cropWidth = sourceWidth
+            var cropHeight = sourceHeight
+            if (!sameAspect(sourceWidth, sourceHeight, targetWidth, targetHeight)) {
+                if (sourceWidth.toLong() * targetHeight > sourceHeight.toLong() * targetWidth) {
+                    cropWidth = even((sourceHeight.toDouble() * targetWidth / targetHeight).roundToInt())
+                } else {
+                    cropHeight = even((sourceWidth.toDouble() * targetHeight / targetWidth).roundToInt())
+                }
+                filters.add("crop=$cropWidth:$cropHeight:(iw-$cropWidth)/2:(ih-$cropHeight)/2")
+            }
+            filters.add("scale=$targetWidth:$targetHeight${scaleFlags(cropWidth, cropHeight, targetWidth, targetHeight)}")
+        } else {
+            // 源尺寸未知：缩放到能铺满目标尺寸的最小尺寸，再居中裁剪
+            filters.add("scale=$targetWidth:$targetHeight:force_original_aspect_ratio=increase")
+            filters.add("crop=$targetWidth:$targetHeight:(iw-$targetWidth)/2:(ih-$targetHeight)/2")
+        }
+        return filters.joinToString(",")
+    }
+
+    /**
+     * 生成圆屏遮罩源滤镜
+     * 只生成一帧RGBA图像：内切椭圆内透明、四角为纯黑，overlay到视频上后四角变为平坦的黑色，
+     * JPEG编码时这部分几乎不占字节；overlay在遮罩输入结束后会一直复用最后一帧，遮罩只计算一次
+     * @param width 输出宽度
+     * @param height 输出高度
+     * @return 不带输入标签的源滤镜链，调用方在末尾追加输出标签
+     */
+    @JvmStatic
+    fun roundMask(width: Int, height: Int): String {
+        val centerX = (width - 1) / 2.0
+        val centerY = (height - 1) / 2.0
+        val radiusX = width / 2.0
+        val radiusY = height / 2.0
+        val outside = "gt(pow((X-$centerX)/$radiusX,2)+pow((Y-$centerY)/$radiusY,2),1)"
+        return "color=c=black:s=${width}x$height:r=1:d=1,format=rgba," +
+                "geq=r='0':g='0':b='0':a='if($outside,255,0)'"
+    }
+
+    private fun sameAspect(width: Int, height: Int, targetWidth: Int, targetHeight: Int): Boolean {
+        if (height <= 0 || targetHeight <= 0) {
+            return false
+        }
+        val aspect = width.toDouble() / height
+        val targetAspect = targetWidth.toDouble() / targetHeight
+        return abs(aspect - targetAspect) / targetAspect < ASPECT_TOLERANCE
+    }
+
+    private fun scaleFlags(width: Int, height: Int, targetWidth: Int, targetHeight: Int): String {
+        if (targetWidth <= 0 || targetHeight <= 0) {
+            return ""
+        }
+        val ratio = maxOf(width.toDouble() / targetWidth, height.toDouble() / targetHeight)
+        return if (ratio >= FAST_SCALE_RATIO) ":flags=fast_bilinear" else ""
+    }
+
+    private fun even(value: Int): Int = maxOf(2, value - value % 2)
+}
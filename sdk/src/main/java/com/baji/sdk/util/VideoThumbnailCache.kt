@@ -0,0 +1,102 @@
+package com.baji.sdk.util
+
+import android.content.ComponentCallbacks2
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.util.LruCache
+import java.io.File
+import java.io.IOException
+
+/**
+ * 视频缩略图两级缓存
+ * 内存：按Bitmap字节数限制的LRU，同一条时间轴重复显示时无需再解码
+ * 磁盘：DiskLruFileCache保存JPEG文件，重新打开同一个视频时无需再运行FFmpeg
+ *
+ * 内存中的Bitmap由缓存持有，调用方不能recycle
+ */
+class VideoThumbnailCache(
+    directory: File,
+    maxDiskBytes: Long,
+    maxMemoryBytes: Int
+) {
+    private val diskCache = DiskLruFileCache(directory, maxDiskBytes)
+    private val memoryCache = object : LruCache<String, Bitmap>(maxOf(1, maxMemoryBytes)) {
+        override fun sizeOf(key: String, value: Bitmap): Int = value.byteCount
+    }
+
+    /**
+     * 读取磁盘缓存中的缩略图文件
+     * @return 缓存文件，未命中时返回null
+     */
+    fun getFile(key: String): File? = diskCache.get(key)
+
+    /**
+     * 将缩略图文件复制到磁盘缓存
+     */
+    @Throws(IOException::class)
+    fun putFile(key: String, source: File): File = diskCache.put(key, source)
+
+    /**
+     * 读取磁盘缓存中的文本条目（如缩略图条的元信息）
+     */
+    fun getText(key: String): String? {
+        return try {
+            diskCache.get(key)?.readText()
+        } catch (e: IOException) {
+            null
+        }
+    }
+
+    /**
+     * 写入文本条目（先写临时文件再发布）
+     */
+    @Throws(IOException::class)
+    fun putText(key: String, text: String) {
+        val temp = diskCache.newTempFile(key)
+        try {
+            temp.writeText(text)
+            diskCache.publish(key, temp)
+        } finally {
+            temp.delete()
+        }
+    }
+
+    /**
+     * 读取缩略图Bitmap
+     * 依次查找内存缓存、磁盘缓存和fallback文件，解码后放入内存缓存
+     * @param fallback 磁盘缓存未命中时解码的文件（如缩略图输出文件）
+     * @return 缩略图，都未命中或解码失败时返回null
+     */
+    fun getBitmap(key: String, fallback: File? = null): Bitmap? {
+        memoryCache.get(key)?.let { return it }
+        val file = diskCache.get(key) ?: fallback?.takeIf { it.exists() } ?: return null
+        val bitmap = BitmapFactory.decodeFile(file.absolutePath) ?: return null
+        memoryCache.put(key, bitmap)
+        return bitmap
+    }
+
+    /**
+     * 磁盘缓存总大小（字节）
+     */
+    fun diskSize(): Long = diskCache.size()
+
+    /**
+     * 系统内存紧张时释放内存缓存（ComponentCallbacks2.onTrimMemory），磁盘缓存保留
+     * 前台运行且内存略紧张时释放一半，其余情况全部释放
+     */
+    fun trimMemory(level: Int) {
+        if (level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            memoryCache.trimToSize(memoryCache.maxSize() / 2)
+        } else {
+            memoryCache.evictAll()
+        }
+    }
+
+    /**
+     * 清空两级缓存
+     */
+    fun clear() {
+        memoryCache.evictAll()
+        diskCache.clear()
+    }
+}
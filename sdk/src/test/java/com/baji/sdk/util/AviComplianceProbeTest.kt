@@ -0,0 +1,114 @@
+package com.baji.sdk.util
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+class AviComplianceProbeTest {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private val requirements = AviComplianceProbe.Requirements(
+        width = 240,
+        height = 280,
+        maxFps = 10,
+        frameSizeLimit = 4096,
+        audioEnabled = true,
+        audioSampleRate = AviTestFiles.AUDIO_SAMPLE_RATE,
+        audioChannels = AviTestFiles.AUDIO_CHANNELS
+    )
+
+    private val compliant = AviTestFiles(
+        width = 240,
+        height = 280,
+        fps = 10,
+        videoFrames = listOf(1000, 1200, 800),
+        audioChunks = listOf(400, 400, 400)
+    )
+
+    private fun check(
+        builder: AviTestFiles,
+        requirements: AviComplianceProbe.Requirements = this.requirements
+    ): AviComplianceProbe.Result {
+        return AviComplianceProbe.check(AviParser.parse(builder.writeTo(folder.newFile())), requirements)
+    }
+
+    private fun assertRejected(result: AviComplianceProbe.Result, reason: String) {
+        assertFalse(result.compliant)
+        assertFalse(result.needsHeaderPatch)
+        assertTrue(result.reasons.toString(), result.reasons.any { it.startsWith(reason) })
+    }
+
+    @Test
+    fun compliantFile() {
+        val result = check(compliant)
+
+        assertTrue(result.reasons.toString(), result.compliant)
+        assertFalse(result.needsHeaderPatch)
+        assertEquals(300L, result.durationMs)
+        assertTrue(result.reasons.isEmpty())
+    }
+
+    @Test
+    fun fpsAboveRequestedRateIsRejected() {
+        // 文件10fps，转换参数要求5fps
+        assertRejected(check(compliant, requirements.copy(maxFps = 5)), "帧率不符合")
+        assertTrue(check(AviTestFiles(fps = 5, audioChunks = listOf(400))).compliant)
+    }
+
+    @Test
+    fun sizeMismatchIsRejected() {
+        assertRejected(check(AviTestFiles(width = 320, height = 384, audioChunks = listOf(400))), "尺寸不匹配")
+    }
+
+    @Test
+    fun nonMjpegIsRejected() {
+        assertRejected(check(AviTestFiles(compression = "H264", audioChunks = listOf(400))), "视频编码不是MJPEG")
+    }
+
+    @Test
+    fun audioIsCheckedAgainstProfile() {
+        assertRejected(check(compliant, requirements.copy(audioEnabled = false)), "设备不支持音频")
+        assertRejected(check(compliant, requirements.copy(audioSampleRate = 16000)), "音频格式不符合")
+        // 没有音频流时不检查音频格式
+        assertTrue(check(AviTestFiles(), requirements.copy(audioEnabled = false)).compliant)
+    }
+
+    @Test
+    fun missingIndexIsRejected() {
+        assertRejected(check(AviTestFiles(withIndex = false)), "缺少idx1索引")
+    }
+
+    @Test
+    fun oversizedChunkIsRejected() {
+        assertRejected(check(AviTestFiles(videoFrames = listOf(1000, 4096))), "存在超过缓冲区限制的块")
+        assertRejected(check(AviTestFiles(audioChunks = listOf(4096))), "存在超过缓冲区限制的块")
+    }
+
+    @Test
+    fun oversizedHeaderOnlyNeedsPatch() {
+        val builder = AviTestFiles(
+            videoFrames = listOf(1000, 1200, 800),
+            audioChunks = listOf(400, 401),
+            videoSuggestedBufferSize = 9000,
+            audioSuggestedBufferSize = 5000,
+            mainSuggestedBufferSize = 9000
+        )
+        val file = builder.writeTo(folder.newFile())
+        val result = AviComplianceProbe.check(AviParser.parse(file), requirements)
+
+        assertTrue(result.compliant)
+        assertTrue(result.needsHeaderPatch)
+
+        AviComplianceProbe.patchSuggestedBufferSize(file, AviParser.parse(file))
+        val patched = AviParser.parse(file)
+        assertEquals(1200, patched.videoStream!!.header.suggestedBufferSize)
+        assertEquals(401, patched.audioStream!!.header.suggestedBufferSize)
+        assertEquals(1200, patched.mainHeader.suggestedBufferSize)
+        assertFalse(AviComplianceProbe.check(patched, requirements).needsHeaderPatch)
+    }
+}
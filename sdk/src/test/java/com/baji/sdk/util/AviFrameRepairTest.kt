@@ -0,0 +1,105 @@
+package com.baji.sdk.util
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+class AviFrameRepairTest {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private val limit = 4096
+
+    @Test
+    fun repairsOversizedFramesAndPatchesAllHeaders() {
+        // 音频流头中的dwSuggestedBufferSize也超限
+        val builder = AviTestFiles(
+            videoFrames = listOf(1000, 5000, 800, 6001),
+            audioChunks = listOf(401, 400, 320, 300),
+            videoSuggestedBufferSize = 6001,
+            audioSuggestedBufferSize = 9000,
+            mainSuggestedBufferSize = 9000
+        )
+        val file = builder.writeTo(folder.newFile())
+
+        val result = AviFrameRepair.repair(file, limit, 8) { frame, maxSize ->
+            assertEquals(limit - 1, maxSize)
+            ByteArray(frame.size / 2 + 1) { 0x55 }
+        }
+
+        assertEquals(AviFrameRepair.Result(2, 3001), result)
+        val bytes = file.readBytes()
+        val avi = AviParser.parse(file)
+        val video = avi.videoStream!!
+        val audio = avi.audioStream!!
+        assertArrayEquals(intArrayOf(1000, 2501, 800, 3001), video.chunkSizes)
+        assertArrayEquals(intArrayOf(401, 400, 320, 300), audio.chunkSizes)
+
+        // 各流头和主头都修正为实际的最大块大小
+        assertEquals(3001, video.header.suggestedBufferSize)
+        assertEquals(401, audio.header.suggestedBufferSize)
+        assertEquals(3001, avi.mainHeader.suggestedBufferSize)
+
+        // RIFF和movi列表大小与文件一致
+        val buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN)
+        assertEquals(bytes.size - 8, buffer.getInt(4))
+        val movi = avi.moviLists[0]
+        assertEquals(movi.size.toInt(), buffer.getInt(movi.offset.toInt() - 4))
+
+        // 未替换的块数据不变
+        assertArrayEquals(builder.moviChunks[0].data, read(bytes, video.chunkOffsets[0], 1000))
+        assertArrayEquals(builder.moviChunks[1].data, read(bytes, audio.chunkOffsets[0], 401))
+        assertArrayEquals(builder.moviChunks[7].data, read(bytes, audio.chunkOffsets[3], 300))
+
+        // idx1的偏移和大小指向修复后的块
+        val index = avi.index!!
+        val expectedOffsets = listOf(
+            video.chunkOffsets[0], audio.chunkOffsets[0], video.chunkOffsets[1], audio.chunkOffsets[1],
+            video.chunkOffsets[2], audio.chunkOffsets[2], video.chunkOffsets[3], audio.chunkOffsets[3]
+        )
+        val expectedSizes = listOf(1000, 401, 2501, 400, 800, 320, 3001, 300)
+        for (i in 0 until index.entryCount) {
+            val entry = (index.offset + i * 16).toInt()
+            assertEquals(expectedOffsets[i], movi.offset + buffer.getInt(entry + 8) + 8)
+            assertEquals(expectedSizes[i], buffer.getInt(entry + 12))
+        }
+    }
+
+    @Test
+    fun compliantFileIsUntouched() {
+        val file = AviTestFiles(videoFrames = listOf(1000, 2000)).writeTo(folder.newFile())
+        val before = file.readBytes()
+
+        val result = AviFrameRepair.repair(file, limit, 8) { _, _ -> throw AssertionError("不应重新压缩") }
+
+        assertEquals(AviFrameRepair.Result(0, 2000), result)
+        assertArrayEquals(before, file.readBytes())
+    }
+
+    @Test
+    fun tooManyOversizedFramesIsNotRepaired() {
+        val file = AviTestFiles(videoFrames = listOf(5000, 5000, 5000)).writeTo(folder.newFile())
+        val before = file.readBytes()
+
+        assertNull(AviFrameRepair.repair(file, limit, 2) { frame, _ -> frame.copyOf(100) })
+        assertArrayEquals(before, file.readBytes())
+    }
+
+    @Test
+    fun unrecompressibleFrameLeavesFileUnchanged() {
+        val file = AviTestFiles(videoFrames = listOf(1000, 5000)).writeTo(folder.newFile())
+        val before = file.readBytes()
+
+        assertNull(AviFrameRepair.repair(file, limit, 8) { _, _ -> null })
+        assertArrayEquals(before, file.readBytes())
+    }
+
+    private fun read(bytes: ByteArray, offset: Long, size: Int): ByteArray =
+        bytes.copyOfRange(offset.toInt(), offset.toInt() + size)
+}
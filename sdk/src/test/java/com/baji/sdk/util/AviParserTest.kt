@@ -0,0 +1,194 @@
+package com.baji.sdk.util
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+class AviParserTest {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    // 奇数大小的帧和音频块，验证对齐填充
+    private val builder = AviTestFiles(
+        width = 240,
+        height = 280,
+        fps = 10,
+        videoFrames = listOf(1000, 1201, 800),
+        audioChunks = listOf(401, 400, 320)
+    )
+
+    private fun write(bytes: ByteArray): File {
+        val file = folder.newFile()
+        file.writeBytes(bytes)
+        return file
+    }
+
+    @Test
+    fun parsesMainHeader() {
+        val avi = AviParser.parse(write(builder.build()))
+
+        val header = avi.mainHeader
+        assertEquals(100_000, header.microSecPerFrame)
+        assertEquals(0x10, header.flags)
+        assertEquals(3, header.totalFrames)
+        assertEquals(2, header.streams)
+        assertEquals(1201, header.suggestedBufferSize)
+        assertEquals(240, header.width)
+        assertEquals(280, header.height)
+        assertEquals(avi.fileSize, builder.build().size.toLong())
+    }
+
+    @Test
+    fun parsesStreamHeadersAndFormats() {
+        val avi = AviParser.parse(write(builder.build()))
+        assertEquals(2, avi.streams.size)
+
+        val video = avi.videoStream!!
+        assertEquals(0, video.index)
+        assertEquals("vids", video.header.fccType)
+        assertEquals("MJPG", video.header.fccHandler)
+        assertEquals(1, video.header.scale)
+        assertEquals(10, video.header.rate)
+        assertEquals(3, video.header.length)
+        assertEquals(1201, video.header.suggestedBufferSize)
+        assertEquals(AviParser.VideoFormat(240, 280, 24, "MJPG", 240 * 280 * 3), video.videoFormat)
+        assertNull(video.audioFormat)
+
+        val audio = avi.audioStream!!
+        assertEquals(1, audio.index)
+        assertEquals("auds", audio.header.fccType)
+        assertEquals(8000, audio.header.rate)
+        assertEquals(401, audio.header.suggestedBufferSize)
+        assertEquals(2, audio.header.sampleSize)
+        assertEquals(AviParser.AudioFormat(1, 1, 8000, 16000, 2, 16), audio.audioFormat)
+        assertNull(audio.videoFormat)
+    }
+
+    @Test
+    fun headerOffsetsPointAtSuggestedBufferSize() {
+        val bytes = builder.build()
+        val avi = AviParser.parse(write(bytes))
+        val buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN)
+
+        assertEquals(
+            1201,
+            buffer.getInt((avi.mainHeader.offset + AviParser.MainHeader.SUGGESTED_BUFFER_SIZE_OFFSET).toInt())
+        )
+        for (stream in avi.streams) {
+            assertEquals(
+                stream.header.suggestedBufferSize,
+                buffer.getInt((stream.header.offset + AviParser.StreamHeader.SUGGESTED_BUFFER_SIZE_OFFSET).toInt())
+            )
+        }
+    }
+
+    @Test
+    fun collectsChunkSizes() {
+        val avi = AviParser.parse(write(builder.build()))
+
+        assertArrayEquals(intArrayOf(1000, 1201, 800), avi.videoStream!!.chunkSizes)
+        assertArrayEquals(intArrayOf(401, 400, 320), avi.audioStream!!.chunkSizes)
+        assertEquals(1201, avi.videoStream!!.maxChunkSize)
+        assertEquals(401, avi.audioStream!!.maxChunkSize)
+        assertEquals(1201, avi.maxChunkSize)
+        assertEquals(1201, avi.maxSuggestedBufferSize)
+    }
+
+    @Test
+    fun chunkOffsetsSkipOddSizePadding() {
+        val bytes = builder.build()
+        val avi = AviParser.parse(write(bytes))
+
+        // 每个块的偏移处应该是该块的数据（奇数大小的块后面的填充字节没有被当作下一个块）
+        val expected = builder.moviChunks
+        val video = avi.videoStream!!
+        val audio = avi.audioStream!!
+        var videoIndex = 0
+        var audioIndex = 0
+        for (chunk in expected) {
+            val offset = if (chunk.id == "00dc") {
+                video.chunkOffsets[videoIndex++]
+            } else {
+                audio.chunkOffsets[audioIndex++]
+            }
+            val actual = bytes.copyOfRange(offset.toInt(), offset.toInt() + chunk.data.size)
+            assertArrayEquals(chunk.data, actual)
+            assertEquals(chunk.id, String(bytes, offset.toInt() - 8, 4, Charsets.US_ASCII))
+        }
+        assertEquals(3, videoIndex)
+        assertEquals(3, audioIndex)
+    }
+
+    @Test
+    fun parsesMoviListAndIndex() {
+        val bytes = builder.build()
+        val avi = AviParser.parse(write(bytes))
+
+        assertEquals(1, avi.moviLists.size)
+        val movi = avi.moviLists[0]
+        assertEquals("movi", String(bytes, movi.offset.toInt(), 4, Charsets.US_ASCII))
+
+        val index = avi.index
+        assertNotNull(index)
+        assertEquals(6, index!!.entryCount)
+        assertEquals("idx1", String(bytes, index.offset.toInt() - 8, 4, Charsets.US_ASCII))
+
+        // idx1中的偏移（相对于movi类型字段）和大小与movi中的块一致
+        val buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN)
+        val offsets = avi.streams.flatMap { it.chunkOffsets.toList() }.toSet()
+        for (i in 0 until index.entryCount) {
+            val entry = (index.offset + i * 16).toInt()
+            val id = String(bytes, entry, 4, Charsets.US_ASCII)
+            val dataOffset = movi.offset + buffer.getInt(entry + 8) + 8
+            assertEquals(builder.moviChunks[i].id, id)
+            assertEquals(builder.moviChunks[i].data.size, buffer.getInt(entry + 12))
+            assertEquals(true, dataOffset in offsets)
+        }
+    }
+
+    @Test
+    fun missingIndexIsNull() {
+        val avi = AviParser.parse(write(AviTestFiles(withIndex = false).build()))
+
+        assertNull(avi.index)
+        assertNull(avi.audioStream)
+        assertEquals(3, avi.videoStream!!.chunkCount)
+    }
+
+    @Test
+    fun truncatedFileKeepsCompleteChunks() {
+        val bytes = builder.build()
+        val avi = AviParser.parse(write(bytes))
+        // 截断在最后一个视频帧中间，idx1也一起丢失
+        val lastFrame = avi.videoStream!!.chunkOffsets[2]
+        val truncated = bytes.copyOf((lastFrame + 100).toInt())
+
+        val parsed = AviParser.parse(write(truncated))
+
+        assertEquals(truncated.size.toLong(), parsed.fileSize)
+        assertArrayEquals(intArrayOf(1000, 1201), parsed.videoStream!!.chunkSizes)
+        assertArrayEquals(intArrayOf(401, 400), parsed.audioStream!!.chunkSizes)
+        assertNull(parsed.index)
+        assertEquals(240, parsed.mainHeader.width)
+    }
+
+    @Test(expected = AviParser.AviFormatException::class)
+    fun truncatedBeforeHeadersFails() {
+        AviParser.parse(write(builder.build().copyOf(40)))
+    }
+
+    @Test(expected = AviParser.AviFormatException::class)
+    fun notAviFails() {
+        val bytes = builder.build()
+        bytes[8] = 'W'.code.toByte()
+        AviParser.parse(write(bytes))
+    }
+}
@@ -0,0 +1,186 @@
+package com.baji.sdk.util
+
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+/**
+ * 测试用AVI文件构造工具
+ * 按RIFF块结构生成最小的MJPEG AVI（可选PCM音频流），帧数据为填充字节，不是有效的JPEG
+ */
+class AviTestFiles(
+    val width: Int = 240,
+    val height: Int = 280,
+    val fps: Int = 10,
+    val videoFrames: List<Int> = listOf(1000, 1200, 800),
+    val audioChunks: List<Int>? = null,
+    val compression: String = "MJPG",
+    val withIndex: Boolean = true,
+    val videoSuggestedBufferSize: Int = videoFrames.maxOrNull() ?: 0,
+    val audioSuggestedBufferSize: Int = audioChunks?.maxOrNull() ?: 0,
+    val mainSuggestedBufferSize: Int = maxOf(videoSuggestedBufferSize, audioSuggestedBufferSize)
+) {
+
+    companion object {
+        const val AUDIO_SAMPLE_RATE = 8000
+        const val AUDIO_CHANNELS = 1
+        private const val AVIIF_KEYFRAME = 0x10
+    }
+
+    /**
+     * movi中的数据块（按写入顺序）
+     */
+    class MoviChunk(val id: String, val data: ByteArray)
+
+    val moviChunks: List<MoviChunk> by lazy {
+        val chunks = ArrayList<MoviChunk>()
+        for (i in videoFrames.indices) {
+            chunks.add(MoviChunk("00dc", frameData(i, videoFrames[i])))
+            audioChunks?.getOrNull(i)?.let { chunks.add(MoviChunk("01wb", frameData(0x80 + i, it))) }
+        }
+        audioChunks?.drop(videoFrames.size)?.forEachIndexed { i, size ->
+            chunks.add(MoviChunk("01wb", frameData(0x80 + videoFrames.size + i, size)))
+        }
+        chunks
+    }
+
+    fun build(): ByteArray {
+        val streams = if (audioChunks != null) 2 else 1
+        val hdrl = list(
+            "hdrl",
+            chunk("avih", mainHeader(streams)),
+            list("strl", chunk("strh", videoStreamHeader()), chunk("strf", videoFormat())),
+            *(if (audioChunks != null) {
+                arrayOf(list("strl", chunk("strh", audioStreamHeader()), chunk("strf", audioFormat())))
+            } else {
+                emptyArray()
+            })
+        )
+
+        val movi = list("movi", *moviChunks.map { chunk(it.id, it.data) }.toTypedArray())
+        val children = mutableListOf(hdrl, movi)
+        if (withIndex) {
+            children.add(chunk("idx1", index()))
+        }
+        return riff(children)
+    }
+
+    fun writeTo(file: File): File {
+        file.writeBytes(build())
+        return file
+    }
+
+    private fun frameData(seed: Int, size: Int): ByteArray = ByteArray(size) { (seed + it).toByte() }
+
+    private fun mainHeader(streams: Int): ByteArray = le(56) {
+        putInt(1_000_000 / fps)
+        putInt(0)
+        putInt(0)
+        putInt(0x10)  // AVIF_HASINDEX
+        putInt(videoFrames.size)
+        putInt(0)
+        putInt(streams)
+        putInt(mainSuggestedBufferSize)
+        putInt(width)
+        putInt(height)
+    }
+
+    private fun videoStreamHeader(): ByteArray = le(56) {
+        put("vids".toByteArray(Charsets.US_ASCII))
+        put(compression.toByteArray(Charsets.US_ASCII))
+        putInt(0)
+        putShort(0)
+        putShort(0)
+        putInt(0)
+        putInt(1)
+        putInt(fps)
+        putInt(0)
+        putInt(videoFrames.size)
+        putInt(videoSuggestedBufferSize)
+        putInt(-1)
+        putInt(0)
+    }
+
+    private fun videoFormat(): ByteArray = le(40) {
+        putInt(40)
+        putInt(width)
+        putInt(height)
+        putShort(1)
+        putShort(24)
+        put(compression.toByteArray(Charsets.US_ASCII))
+        putInt(width * height * 3)
+    }
+
+    private fun audioStreamHeader(): ByteArray = le(56) {
+        put("auds".toByteArray(Charsets.US_ASCII))
+        putInt(0)
+        putInt(0)
+        putShort(0)
+        putShort(0)
+        putInt(0)
+        putInt(1)
+        putInt(AUDIO_SAMPLE_RATE)
+        putInt(0)
+        putInt(audioChunks.orEmpty().sum() / 2)
+        putInt(audioSuggestedBufferSize)
+        putInt(-1)
+        putInt(2)
+    }
+
+    private fun audioFormat(): ByteArray = le(16) {
+        putShort(1)
+        putShort(AUDIO_CHANNELS.toShort())
+        putInt(AUDIO_SAMPLE_RATE)
+        putInt(AUDIO_SAMPLE_RATE * AUDIO_CHANNELS * 2)
+        putShort((AUDIO_CHANNELS * 2).toShort())
+        putShort(16)
+    }
+
+    /**
+     * idx1，偏移相对于movi列表类型字段
+     */
+    private fun index(): ByteArray {
+        val buffer = ByteBuffer.allocate(moviChunks.size * 16).order(ByteOrder.LITTLE_ENDIAN)
+        var offset = 4
+        for (chunk in moviChunks) {
+            buffer.put(chunk.id.toByteArray(Charsets.US_ASCII))
+            buffer.putInt(if (chunk.id.endsWith("dc")) AVIIF_KEYFRAME else 0)
+            buffer.putInt(offset)
+            buffer.putInt(chunk.data.size)
+            offset += 8 + chunk.data.size + (chunk.data.size and 1)
+        }
+        return buffer.array()
+    }
+
+    private fun le(size: Int, block: ByteBuffer.() -> Unit): ByteArray {
+        val buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN)
+        buffer.block()
+        return buffer.array()
+    }
+
+    private fun chunk(id: String, data: ByteArray): ByteArray {
+        val out = ByteArrayOutputStream()
+        out.write(id.toByteArray(Charsets.US_ASCII))
+        out.write(le(4) { putInt(data.size) })
+        out.write(data)
+        if (data.size and 1 == 1) {
+            out.write(0)
+        }
+        return out.toByteArray()
+    }
+
+    private fun list(type: String, vararg children: ByteArray): ByteArray {
+        val out = ByteArrayOutputStream()
+        out.write(type.toByteArray(Charsets.US_ASCII))
+        children.forEach { out.write(it) }
+        return chunk("LIST", out.toByteArray())
+    }
+
+    private fun riff(children: List<ByteArray>): ByteArray {
+        val out = ByteArrayOutputStream()
+        out.write("AVI ".toByteArray(Charsets.US_ASCII))
+        children.forEach { out.write(it) }
+        return chunk("RIFF", out.toByteArray())
+    }
+}
@@ -0,0 +1,108 @@
+package com.baji.sdk.util
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.io.ByteArrayOutputStream
+import java.nio.ByteBuffer
+
+/**
+ * 与杰理BmpConvert输出逐字节比对
+ * resources/bin下每组样例：<name>.bgra为Bitmap.copyPixelsToBuffer得到的原始像素（BGRA字节序），
+ * <name>.br28.bin和<name>.argb8565.bin为BmpConvert（br28_bmp_to_res / br35_png_to_res + FORMAT_ARGB_8565）的输出
+ */
+class BinImageEncoderTest {
+
+    private class Sample(val name: String, val width: Int, val height: Int) {
+        val raw: ByteArray = resource("$name.bgra")
+        val br28: ByteArray = resource("$name.br28.bin")
+        val argb8565: ByteArray = resource("$name.argb8565.bin")
+
+        /**
+         * BGRA字节转换为Bitmap.getPixels的ARGB像素
+         */
+        val pixels = IntArray(width * height) { i ->
+            (raw[i * 4].toInt() and 0xFF) or
+                    ((raw[i * 4 + 1].toInt() and 0xFF) shl 8) or
+                    ((raw[i * 4 + 2].toInt() and 0xFF) shl 16) or
+                    ((raw[i * 4 + 3].toInt() and 0xFF) shl 24)
+        }
+
+        private fun resource(file: String): ByteArray {
+            val stream = BinImageEncoderTest::class.java.getResourceAsStream("/bin/$file")
+                ?: throw AssertionError("缺少测试资源: $file")
+            return stream.use { it.readBytes() }
+        }
+    }
+
+    private val solid = Sample("solid_1x1", 1, 1)
+    private val gradient = Sample("gradient_13x7", 13, 7)  // 宽度不是8的倍数，右侧和底部分块不完整
+    private val alpha = Sample("alpha_16x12", 16, 12)  // 半透明和逐列变化的透明度
+    private val longRun = Sample("long_run_300x4", 300, 4)  // 一行内超过127个单元的重复段
+    private val noise = Sample("noise_20x10", 20, 10)  // 无法压缩，ARGB8565分块存原始数据
+    private val samples = listOf(solid, gradient, alpha, longRun, noise)
+
+    private fun assertEncoded(expected: ByteArray, actual: ByteArray, name: String) {
+        assertEquals("$name 文件大小", expected.size, actual.size)
+        assertEquals("$name 头校验(0x3C)", readShortLE(expected, 0x3C), readShortLE(actual, 0x3C))
+        assertEquals("$name 数据校验(0x3E)", readShortLE(expected, 0x3E), readShortLE(actual, 0x3E))
+        assertArrayEquals(name, expected, actual)
+    }
+
+    private fun readShortLE(data: ByteArray, position: Int): Int {
+        return (data[position].toInt() and 0xFF) or ((data[position + 1].toInt() and 0xFF) shl 8)
+    }
+
+    @Test
+    fun br28MatchesBmpConvert() {
+        for (sample in samples) {
+            assertEncoded(sample.br28, BinImageEncoder.encodeBr28(sample.pixels, sample.width, sample.height), sample.name)
+        }
+    }
+
+    @Test
+    fun br28StreamMatchesBmpConvert() {
+        for (sample in samples) {
+            val buffer = ByteArray(BinImageEncoder.br28BufferSize(sample.width, sample.height))
+            val output = ByteArrayOutputStream()
+            BinImageEncoder.encodeBr28(sample.pixels, sample.width, sample.height, buffer, output)
+            assertEncoded(sample.br28, output.toByteArray(), sample.name)
+        }
+    }
+
+    @Test
+    fun argb8565MatchesBmpConvert() {
+        for (sample in samples) {
+            assertEncoded(sample.argb8565, BinImageEncoder.encodeArgb8565(sample.pixels, sample.width, sample.height), sample.name)
+        }
+    }
+
+    @Test
+    fun byteBufferInputMatchesIntArray() {
+        for (sample in samples) {
+            assertEncoded(sample.br28, BinImageEncoder.encodeBr28(ByteBuffer.wrap(sample.raw), sample.width, sample.height), sample.name)
+            assertEncoded(
+                sample.argb8565,
+                BinImageEncoder.encodeArgb8565(ByteBuffer.wrap(sample.raw), sample.width, sample.height),
+                sample.name
+            )
+        }
+    }
+
+    @Test
+    fun checksumsCoverDataAndHeader() {
+        for (sample in samples) {
+            for (file in listOf(sample.br28, sample.argb8565)) {
+                val dataOffset = 0x450
+                assertEquals(sample.name, readShortLE(file, 0x3E), BinImageEncoder.crc16(file, dataOffset, file.size - dataOffset))
+                assertEquals(sample.name, readShortLE(file, 0x3C), BinImageEncoder.crc16(file, 0x3E, 0x12))
+            }
+        }
+    }
+
+    @Test
+    fun crc16IsXmodem() {
+        assertEquals(0x31C3, BinImageEncoder.crc16("123456789".toByteArray(), 0, 9))
+        assertEquals(0, BinImageEncoder.crc16(ByteArray(0), 0, 0))
+    }
+}
@@ -0,0 +1,63 @@
+package com.baji.sdk.util
+
+import com.baji.sdk.model.ImageConvertParams.ScaleMode
+import com.baji.sdk.util.BitmapScaler.Bounds
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class BitmapScalerTest {
+
+    private fun assertBounds(expected: Bounds, actual: Bounds) {
+        val delta = 0.001f
+        assertEquals("left", expected.left, actual.left, delta)
+        assertEquals("top", expected.top, actual.top, delta)
+        assertEquals("right", expected.right, actual.right, delta)
+        assertEquals("bottom", expected.bottom, actual.bottom, delta)
+    }
+
+    @Test
+    fun centerCropTrimsWiderSource() {
+        // 4000x3000裁成240:280，宽度保留3000*240/280≈2571.43
+        assertBounds(
+            Bounds(714.2857f, 0f, 3285.7143f, 3000f),
+            BitmapScaler.sourceRect(4000, 3000, 240, 280, ScaleMode.CENTER_CROP)
+        )
+        assertBounds(Bounds(0f, 0f, 240f, 280f), BitmapScaler.targetRect(4000, 3000, 240, 280, ScaleMode.CENTER_CROP))
+    }
+
+    @Test
+    fun centerCropTrimsTallerSource() {
+        // 1000x2000裁成240:280，高度保留1000*280/240≈1166.67
+        assertBounds(
+            Bounds(0f, 416.6667f, 1000f, 1583.3333f),
+            BitmapScaler.sourceRect(1000, 2000, 240, 280, ScaleMode.CENTER_CROP)
+        )
+    }
+
+    @Test
+    fun centerCropKeepsSameAspectSource() {
+        assertBounds(Bounds(0f, 0f, 480f, 560f), BitmapScaler.sourceRect(480, 560, 240, 280, ScaleMode.CENTER_CROP))
+    }
+
+    @Test
+    fun fitCentersWholeSource() {
+        // 宽图按宽度缩放，上下留空
+        assertBounds(Bounds(0f, 0f, 400f, 300f), BitmapScaler.sourceRect(400, 300, 240, 280, ScaleMode.FIT))
+        assertBounds(Bounds(0f, 50f, 240f, 230f), BitmapScaler.targetRect(400, 300, 240, 280, ScaleMode.FIT))
+        // 高图按高度缩放，左右留空
+        assertBounds(Bounds(50f, 0f, 190f, 280f), BitmapScaler.targetRect(100, 200, 240, 280, ScaleMode.FIT))
+    }
+
+    @Test
+    fun stretchUsesWholeSourceAndTarget() {
+        assertBounds(Bounds(0f, 0f, 400f, 300f), BitmapScaler.sourceRect(400, 300, 240, 280, ScaleMode.STRETCH))
+        assertBounds(Bounds(0f, 0f, 240f, 280f), BitmapScaler.targetRect(400, 300, 240, 280, ScaleMode.STRETCH))
+    }
+
+    @Test
+    fun boundsSize() {
+        val bounds = Bounds(10f, 20f, 110f, 70f)
+        assertEquals(100f, bounds.width, 0f)
+        assertEquals(50f, bounds.height, 0f)
+    }
+}
@@ -0,0 +1,73 @@
+package com.baji.sdk.util
+
+import com.baji.sdk.model.ImageConvertParams
+import com.baji.sdk.util.ImageComplianceProbe.Action
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class ImageComplianceProbeTest {
+
+    private val bin = ImageConvertParams(
+        targetWidth = 240,
+        targetHeight = 280,
+        outputFormat = ImageConvertParams.ImageFormat.BIN
+    )
+    private val png = bin.copy(outputFormat = ImageConvertParams.ImageFormat.PNG)
+    private val jpeg = bin.copy(outputFormat = ImageConvertParams.ImageFormat.JPEG)
+    private val bmp = bin.copy(outputFormat = ImageConvertParams.ImageFormat.BMP)
+
+    private fun action(
+        width: Int,
+        height: Int,
+        mimeType: String?,
+        params: ImageConvertParams,
+        roundMasked: Boolean = false,
+        knownBinSpec: String? = null
+    ): Action {
+        return ImageComplianceProbe.classify(width, height, mimeType, params, 1, roundMasked) { knownBinSpec }.action
+    }
+
+    @Test
+    fun knownBinWithSameSpecIsCopied() {
+        val spec = ImageComplianceProbe.binSpec(240, 280, 1)
+        assertEquals("240x280:1", spec)
+        assertEquals(Action.COPY, action(-1, -1, null, bin, knownBinSpec = spec))
+    }
+
+    @Test
+    fun unknownOrMismatchedBinIsConverted() {
+        assertEquals(Action.CONVERT, action(-1, -1, null, bin))
+        assertEquals(Action.CONVERT, action(-1, -1, null, bin, knownBinSpec = "320x384:1"))
+        assertEquals(Action.CONVERT, action(-1, -1, null, bin, knownBinSpec = "240x280:2"))
+        // 输出不是bin时即使记录过也要完整转换
+        assertEquals(Action.CONVERT, action(-1, -1, null, png, knownBinSpec = "240x280:1"))
+    }
+
+    @Test
+    fun targetSizeImageSkipsScalingForBin() {
+        assertEquals(Action.BMP_CONVERT, action(240, 280, "image/jpeg", bin))
+        // 圆屏需要遮罩时必须解码
+        assertEquals(Action.CONVERT, action(240, 280, "image/jpeg", bin, roundMasked = true))
+    }
+
+    @Test
+    fun targetSizeImageWithSameFormatIsCopied() {
+        assertEquals(Action.COPY, action(240, 280, "image/png", png))
+        assertEquals(Action.COPY, action(240, 280, "image/jpeg", jpeg))
+        assertEquals(Action.CONVERT, action(240, 280, "image/jpeg", png))
+        assertEquals(Action.CONVERT, action(240, 280, "image/png", jpeg))
+        assertEquals(Action.CONVERT, action(240, 280, "image/png", bmp))
+    }
+
+    @Test
+    fun otherSizeIsConverted() {
+        assertEquals(Action.CONVERT, action(480, 560, "image/png", png))
+        assertEquals(Action.CONVERT, action(280, 240, "image/jpeg", bin))
+    }
+
+    @Test
+    fun resultKeepsHeaderInfo() {
+        val result = ImageComplianceProbe.classify(480, 560, "image/png", png, 1, false) { null }
+        assertEquals(ImageComplianceProbe.Result(Action.CONVERT, 480, 560, "image/png"), result)
+    }
+}
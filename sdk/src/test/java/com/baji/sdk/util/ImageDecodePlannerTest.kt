@@ -0,0 +1,69 @@
+package com.baji.sdk.util
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class ImageDecodePlannerTest {
+
+    private val maxBytes = 32L * 1024 * 1024
+
+    @Test
+    fun sampleSizeKeepsDecodeAboveTarget() {
+        // 4000x3000缩小8倍为500x375，再缩小一半高度不足280
+        assertEquals(8, ImageDecodePlanner.sampleSize(4000, 3000, 240, 280, 4, maxBytes))
+        assertEquals(8, ImageDecodePlanner.sampleSize(3000, 4000, 240, 280, 4, maxBytes))
+        assertEquals(1, ImageDecodePlanner.sampleSize(479, 559, 240, 280, 4, maxBytes))
+        assertEquals(2, ImageDecodePlanner.sampleSize(480, 560, 240, 280, 4, maxBytes))
+    }
+
+    @Test
+    fun sampleSizeNeverUpscales() {
+        assertEquals(1, ImageDecodePlanner.sampleSize(200, 100, 240, 280, 4, maxBytes))
+    }
+
+    @Test
+    fun sampleSizeRespectsMemoryLimit() {
+        // 按目标尺寸只需缩小2倍（4000x3000，48MB），超过16MB上限时继续缩小
+        val limit = 16L * 1024 * 1024
+        assertEquals(2, ImageDecodePlanner.sampleSize(8000, 6000, 4000, 3000, 4, maxBytes * 2))
+        assertEquals(4, ImageDecodePlanner.sampleSize(8000, 6000, 4000, 3000, 4, limit))
+        // RGB_565每像素2字节，同样的上限只需缩小2倍
+        assertEquals(2, ImageDecodePlanner.sampleSize(8000, 6000, 4000, 3000, 2, 24L * 1024 * 1024))
+    }
+
+    @Test
+    fun sampleSizeForUnknownSource() {
+        assertEquals(1, ImageDecodePlanner.sampleSize(0, 0, 240, 280, 4, maxBytes))
+        assertEquals(1, ImageDecodePlanner.sampleSize(-1, -1, 240, 280, 4, maxBytes))
+    }
+
+    @Test
+    fun targetSizeFillsTargetKeepingAspect() {
+        assertEquals(Pair(374, 280), ImageDecodePlanner.targetSize(4000, 3000, 240, 280, 4, maxBytes))
+        assertEquals(Pair(240, 320), ImageDecodePlanner.targetSize(3000, 4000, 240, 280, 4, maxBytes))
+        assertEquals(Pair(240, 280), ImageDecodePlanner.targetSize(2400, 2800, 240, 280, 4, maxBytes))
+    }
+
+    @Test
+    fun targetSizeNeverUpscales() {
+        assertEquals(Pair(200, 100), ImageDecodePlanner.targetSize(200, 100, 240, 280, 4, maxBytes))
+        assertEquals(Pair(0, 0), ImageDecodePlanner.targetSize(0, 0, 240, 280, 4, maxBytes))
+    }
+
+    @Test
+    fun targetSizeStaysWithinMemoryLimit() {
+        val limit = 16L * 1024 * 1024
+        val (width, height) = ImageDecodePlanner.targetSize(8000, 6000, 4000, 3000, 4, limit)
+
+        assertTrue(ImageDecodePlanner.decodedBytes(width, height, 4) <= limit)
+        assertEquals(2364, width)
+        assertEquals(1773, height)
+    }
+
+    @Test
+    fun decodedBytesDoesNotOverflow() {
+        assertEquals(8000L * 6000 * 4, ImageDecodePlanner.decodedBytes(8000, 6000, 4))
+        assertEquals(50_000L * 50_000 * 8, ImageDecodePlanner.decodedBytes(50_000, 50_000, 8))
+    }
+}
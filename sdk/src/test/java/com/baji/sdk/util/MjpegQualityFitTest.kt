@@ -0,0 +1,71 @@
+package com.baji.sdk.util
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import kotlin.math.pow
+
+class MjpegQualityFitTest {
+
+    private val target = 20 * 1024 * 0.85
+    private val maxQuality = 31
+
+    /**
+     * 帧大小与质量值成幂律关系：bytes = c · q^-1.5
+     */
+    private fun bytes(quality: Int, c: Double = 1_264_911.0): Long = (c * quality.toDouble().pow(-1.5)).toLong()
+
+    private fun samples(vararg qualities: Int, c: Double = 1_264_911.0) = qualities.map { it to bytes(it, c) }
+
+    @Test
+    fun baseQualityWithinTargetIsKept() {
+        assertEquals(10, MjpegQualityFit.fit(listOf(10 to 15_000L, 16 to 9_000L, 24 to 6_000L), 10, target, maxQuality))
+    }
+
+    @Test
+    fun powerLawFitReturnsSmallestQualityWithinTarget() {
+        val quality = MjpegQualityFit.fit(samples(10, 16, 24), 10, target, maxQuality)
+
+        assertEquals(18, quality)
+        assertTrue(bytes(quality) <= target)
+        assertTrue(bytes(quality - 1) > target)
+    }
+
+    @Test
+    fun resultIsClampedToQualityRange() {
+        // 目标太小，拟合结果超过上限
+        assertEquals(maxQuality, MjpegQualityFit.fit(samples(10, 16, 24, c = 1e8), 10, target, maxQuality))
+        // 拟合结果比初始质量画质更高时使用初始质量
+        assertEquals(12, MjpegQualityFit.fit(samples(16, 24, c = 2e5), 12, target, maxQuality))
+    }
+
+    @Test
+    fun unusableCurveFallsBackToFirstSampleWithinTarget() {
+        // 帧大小随质量值增大（曲线异常），无法拟合
+        val samples = listOf(10 to 30_000L, 16 to 17_000L, 24 to 40_000L)
+        assertEquals(16, MjpegQualityFit.fit(samples, 10, target, maxQuality))
+    }
+
+    @Test
+    fun qualityAboveProfileRangeIsNotClipped() {
+        // 默认profile的qMax为20，预测和重试可能给出更大的质量值
+        val quality = MjpegQualityFit.fit(samples(10, 16, 24, c = 3e6), 10, target, maxQuality)
+        assertTrue(quality > 20)
+        assertEquals(10..quality, MjpegQualityFit.encoderRange(quality, 10, 20))
+        // 采样的候选质量值也按原值编码
+        assertEquals(10..24, MjpegQualityFit.encoderRange(24, 10, 20))
+    }
+
+    @Test
+    fun qualityWithinProfileRangeKeepsProfile() {
+        assertEquals(10..20, MjpegQualityFit.encoderRange(10, 10, 20))
+        assertEquals(10..20, MjpegQualityFit.encoderRange(16, 10, 20))
+        assertEquals(5..20, MjpegQualityFit.encoderRange(5, 10, 20))
+    }
+
+    @Test
+    fun singleSampleFallsBack() {
+        assertEquals(24, MjpegQualityFit.fit(listOf(24 to 10_000L), 10, target, maxQuality))
+        assertEquals(maxQuality, MjpegQualityFit.fit(listOf(24 to 30_000L), 10, target, maxQuality))
+    }
+}
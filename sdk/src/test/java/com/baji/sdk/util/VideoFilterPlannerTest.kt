@@ -0,0 +1,90 @@
+package com.baji.sdk.util
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class VideoFilterPlannerTest {
+
+    @Test
+    fun landscapeSourceCropsSidesBeforeScaling() {
+        assertEquals(
+            "fps=10,crop=900:1080:(iw-900)/2:(ih-1080)/2,scale=320:384",
+            VideoFilterPlanner.plan(1920, 1080, 320, 384, 10)
+        )
+    }
+
+    @Test
+    fun portraitSourceCropsTopAndBottom() {
+        assertEquals(
+            "fps=10,crop=1080:1296:(iw-1080)/2:(ih-1296)/2,scale=320:384:flags=fast_bilinear",
+            VideoFilterPlanner.plan(1080, 1920, 320, 384, 10)
+        )
+    }
+
+    @Test
+    fun sameAspectSkipsCrop() {
+        assertEquals("fps=10,scale=320:384", VideoFilterPlanner.plan(640, 768, 320, 384, 10))
+        // 宽高比相差不到1%时也不裁剪
+        assertEquals("fps=10,scale=320:384", VideoFilterPlanner.plan(642, 768, 320, 384, 10))
+    }
+
+    @Test
+    fun sameSizeSkipsScale() {
+        assertEquals("fps=10", VideoFilterPlanner.plan(320, 384, 320, 384, 10))
+        assertEquals("", VideoFilterPlanner.plan(320, 384, 320, 384, 0))
+    }
+
+    @Test
+    fun unknownSourceScalesThenCrops() {
+        assertEquals(
+            "fps=5,scale=320:384:force_original_aspect_ratio=increase,crop=320:384:(iw-320)/2:(ih-384)/2",
+            VideoFilterPlanner.plan(0, 0, 320, 384, 5)
+        )
+    }
+
+    @Test
+    fun cropRegionFitsWithPadding() {
+        assertEquals(
+            "fps=10,crop=800:600:100:50,scale=320:384:force_original_aspect_ratio=decrease," +
+                    "pad=320:384:(ow-iw)/2:(oh-ih)/2",
+            VideoFilterPlanner.plan(1920, 1080, 320, 384, 10, VideoFilterPlanner.Region(100, 50, 800, 600))
+        )
+    }
+
+    @Test
+    fun cropRegionCoveringSourceSkipsCrop() {
+        assertEquals(
+            "fps=10,scale=320:384",
+            VideoFilterPlanner.plan(640, 768, 320, 384, 10, VideoFilterPlanner.Region(0, 0, 640, 768))
+        )
+    }
+
+    @Test
+    fun fastBilinearFromRatioThree() {
+        assertEquals(
+            "fps=10,scale=320:384:flags=fast_bilinear",
+            VideoFilterPlanner.plan(960, 1152, 320, 384, 10)
+        )
+        assertEquals("fps=10,scale=320:384", VideoFilterPlanner.plan(956, 1148, 320, 384, 10))
+        assertEquals(
+            "fps=10,crop=960:720:0:0,scale=320:384:force_original_aspect_ratio=decrease:flags=fast_bilinear," +
+                    "pad=320:384:(ow-iw)/2:(oh-ih)/2",
+            VideoFilterPlanner.plan(1920, 1080, 320, 384, 10, VideoFilterPlanner.Region(0, 0, 960, 720))
+        )
+    }
+
+    @Test
+    fun fpsComesFirst() {
+        val plans = listOf(
+            VideoFilterPlanner.plan(1920, 1080, 320, 384, 10),
+            VideoFilterPlanner.plan(1080, 1920, 320, 384, 10),
+            VideoFilterPlanner.plan(0, 0, 320, 384, 10),
+            VideoFilterPlanner.plan(1920, 1080, 320, 384, 10, VideoFilterPlanner.Region(100, 50, 800, 600))
+        )
+        for (plan in plans) {
+            assertTrue(plan, plan.startsWith("fps=10,"))
+            assertEquals(plan, 1, plan.split(",").count { it.startsWith("fps=") })
+        }
+    }
+}